@@ -0,0 +1,152 @@
+package org.cdlib.mrt.ingest;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.apache.zookeeper.ZooKeeper;
+import org.cdlib.mrt.zk.Batch;
+import org.cdlib.mrt.zk.Job;
+import org.cdlib.mrt.zk.JobState;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * End-to-end pipeline latency
+ *
+ * Submits a set of single file jobs and samples ZooKeeper to record when each job is first
+ * seen in each state.  Reports the dwell time per stage and the end-to-end latency from
+ * submission to completion.  Uses the same test stack as ServiceDriverIT.
+ *
+ * Runs with the other integration tests, all submitted jobs must finish:
+ *   mvn verify -Dit.test=PipelineLatencyIT [-Dlatency.jobs=10]
+ */
+public class PipelineLatencyIT {
+        private int port = 8080;
+        private int zkport = 8084;
+        private String cp = "mrtingest";
+        private int numJobs = 5;
+        private ServiceDriverIT driver;
+        private ZooKeeper zk;
+
+        public static final int SAMPLE_INTERVAL = 100;          // msec
+        public static final long MAX_WAIT = 10 * 60 * 1000;     // msec
+
+        @Before
+        public void setup() throws Exception {
+                try {
+                        port = Integer.parseInt(System.getenv("it-server.port"));
+                        zkport = Integer.parseInt(System.getenv("mrt-zk.port"));
+                } catch (NumberFormatException e) {
+                        //use default ports
+                }
+                numJobs = Integer.getInteger("latency.jobs", numJobs);
+                driver = new ServiceDriverIT();
+                // queue may be held by an earlier integration test
+                driver.clearQueueDirectory();
+                zk = new ZooKeeper(String.format("localhost:%s", zkport), ServiceDriverIT.ZK_SESSION_TIMEOUT, null);
+        }
+
+        @After
+        public void teardown() throws InterruptedException {
+                if (zk != null) {
+                        zk.close();
+                }
+        }
+
+        @Test
+        public void SingleFilePipelineLatency() throws Exception {
+                String url = String.format("http://localhost:%d/%s/poster/submit", port, cp);
+                File file = new File("src/test/resources/data/foo.txt");
+
+                List<Batch> batches = new ArrayList<>();
+                Map<String, Long> submitted = new HashMap<>();
+                Map<String, Map<JobState, Long>> transitions = new HashMap<>();
+                Map<String, Long> finished = new HashMap<>();
+
+                for (int i = 0; i < numJobs; i++) {
+                        long start = System.currentTimeMillis();
+                        String bid = driver.ingestFile(url, file);
+                        submitted.put(bid, start);
+                }
+
+                long deadline = System.currentTimeMillis() + MAX_WAIT;
+                while (finished.size() < numJobs && System.currentTimeMillis() < deadline) {
+                        for (String bid : submitted.keySet()) {
+                                if (finished.containsKey(bid)) continue;
+                                Batch batch;
+                                try {
+                                        batch = driver.getZkBatch(bid);
+                                } catch (Exception e) {
+                                        continue;       // batch not yet in ZooKeeper
+                                }
+                                List<Job> jobs = new ArrayList<>(batch.getProcessingJobs(zk));
+                                jobs.addAll(batch.getCompletedJobs(zk));
+                                jobs.addAll(batch.getFailedJobs(zk));
+                                for (Job j : jobs) {
+                                        j.load(zk);
+                                        long now = System.currentTimeMillis();
+                                        Map<JobState, Long> seen = transitions.computeIfAbsent(bid, k -> new LinkedHashMap<>());
+                                        seen.putIfAbsent(j.status(), now);
+
+                                        // Inventory and Storage are mocked in the test stack
+                                        if (j.status() == JobState.Recording || j.status() == JobState.Storing) {
+                                                j.setStatus(zk, j.status().success());
+                                        }
+                                        if (j.status() == JobState.Completed || j.status() == JobState.Failed) {
+                                                finished.put(bid, now);
+                                                batches.add(batch);
+                                        }
+                                }
+                        }
+                        Thread.sleep(SAMPLE_INTERVAL);
+                }
+
+                report(submitted, transitions, finished);
+                for (Batch batch : batches) {
+                        driver.cleanup(batch);
+                }
+                assertEquals(numJobs, finished.size());
+        }
+
+        private void report(Map<String, Long> submitted, Map<String, Map<JobState, Long>> transitions, Map<String, Long> finished) {
+                Map<JobState, Long> dwellTotal = new LinkedHashMap<>();
+                Map<JobState, Integer> dwellCount = new LinkedHashMap<>();
+                long e2eTotal = 0;
+                long e2eMax = 0;
+
+                for (String bid : finished.keySet()) {
+                        long e2e = finished.get(bid) - submitted.get(bid);
+                        e2eTotal += e2e;
+                        e2eMax = Math.max(e2eMax, e2e);
+
+                        // Dwell time of a state is the time until the next state was first seen
+                        JobState prev = null;
+                        long prevTime = 0;
+                        for (Map.Entry<JobState, Long> t : transitions.get(bid).entrySet()) {
+                                if (prev != null) {
+                                        dwellTotal.merge(prev, t.getValue() - prevTime, Long::sum);
+                                        dwellCount.merge(prev, 1, Integer::sum);
+                                }
+                                prev = t.getKey();
+                                prevTime = t.getValue();
+                        }
+                }
+
+                System.out.println("[PipelineLatencyIT] jobs completed: " + finished.size() + " of " + submitted.size());
+                for (JobState state : dwellTotal.keySet()) {
+                        System.out.println(String.format("[PipelineLatencyIT] %-14s avg dwell: %8d ms", state,
+                                dwellTotal.get(state) / dwellCount.get(state)));
+                }
+                if (! finished.isEmpty()) {
+                        System.out.println(String.format("[PipelineLatencyIT] end-to-end     avg: %8d ms  max: %8d ms",
+                                e2eTotal / finished.size(), e2eMax));
+                }
+        }
+}
@@ -46,12 +46,11 @@ import java.util.SortedMap;
 import java.util.NoSuchElementException;
 
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import org.cdlib.mrt.core.DateState;
 import org.cdlib.mrt.ingest.handlers.Handler;
+import org.cdlib.mrt.ingest.handlers.HandlerRegistry;
 import org.cdlib.mrt.ingest.handlers.HandlerResult;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
@@ -217,10 +216,13 @@ public class BatchManager {
                             System.out.println("[info] " + MESSAGE + "S3 Profile Secret Key NOT defined");
 			}
 
+                        // Shared S3 profile client
+                        ProfileUtil.warmS3(s3endpoint, s3accesskey, s3secretkey, profileNode);
+
             	        if (! ZookeeperUtil.validateZK(zooKeeper)) {
                	            try {
                    	        // Refresh ZK connection
-                   	        zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   	        zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                	            } catch  (Exception e ) {
                  	        e.printStackTrace(System.err);
                	            }
@@ -238,7 +240,6 @@ public class BatchManager {
 			throw new TException.GENERAL_EXCEPTION(msg);
                 } finally {
                         try {
-                                zooKeeper.close();
                                 zooKeeper = null;
                         } catch (Exception e) {
                         }
@@ -357,7 +358,7 @@ public class BatchManager {
 
 		boolean unitTest = false;
                 try {
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 		} catch (Exception e) { 
 		   // Unit test catch 
 		   unitTest = true;
@@ -448,35 +449,16 @@ public class BatchManager {
                     throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + ex);
             } finally {
 		try {
-		   zooKeeper.close();
 		   zooKeeper = null;
 		} catch(Exception ze) {}
 	    }
 	}
 
-	static Object createObject(String className) {
-		Object object = null;
-		try {
-			Class classDefinition = Class.forName(className);
-			object = classDefinition.newInstance();
-		} catch (InstantiationException e) {
-			System.out.println(e);
-		} catch (IllegalAccessException e) {
-			System.out.println(e);
-		} catch (ClassNotFoundException e) {
-			System.out.println(e);
-		}
-		return object;
-	}
 
 	public String capFirst(String str) {
 		return str.substring(0, 1).toUpperCase() + str.substring(1);
 	}
 
-	public static class Ignorer implements Watcher {
-		public void process(WatchedEvent event) {
-		}
-	}
 
 // Need to post (post to queueing service asyncrhonously due to UI timeout)
 	class Post implements Runnable {
@@ -514,7 +496,7 @@ public class BatchManager {
 				//sortedMap = batchHandlers;
 				for (Object key : sortedMap.keySet()) {
 					String handlerS = ((HandlerState) sortedMap.get((Integer) key)).getHandlerName();
-					Handler handler = (Handler) createObject(handlerS);
+					Handler handler = HandlerRegistry.getHandler(handlerS);
 					if (handler == null) {
 						throw new TException.INVALID_CONFIGURATION("[error] Could not find queue handler: " + handlerS);
 					}
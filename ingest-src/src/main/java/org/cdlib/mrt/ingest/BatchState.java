@@ -33,7 +33,10 @@ import java.util.Iterator;
 import java.io.Serializable;
 import java.lang.Cloneable;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
 
 import org.cdlib.mrt.core.DateState;
 import org.cdlib.mrt.core.Identifier;
@@ -61,7 +64,9 @@ public class BatchState
     private BatchStatusEnum batchStatus = null;
     private String batchStatusMessage = null;
     private String queueConnectionString = null;
-    private Map<String, JobState> jobStates = new HashMap<String, JobState>();
+    private Map<String, JobState> jobStates = new LinkedHashMap<String, JobState>();	// submission order
+    private transient BlockingQueue<Future<JobState>> arrivingJobs = null;
+    private transient int arrivingCount = 0;
     //private static Map<String, BatchState> batchStates = new HashMap<String, BatchState>();
     //private static Map<String, Integer> batchReadiness = new HashMap<String, Integer>();
     //private static Map<String, Integer> batchCompletion = new HashMap<String, Integer>();
@@ -317,6 +322,29 @@ public class BatchState
         return this.jobStates.get(id);
     }
 
+    /**
+     * Set jobs whose object manifests are still being retrieved.
+     * These are the last arrivingCount jobs added to the batch.
+     * @param arrivingJobs receives each job as its manifest is retrieved (or fails)
+     * @param arrivingCount number of jobs that will arrive
+     */
+    public void setArrivingJobs(BlockingQueue<Future<JobState>> arrivingJobs, int arrivingCount) {
+        this.arrivingJobs = arrivingJobs;
+        this.arrivingCount = arrivingCount;
+    }
+
+    /**
+     * Get jobs whose object manifests are still being retrieved
+     * @return arriving jobs, null if all jobs are ready
+     */
+    public BlockingQueue<Future<JobState>> grabArrivingJobs() {
+        return this.arrivingJobs;
+    }
+
+    public int grabArrivingCount() {
+        return this.arrivingCount;
+    }
+
     /**
      * Set update boolean
      * @param boolean set update flag
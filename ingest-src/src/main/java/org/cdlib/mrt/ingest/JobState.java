@@ -84,6 +84,8 @@ public class JobState
 
 	private String hashValue = null;
 	private DigestEnum hashAlgorithm;
+	private String uploadDigest = null;		// package digest computed on receipt
+	private String uploadDigestFile = null;		// stored file the receipt digest was computed from
 	private String objectState = null;
 	private String objectNote = null;
 	private Integer versionID = null;
@@ -412,6 +414,38 @@ public class JobState
 		this.hashValue = hashValue;
 	}
 
+	/**
+	 * Get package digest computed as the package was received, in the hash algorithm
+	 * @return Package hexadecimal message digest value, null if not computed
+	 */
+	public String grabUploadDigest() {	// non-displayable
+		return uploadDigest;
+	}
+
+	/**
+	 * Set package digest computed as the package was received
+	 * @param String Package hexadecimal message digest value
+	 */
+	public void setUploadDigest(String uploadDigest) {
+		this.uploadDigest = uploadDigest;
+	}
+
+	/**
+	 * Get name of the stored file the receipt digest was computed from
+	 * @return file name in the queue directory, null if no digest computed
+	 */
+	public String grabUploadDigestFile() {	// non-displayable
+		return uploadDigestFile;
+	}
+
+	/**
+	 * Set name of the stored file the receipt digest was computed from
+	 * @param String file name in the queue directory
+	 */
+	public void setUploadDigestFile(String uploadDigestFile) {
+		this.uploadDigestFile = uploadDigestFile;
+	}
+
 	/**
 	 * Get content creator
 	 * @return Object Dublin Kernel "who" element
@@ -43,19 +43,27 @@ import java.util.Map;
 import java.util.Properties;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import org.cdlib.mrt.core.DateState;
 import org.cdlib.mrt.ingest.handlers.Handler;
+import org.cdlib.mrt.ingest.handlers.HandlerRegistry;
 import org.cdlib.mrt.ingest.handlers.HandlerResult;
+import org.cdlib.mrt.ingest.handlers.initialize.HandlerDisaggregate;
 import org.cdlib.mrt.ingest.utility.BatchStatusEnum;
+import org.cdlib.mrt.ingest.utility.DigestEngine;
+import org.cdlib.mrt.ingest.utility.DownloadScheduler;
+import org.cdlib.mrt.ingest.utility.DownloadUtil;
+import org.cdlib.mrt.ingest.utility.ProfileCache;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
+import org.cdlib.mrt.ingest.utility.HttpClientPool;
 import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
 import org.cdlib.mrt.ingest.utility.MintUtil;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
@@ -81,6 +89,12 @@ public class ProcessManager {
 	private static final String NAME = "ProcessManager";
 	private static final String MESSAGE = NAME + ": ";
 	private static final boolean DEBUG = true;
+	private static final int UNLOCK_ATTEMPTS = 3;
+	private static final int UNLOCK_RETRY_MS = (5 * 1000);
+	// localID locks whose release failed.  The session is shared for the life of the
+	// process, so these ephemeral nodes are not removed by closing it; retried before
+	// every localID lock attempt and release.
+	private static final Set<String> pendingLocalIDUnlocks = ConcurrentHashMap.newKeySet();
 	private LoggerInf logger = null;
         private JSONObject storeConf = null;
         private JSONObject ingestConf = null;
@@ -294,6 +308,9 @@ public class ProcessManager {
                             System.out.println("[info] " + MESSAGE + "S3 Profile Secret Key NOT defined");
 			}
 
+                        // Shared S3 profile client
+                        ProfileUtil.warmS3(s3endpoint, s3accesskey, s3secretkey, profileNode);
+
 			// ingestServicePath
 			this.ingestFileS = ingestConf.getString("ingestServicePath");
 
@@ -312,6 +329,114 @@ public class ProcessManager {
             		   System.err.println("[warn] " + MESSAGE + "Could not set download thread pool size: " + sNumDownloadThreads + "  - using default: " + this.numDownloadThreads);
         		}
 
+			// Digest thread pool size
+			String sNumDigestThreads = null;
+        		try {
+            		   sNumDigestThreads = ingestConf.getString("NumDigestThreads");
+            		   if (StringUtil.isNotEmpty(sNumDigestThreads)) {
+                	      System.out.println("[info] " + MESSAGE + "Setting digest thread pool size: " + sNumDigestThreads);
+                	      DigestEngine.setParallelism(Integer.valueOf(sNumDigestThreads));
+            		   }
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not set digest thread pool size: " + sNumDigestThreads + "  - using default");
+        		}
+
+			// Shared download scheduler: global and per-host concurrency
+			String sDownloadThreads = null;
+			String sDownloadThreadsPerHost = null;
+        		try {
+            		   sDownloadThreads = ingestConf.getString("DownloadThreads");
+            		   sDownloadThreadsPerHost = ingestConf.getString("DownloadThreadsPerHost");
+            		   int threads = StringUtil.isNotEmpty(sDownloadThreads) ? Integer.valueOf(sDownloadThreads) : DownloadScheduler.DEFAULT_THREADS;
+            		   int threadsPerHost = StringUtil.isNotEmpty(sDownloadThreadsPerHost) ? Integer.valueOf(sDownloadThreadsPerHost) : DownloadScheduler.DEFAULT_THREADS_PER_HOST;
+                	   System.out.println("[info] " + MESSAGE + "Setting download scheduler threads: " + threads + " - per host: " + threadsPerHost);
+                	   DownloadScheduler.configure(threads, threadsPerHost);
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not configure download scheduler: " + sDownloadThreads + "/" + sDownloadThreadsPerHost + "  - using default");
+        		}
+
+			// Pooled HTTP connections to submitter hosts
+			String sHttpConnections = null;
+			String sHttpConnectionsPerHost = null;
+        		try {
+            		   sHttpConnections = ingestConf.getString("HttpConnections");
+            		   sHttpConnectionsPerHost = ingestConf.getString("HttpConnectionsPerHost");
+            		   int total = StringUtil.isNotEmpty(sHttpConnections) ? Integer.valueOf(sHttpConnections) : HttpClientPool.MAX_TOTAL;
+            		   int perHost = StringUtil.isNotEmpty(sHttpConnectionsPerHost) ? Integer.valueOf(sHttpConnectionsPerHost) : HttpClientPool.MAX_PER_HOST;
+                	   System.out.println("[info] " + MESSAGE + "Setting HTTP connection pool: " + total + " - per host: " + perHost);
+                	   HttpClientPool.setLimits(total, perHost);
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not configure HTTP connection pool: " + sHttpConnections + "/" + sHttpConnectionsPerHost + "  - using default");
+        		}
+
+			// Parallel ranged retrieval of large files
+			String sChunkThreshold = null;
+			String sChunkSize = null;
+			String sChunkThreads = null;
+        		try {
+            		   sChunkThreshold = ingestConf.getString("ChunkedDownloadThreshold");
+            		   sChunkSize = ingestConf.getString("ChunkedDownloadSize");
+            		   sChunkThreads = ingestConf.getString("ChunkedDownloadThreads");
+            		   long threshold = StringUtil.isNotEmpty(sChunkThreshold) ? Long.valueOf(sChunkThreshold) : DownloadUtil.DEFAULT_CHUNK_THRESHOLD;
+            		   long size = StringUtil.isNotEmpty(sChunkSize) ? Long.valueOf(sChunkSize) : DownloadUtil.DEFAULT_CHUNK_SIZE;
+            		   int threads = StringUtil.isNotEmpty(sChunkThreads) ? Integer.valueOf(sChunkThreads) : DownloadUtil.DEFAULT_CHUNK_THREADS;
+                	   System.out.println("[info] " + MESSAGE + "Setting chunked download threshold: " + threshold + " - chunk size: " + size + " - threads: " + threads);
+                	   DownloadUtil.setChunking(threshold, size, threads);
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not configure chunked download: " + sChunkThreshold + "/" + sChunkSize + "/" + sChunkThreads + "  - using default");
+        		}
+
+			// Container extraction buffer
+			String sContainerBufferSize = null;
+        		try {
+            		   sContainerBufferSize = ingestConf.getString("ContainerBufferSize");
+            		   if (StringUtil.isNotEmpty(sContainerBufferSize)) {
+                	      System.out.println("[info] " + MESSAGE + "Setting container extraction buffer size: " + sContainerBufferSize);
+                	      HandlerDisaggregate.setBufferSize(Integer.valueOf(sContainerBufferSize));
+            		   }
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not set container extraction buffer size: " + sContainerBufferSize + "  - using default: " + HandlerDisaggregate.DEFAULT_BUFFER_SIZE);
+        		}
+
+			// Digests computed for container members during extraction
+			String sContainerDigests = null;
+        		try {
+            		   sContainerDigests = ingestConf.getString("ContainerDigestAlgorithms");
+            		   if (StringUtil.isNotEmpty(sContainerDigests)) {
+                	      System.out.println("[info] " + MESSAGE + "Setting container extraction digests: " + sContainerDigests);
+                	      HandlerDisaggregate.setDigestAlgorithms(sContainerDigests.trim().split("\\s*,\\s*"));
+            		   }
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not set container extraction digests: " + sContainerDigests + "  - using default");
+        		}
+
+			// Zip entries extracted concurrently
+			String sContainerExtractThreads = null;
+        		try {
+            		   sContainerExtractThreads = ingestConf.getString("ContainerExtractThreads");
+            		   if (StringUtil.isNotEmpty(sContainerExtractThreads)) {
+                	      System.out.println("[info] " + MESSAGE + "Setting container extraction threads: " + sContainerExtractThreads);
+                	      HandlerDisaggregate.setExtractThreads(Integer.parseInt(sContainerExtractThreads.trim()));
+            		   }
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not set container extraction threads: " + sContainerExtractThreads + "  - using default");
+        		}
+
+			// Handler classes
+			System.out.println("[info] " + MESSAGE + "Handler registry: " + HandlerRegistry.size() + " handlers");
+
+			// Profile cache expiry
+			String sProfileCacheTTL = null;
+        		try {
+            		   sProfileCacheTTL = ingestConf.getString("ProfileCacheTTL");
+            		   if (StringUtil.isNotEmpty(sProfileCacheTTL)) {
+                	      System.out.println("[info] " + MESSAGE + "Setting profile cache TTL (ms): " + sProfileCacheTTL);
+                	      ProfileCache.setTTL(Long.valueOf(sProfileCacheTTL));
+            		   }
+        		} catch (Exception e) {
+            		   System.err.println("[warn] " + MESSAGE + "Could not set profile cache TTL: " + sProfileCacheTTL + "  - using default: " + ProfileCache.DEFAULT_TTL);
+        		}
+
 			// purl
 			m_purl = ingestConf.getString(matchPURL);
 			if (!m_purl.endsWith("/")) m_purl += "/";
@@ -524,7 +649,7 @@ public class ProcessManager {
 				}
 				if (! skipLock) {
                                     System.out.println("[localID Check] LocalID locking starting.");
-            			    zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+            			    zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
     				    localIDLock = getLocalIDLock(zooKeeper, jobState.getLocalID().getValue(), jobState.grabObjectProfile().getOwner());
 				} else {
                                     System.out.println("[localID Check] No LocalID locking needed");
@@ -535,7 +660,7 @@ public class ProcessManager {
 			if (state.matches("Notify")) sortedMap = profileState.getNotifyHandlers();
 			for (Object key : sortedMap.keySet()) {
 				String handlerS = ((HandlerState) sortedMap.get((Integer) key)).getHandlerName();
-				Handler handler = (Handler) createObject(handlerS);
+				Handler handler = HandlerRegistry.getHandler(handlerS);
 				
 				if (handler == null) {
 					throw new TException.INVALID_CONFIGURATION("[error] Could not find handler: " + handlerS);
@@ -600,6 +725,7 @@ public class ProcessManager {
 					jobState.setMisc(queueConf.getString("QueueService"));
 				}
 
+				long handlerStart = System.currentTimeMillis();
 				try {
 					// Do some work
 					handlerResult = handler.handle(profileState, ingestRequest, stateClass);
@@ -607,6 +733,8 @@ public class ProcessManager {
 				} catch (Exception e) {
 					e.printStackTrace();
 					handlerResult.setSuccess(false);
+				} finally {
+					MetricsUtil.recordHandler(state, handler.getName(), System.currentTimeMillis() - handlerStart);
 				}
 
 				// Abort if failure
@@ -626,7 +754,7 @@ public class ProcessManager {
 
 					// Hard-code Callback for failed jobs
 					if (DEBUG) System.out.println("[debug] " + "Forcing Callback for Failed Job: " + jobState.toString());
-					Handler callbackHandler = (Handler) createObject("org.cdlib.mrt.ingest.handlers.notify.HandlerCallback");
+					Handler callbackHandler = HandlerRegistry.getHandler("org.cdlib.mrt.ingest.handlers.notify.HandlerCallback");
 					callbackHandler.handle(profileState, ingestRequest, jobState);
 				}
 			} // end for
@@ -654,7 +782,6 @@ public class ProcessManager {
 			   } catch (Exception e) {}
 			}
                         try {
-                          zooKeeper.close();
                           zooKeeper = null;
                         } catch(Exception ze) {}
 			}
@@ -687,7 +814,7 @@ public class ProcessManager {
            boolean unitTest = false;
            try {
 		try {
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 		} catch (Exception e) {
 		   // Unit test catch
 		   unitTest = true;
@@ -787,7 +914,6 @@ public class ProcessManager {
                     throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + ex);
             } finally {
 		try {
-		   zooKeeper.close();
 		   zooKeeper = null;
 		} catch(Exception ze) {}
 	    }
@@ -878,20 +1004,6 @@ public class ProcessManager {
 		}
 	}
 
-	protected static Object createObject(String className) {
-		Object object = null;
-		try {
-			Class classDefinition = Class.forName(className);
-			object = classDefinition.newInstance();
-		} catch (InstantiationException e) {
-			System.out.println(e);
-		} catch (IllegalAccessException e) {
-			System.out.println(e);
-		} catch (ClassNotFoundException e) {
-			System.out.println(e);
-		}
-		return object;
-	}
 
     /**
      * Lock on local identifier.  Will loop until lock obtained.
@@ -906,6 +1018,7 @@ public class ProcessManager {
 
         boolean locked = false;
         while (! locked) {
+            retryPendingUnlocks();
             try {
                System.out.println("[info] " + MESSAGE + " Attempting to gain localID lock: " + localID + "_" + owner);
                locked = MerrittLocks.lockObjectLocalID(zooKeeper, localID + "_" + owner);
@@ -936,21 +1049,53 @@ public class ProcessManager {
      * @return void
      */
     private void releaseLocalIDLock(ZooKeeper zooKeeper, String localID) {
-        try {
-               System.out.println("[info] " + MESSAGE + " Attempting to release localID lock: " + localID);
+        if (localID == null) return;
+        System.out.println("[info] " + MESSAGE + " Attempting to release localID lock: " + localID);
+        for (int attempt = 1; attempt <= UNLOCK_ATTEMPTS; attempt++) {
+            try {
+               if (attempt > 1) zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                MerrittLocks.unlockObjectLocalID(zooKeeper, localID); 
-        } catch (Exception e) {
-            // e.printStackTrace();
-        } finally {
+               pendingLocalIDUnlocks.remove(localID);
+               retryPendingUnlocks();
+               return;
+            } catch (Exception e) {
+               if (e instanceof KeeperException.NoNodeException) {
+                  // already gone
+                  pendingLocalIDUnlocks.remove(localID);
+                  return;
+               }
+               System.err.println("[warn] " + MESSAGE + " Unable to release localID lock: " + localID + " - attempt " + attempt + ": " + e);
+               e.printStackTrace();
+            }
             try {
-            } catch (Exception ze) {}
+               Thread.sleep(UNLOCK_RETRY_MS);
+            } catch (InterruptedException ie) {
+               Thread.currentThread().interrupt();
+               break;
+            }
         }
+        System.err.println("[error] " + MESSAGE + " localID lock not released, will retry: " + localID);
+        pendingLocalIDUnlocks.add(localID);
+    }
 
+    /**
+     * Release localID locks whose earlier release failed
+     */
+    private void retryPendingUnlocks() {
+        for (String localID : pendingLocalIDUnlocks) {
+            try {
+               MerrittLocks.unlockObjectLocalID(ZookeeperUtil.getZooKeeper(queueConnectionString), localID); 
+               System.out.println("[info] " + MESSAGE + " Released pending localID lock: " + localID);
+               pendingLocalIDUnlocks.remove(localID);
+            } catch (Exception e) {
+               if (e instanceof KeeperException.NoNodeException) {
+                  pendingLocalIDUnlocks.remove(localID);
+                  continue;
+               }
+               System.err.println("[warn] " + MESSAGE + " Unable to release pending localID lock: " + localID + ": " + e);
+            }
+        }
     }
 
 
-        public static class Ignorer implements Watcher {
-                public void process(WatchedEvent event) {
-                }
-        }
 }
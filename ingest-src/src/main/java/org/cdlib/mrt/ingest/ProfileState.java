@@ -32,6 +32,7 @@ package org.cdlib.mrt.ingest;
 import java.net.URL;
 import java.util.Collection;
 import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.Vector;
 import java.io.File;
 import java.io.Serializable;
@@ -46,7 +47,7 @@ import org.cdlib.mrt.utility.StateInf;
  * @author mreyes
  */
 public class ProfileState
-        implements ProfileStateInf, StateInf, Serializable
+        implements ProfileStateInf, StateInf, Serializable, Cloneable
 {
 
     private static final String NAME = "ProfileState";
@@ -105,6 +106,38 @@ public class ProfileState
     private String notificationSuppression = null;	// partial|full suppress email notification
     private boolean suppressDublinCoreLocalID = false;	// opt-in policy
 
+    /**
+     * Copy for a single request, so that request changes (admin, contacts,
+     * cleared handlers) do not reach a shared cached profile
+     * @return ProfileState copy with its own collections
+     */
+    public ProfileState copy() {
+        try {
+            ProfileState copy = (ProfileState) super.clone();
+            copy.contactsEmail = new Vector<Notification>(contactsEmail);
+            copy.collection = new Vector<String>(collection);
+            copy.ingestHandlers = copyHandlers(ingestHandlers);
+            copy.batchProcessHandlers = copyHandlers(batchProcessHandlers);
+            copy.batchReportHandlers = copyHandlers(batchReportHandlers);
+            copy.queueHandlers = copyHandlers(queueHandlers);
+            copy.initializeHandlers = copyHandlers(initializeHandlers);
+            copy.estimateHandlers = copyHandlers(estimateHandlers);
+            copy.provisionHandlers = copyHandlers(provisionHandlers);
+            copy.downloadHandlers = copyHandlers(downloadHandlers);
+            copy.processHandlers = copyHandlers(processHandlers);
+            copy.recordHandlers = copyHandlers(recordHandlers);
+            copy.notifyHandlers = copyHandlers(notifyHandlers);
+            return copy;
+        } catch (CloneNotSupportedException cnse) {
+            throw new IllegalStateException(MESSAGE + "copy not supported", cnse);
+        }
+    }
+
+    private static SortedMap<Integer,HandlerState> copyHandlers(SortedMap<Integer,HandlerState> handlers) {
+        if (handlers == null) return null;
+        return new TreeMap<Integer,HandlerState>(handlers);
+    }
+
     final String[] OBJECTTYPE = { "MRT-curatorial", "MRT-system" };
     final String[] OBJECTROLE = { "MRT-content", "MRT-class" };
     final String[] AGGREGATETYPE = { "MRT-collection", "MRT-owner", "MRT-service-level-agreement" };
@@ -46,13 +46,13 @@ import java.util.SortedMap;
 import java.util.NoSuchElementException;
 
 import org.apache.zookeeper.KeeperException;
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import org.cdlib.mrt.core.DateState;
 import org.cdlib.mrt.ingest.handlers.Handler;
+import org.cdlib.mrt.ingest.handlers.HandlerRegistry;
 import org.cdlib.mrt.ingest.handlers.HandlerResult;
+import org.cdlib.mrt.ingest.handlers.queue.HandlerSubmit;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.ingest.utility.BatchStatusEnum;
@@ -210,6 +210,18 @@ public class QueueManager {
                             System.out.println("[info] " + MESSAGE + "S3 Profile Secret Key NOT defined");
 			}
 
+                        // Shared S3 profile client
+                        ProfileUtil.warmS3(s3endpoint, s3accesskey, s3secretkey, profileNode);
+
+                        // Jobs created per ZooKeeper submission chunk
+			try {
+                            int submitChunkSize = Integer.parseInt(queueConf.getString("SubmitChunkSize"));
+                            HandlerSubmit.setChunkSize(submitChunkSize);
+                            System.out.println("[info] " + MESSAGE + "Submit chunk size: " + submitChunkSize);
+			} catch (Exception e) {
+                            System.out.println("[info] " + MESSAGE + "Submit chunk size NOT defined - using default");
+			}
+
 		} catch (TException tex) {
 			throw tex;
 		} catch (Exception ex) {
@@ -247,7 +259,7 @@ public class QueueManager {
                         if (! ZookeeperUtil.validateZK(zooKeeper)) {
                             try {
                                 // Refresh ZK connection
-                                zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                                zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                             } catch  (Exception e ) {
                                 e.printStackTrace(System.err);
                             }
@@ -293,7 +305,6 @@ public class QueueManager {
                         throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + ex);
                 } finally {
                         try {
-                            zooKeeper.close();
                             zooKeeper = null;
                         } catch (Exception e) {}
                 }
@@ -378,7 +389,7 @@ public class QueueManager {
 		String SUPPORTURI = "support-uri";
 		String MAILHOST = "mail-host";
 
-                zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 
 		// name
 		String serviceNameS = ingestConf.getString(SERVICENAME);
@@ -461,35 +472,16 @@ public class QueueManager {
                     throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + ex);
             } finally {
 		    try {
-		        zooKeeper.close();
 		        zooKeeper = null;
 		    } catch (Exception e) {}
 	    }
 	}
 
-	static Object createObject(String className) {
-		Object object = null;
-		try {
-			Class classDefinition = Class.forName(className);
-			object = classDefinition.newInstance();
-		} catch (InstantiationException e) {
-			System.out.println(e);
-		} catch (IllegalAccessException e) {
-			System.out.println(e);
-		} catch (ClassNotFoundException e) {
-			System.out.println(e);
-		}
-		return object;
-	}
 
 	public String capFirst(String str) {
 		return str.substring(0, 1).toUpperCase() + str.substring(1);
 	}
 
-	public static class Ignorer implements Watcher {
-		public void process(WatchedEvent event) {
-		}
-	}
 
 // Need to post (post to queueing service asyncrhonously due to UI timeout)
 	class Post implements Runnable {
@@ -521,7 +513,7 @@ public class QueueManager {
 				sortedMap = queueHandlers;
 				for (Object key : sortedMap.keySet()) {
 					String handlerS = ((HandlerState) sortedMap.get((Integer) key)).getHandlerName();
-					Handler handler = (Handler) createObject(handlerS);
+					Handler handler = HandlerRegistry.getHandler(handlerS);
 					if (handler == null) {
 						throw new TException.INVALID_CONFIGURATION("[error] Could not find queue handler: " + handlerS);
 					}
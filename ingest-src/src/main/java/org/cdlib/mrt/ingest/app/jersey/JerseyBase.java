@@ -30,26 +30,31 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 package org.cdlib.mrt.ingest.app.jersey;
 
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileNotFoundException;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintStream;
 import java.io.Serializable;
 import java.lang.InterruptedException;
 import java.lang.reflect.Field;
 import java.net.InetAddress;
+import java.security.Security;
+import java.util.ArrayList;
 import java.util.Enumeration;
-import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
 
 import org.glassfish.jersey.server.CloseableService;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.ServletConfig;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
 
-import org.apache.commons.fileupload.disk.DiskFileItemFactory;
-import org.apache.commons.fileupload.FileItem;
+import org.apache.commons.fileupload.FileItemIterator;
+import org.apache.commons.fileupload.FileItemStream;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.apache.commons.fileupload.util.Streams;
 
 import org.cdlib.mrt.core.Manifest;
 import org.cdlib.mrt.core.ManifestRowAbs;
@@ -66,6 +71,7 @@ import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.app.IngestServiceInit;
 import org.cdlib.mrt.ingest.app.ValidateCmdParms;
 import org.cdlib.mrt.ingest.service.IngestServiceInf;
+import org.cdlib.mrt.ingest.utility.DigestEngine;
 import org.cdlib.mrt.ingest.utility.MintUtil;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StateInf;
@@ -92,23 +98,25 @@ public class JerseyBase
     protected static final boolean DEBUG = true;
     protected static final String NL = System.getProperty("line.separator");
     protected static final String FS = System.getProperty("file.separator");
+    protected static final String[] UPLOAD_DIGEST_ALGORITHMS = {"SHA-256", "MD5"};
+    protected static final int UPLOAD_BUFFER_SIZE = 1024 * 1024;
 
     protected LoggerInf defaultLogger = new TFileLogger("Jersey", 10, 10);
     protected JerseyCleanup jerseyCleanup = new JerseyCleanup();
 
     /**
-     * Format file from input State file
+     * Format State for response
+     * Formatted output is streamed to the response, only the serial format uses a temp file
      * @param responseState object to be formatted
      * @param formatType user requested format type
      * @param logger file logger
-     * @return formatted data with MimeType
+     * @return formatted data (file or stream) with MimeType
      * @throws TException
      */
     protected TypeFile getStateFile(StateInf responseState, FormatType outputFormat, LoggerInf logger)
             throws TException
     {
         if (responseState == null) return null;
-        PrintStream stream = null;
         TypeFile typeFile = new TypeFile();
         try {
             if (outputFormat == FormatType.serial) {
@@ -125,11 +133,20 @@ public class JerseyBase
                 FormatterInf.Format formatterType = formatter.getFormatterType();
                 String foundFormatType = formatterType.toString();
                 typeFile.formatType = outputFormat.valueOf(foundFormatType);
-		String ext = typeFile.formatType.getExtension();
-                typeFile.file = FileUtil.getTempFile("state", "." + ext);
-                FileOutputStream outStream = new FileOutputStream(typeFile.file);
-                stream = new PrintStream(outStream, true, "utf-8");
-                formatter.format(responseState, stream);
+                typeFile.output = new StreamingOutput() {
+                    public void write(OutputStream outStream)
+                        throws IOException
+                    {
+                        PrintStream stream = new PrintStream(outStream, false, "utf-8");
+                        try {
+                            formatter.format(responseState, stream);
+                        } catch (Exception ex) {
+                            System.err.println("Stack:" + StringUtil.stackTrace(ex));
+                            throw new IOException(MESSAGE + "unable to format state: " + ex, ex);
+                        }
+                        stream.flush();
+                    }
+                };
             }
             return typeFile;
 
@@ -140,13 +157,6 @@ public class JerseyBase
         } catch (Exception ex) {
             System.err.println("Stack:" + StringUtil.stackTrace(ex));
             throw new TException.GENERAL_EXCEPTION(MESSAGE + " Exception:" + ex);
-
-        } finally {
-            if (stream != null) {
-                try {
-                    stream.close();
-                } catch (Exception ex) { }
-            }
         }
 
     }
@@ -349,30 +359,10 @@ public class JerseyBase
             jerseyCleanup.addTempFile(ingestRequest.getQueuePath());
             BatchState responseState = ingestService.submitPost(ingestRequest, "Process");
 
-            int retryCount = 0;
-	    Response response = null;
-	    while (true) {
-		try {
-                    response = getStateResponse(responseState, ingestRequest.getResponseForm(), logger, cs, sc);
-		    break;
-                } catch (Exception e) {
-		    // For large POST
-                    if (retryCount >= 6) {	// 30 seconds
-                        // We can not wait any longer. Let's return BatchState with current state (may be missing some JobStates)
-                        if (DEBUG) System.out.println("[error] JerseyBase: Truncating BatchState response:" + responseState.getBatchID().getValue());
-                        BatchState batchState = responseState.clone();
-                        response = getStateResponse(batchState, ingestRequest.getResponseForm(), logger, cs, sc);
-                    } else {
-                        if (DEBUG) System.out.println("[error] JerseyBase: Batch State is not yet stable (still adding jobs) " + responseState.getBatchID().getValue() + "  Retrying...");
-		    }
-                    try {
-                        Thread.sleep(1000 * 5);
-                    } catch (InterruptedException ie) {}
-                    retryCount++;       // Poster has not yet finished creating all jobs in batch
-                }
-		finally {
-		}
-	    }
+            // Batch process handlers have completed: the response holds the batch ID, which is the
+            // handle for following job progress (admin bid/{batchID}) while the queue consumer
+            // publishes jobs to ZooKeeper as they are unpacked.
+            Response response = getStateResponse(responseState, ingestRequest.getResponseForm(), logger, cs, sc);
             if (DEBUG) System.out.println("[info] POST complete, Batch ID: " +  ingestRequest.getJob().grabBatchID().getValue());
 
             return response;
@@ -414,7 +404,7 @@ public class JerseyBase
 
         try {
             typeFile = getStateFile(responseState, format, logger);
-            jerseyCleanup.addTempFile(typeFile.file);
+            if (typeFile.file != null) jerseyCleanup.addTempFile(typeFile.file);
             cs.add(jerseyCleanup);
 
         } catch (TException tex) {
@@ -459,7 +449,7 @@ public class JerseyBase
 	   hostname = "unknown";
         }
 
-        return Response.ok(typeFile.file, typeFile.formatType.getMimeType()).
+        return Response.ok(typeFile.getEntity(), typeFile.formatType.getMimeType()).
 		header(id, value).
 		header("hostname", hostname).
 		build();
@@ -508,7 +498,7 @@ public class JerseyBase
         log("getStateResponse:" + formatType
                 + " - formatType=" + typeFile.formatType
                 + " - mimeType=" + typeFile.formatType.getMimeType());
-        return Response.ok(typeFile.file, typeFile.formatType.getMimeType()).status(httpStatus).build();
+        return Response.ok(typeFile.getEntity(), typeFile.formatType.getMimeType()).status(httpStatus).build();
     }
 
 
@@ -528,7 +518,7 @@ public class JerseyBase
             LoggerInf logger)
         throws TException
     {
-    	FileItem item = null;
+    	FileItemStream item = null;
 
         try {
 
@@ -547,206 +537,207 @@ public class JerseyBase
 	}
 	if ( ! queueDir.exists()) queueDir.mkdirs();
 
-	// Create a factory for disk-based file items
-	DiskFileItemFactory factory = new DiskFileItemFactory();
-	factory.setSizeThreshold(0);
-	factory.setRepository(queueDir);
-	ServletFileUpload upload = new ServletFileUpload(factory);
-	List<FileItem> items = null;
+	// Stream parts as they arrive: no intermediate temp files, content is
+	// written once into the queue directory and hashed on the way
+	ServletFileUpload upload = new ServletFileUpload();
+	FileItemIterator iter = null;
 	try {
-	   items = (List<FileItem>) upload.parseRequest(request); 
+	   iter = upload.getItemIterator(request); 
 	} catch (Exception e) {
             throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + e);
 	}
 
-	if (DEBUG) System.err.println("[debug] form items: " + items.toString());
-
 	// Process form fields
-	Iterator<FileItem> iter = items.iterator();
+	List<SpooledUpload> uploads = new ArrayList<SpooledUpload>();
 	while (iter.hasNext()) {
     	   item = iter.next();
+	   if ( ! item.isFormField()) {
+		uploads.add(spool(item, queueDir, ingestRequest));
+		continue;
+	   }
 
 	   String field = null;
 	   try {
     	   	if (item.isFormField()) {
+		    String value = Streams.asString(item.openStream(), "utf-8");
 		    if (item.getFieldName().equals("submitter")) {
 		       field = "submitter";
-		       ingestRequest.getJob().setUserAgent(item.getString("utf-8"));
+		       ingestRequest.getJob().setUserAgent(value);
 		       if (DEBUG) System.err.println("[debug] submitter: " + ingestRequest.getJob().grabUserAgent());
 		    } else if (item.getFieldName().equals("object")){
 		       field = "object";
-		       ingestRequest.getJob().setPrimaryID(item.getString("utf-8"));
+		       ingestRequest.getJob().setPrimaryID(value);
 		       if (DEBUG) System.err.println("[debug] object: " + ingestRequest.getJob().getPrimaryID());
 		    } else if (item.getFieldName().equals("profile")){
 		       field = "profile";
-		       ingestRequest.setProfile(item.getString("utf-8"));
+		       ingestRequest.setProfile(value);
 		       if (DEBUG) System.err.println("[debug] profile: " + ingestRequest.getProfile());
 		    } else if (item.getFieldName().equals("filename")){
 		       filename = true;	
 		       field = "filename";
-		       ingestRequest.getJob().setPackageName(item.getString("utf-8"));
+		       ingestRequest.getJob().setPackageName(value);
 		       if (DEBUG) System.err.println("[debug] package name(filename): " + ingestRequest.getJob().getPackageName());
 		    } else if (item.getFieldName().equals("type")){
 		       field = "type";
 		       // object-manifest and batch-Manifest can not be an enum (hyphens)
-		       if (item.getString("utf-8").matches("object-manifest"))
+		       if (value.matches("object-manifest"))
 		           ingestRequest.setPackageType("manifest");
-		       else if (item.getString("utf-8").contains("single-file-batch-manifest"))
+		       else if (value.contains("single-file-batch-manifest"))
 		           ingestRequest.setPackageType("batchManifestFile");
-		       else if (item.getString("utf-8").contains("container-batch-manifest"))
+		       else if (value.contains("container-batch-manifest"))
 		           ingestRequest.setPackageType("batchManifestContainer");
-		       else if (item.getString("utf-8").contains("batch-manifest"))
+		       else if (value.contains("batch-manifest"))
 		           ingestRequest.setPackageType("batchManifest");
 		       else 
-		           ingestRequest.setPackageType(item.getString("utf-8"));
+		           ingestRequest.setPackageType(value);
 		       if (DEBUG) System.err.println("[debug] file type: " + ingestRequest.getPackageType());
 		    } else if (item.getFieldName().equals("size")){
 		       field = "size";
-		       ingestRequest.setPackageSize(item.getString("utf-8"));
+		       ingestRequest.setPackageSize(value);
 		       if (DEBUG) System.err.println("[debug] file size: " + ingestRequest.getPackageSize());
 		    } else if (item.getFieldName().equals("digestType")){
 		       field = "digestType";
-		       ingestRequest.getJob().setHashAlgorithm(item.getString("utf-8"));
+		       ingestRequest.getJob().setHashAlgorithm(value);
 		       if (DEBUG) System.err.println("[debug] algorithm: " + ingestRequest.getJob().getHashAlgorithm());
 		    } else if (item.getFieldName().equals("digestValue")){
 		       field = "digestValue";
-		       ingestRequest.getJob().setHashValue(item.getString("utf-8"));
+		       ingestRequest.getJob().setHashValue(value);
 		       if (DEBUG) System.err.println("[debug] value: " + ingestRequest.getJob().getHashValue());
 		    } else if (item.getFieldName().equals("creator")){
 		       field = "creator";
-		       ingestRequest.getJob().setObjectCreator(item.getString("utf-8"));
+		       ingestRequest.getJob().setObjectCreator(value);
 		    } else if (item.getFieldName().equals("title")){
 		       field = "title";
-		       ingestRequest.getJob().setObjectTitle(item.getString("utf-8"));
+		       ingestRequest.getJob().setObjectTitle(value);
 		    } else if (item.getFieldName().equals("date")){
 		       field = "date";
-		       ingestRequest.getJob().setObjectDate(item.getString("utf-8"));
+		       ingestRequest.getJob().setObjectDate(value);
 		    } else if (item.getFieldName().equals("localIdentifier")){
 		       field = "localIdentifier";
-		       ingestRequest.getJob().setLocalID(item.getString("utf-8"));
+		       ingestRequest.getJob().setLocalID(value);
 		    } else if (item.getFieldName().equals("primaryIdentifier")){
 		       field = "primaryIdentifier";
-		       ingestRequest.getJob().setPrimaryID(item.getString("utf-8"));
+		       ingestRequest.getJob().setPrimaryID(value);
 		    } else if (item.getFieldName().equals("note")){
 		       field = "note";
-		       ingestRequest.getJob().setNote(item.getString("utf-8"));
+		       ingestRequest.getJob().setNote(value);
 		    } else if (item.getFieldName().equals("erc")){
 		       field = "erc";
-		       ingestRequest.getJob().setERC(item.getString("utf-8"));
+		       ingestRequest.getJob().setERC(value);
 		    } else if (item.getFieldName().equals("notification")){
 		       field = "notification";
-		       ingestRequest.getJob().setAltNotification(item.getString("utf-8"));
+		       ingestRequest.getJob().setAltNotification(value);
 		    } else if (item.getFieldName().equals("responseForm")) {
 		       field = "responseForm";
-        	       String responseForm = processFormatType(ingestRequest.getResponseForm(), item.getString("utf-8"));
+        	       String responseForm = processFormatType(ingestRequest.getResponseForm(), value);
 
             	       ingestRequest.setResponseForm(responseForm);
 		       if (DEBUG) System.err.println("[debug] response form: " + ingestRequest.getResponseForm());
 		    } else if (item.getFieldName().equals("notificationFormat")) {
 		       field = "notificationFormat";
-        	       String notificationForm = item.getString("utf-8");
+        	       String notificationForm = value;
 
             	       ingestRequest.setNotificationFormat(notificationForm);
 		       if (DEBUG) System.err.println("[debug] notificationFormat: " + ingestRequest.getNotificationFormat());
 		    } else if (item.getFieldName().equals("DC.contributor")) {
 		       field = "DC.contributor";
-        	       String DCcontributor = item.getString("utf-8");
+        	       String DCcontributor = value;
 
             	       ingestRequest.setDCcontributor(DCcontributor);
 		       if (DEBUG) System.err.println("[debug] DC.contributor: " + ingestRequest.getDCcontributor());
 		    } else if (item.getFieldName().equals("DC.coverage")) {
 		       field = "DC.coverage";
-        	       String DCcoverage = item.getString("utf-8");
+        	       String DCcoverage = value;
 
             	       ingestRequest.setDCcoverage(DCcoverage);
 		       if (DEBUG) System.err.println("[debug] DC.coverage: " + ingestRequest.getDCcoverage());
 		    } else if (item.getFieldName().equals("DC.creator")) {
 		       field = "DC.creator";
-        	       String DCcreator = item.getString("utf-8");
+        	       String DCcreator = value;
 
             	       ingestRequest.setDCcreator(DCcreator);
 		       if (DEBUG) System.err.println("[debug] DC.creator: " + ingestRequest.getDCcreator());
 		    } else if (item.getFieldName().equals("DC.date")) {
 		       field = "DC.date";
-        	       String DCdate = item.getString("utf-8");
+        	       String DCdate = value;
 
             	       ingestRequest.setDCdate(DCdate);
 		       if (DEBUG) System.err.println("[debug] DC.date: " + ingestRequest.getDCdate());
 		    } else if (item.getFieldName().equals("DC.description")) {
 		       field = "DC.description";
-        	       String DCdescription = item.getString("utf-8");
+        	       String DCdescription = value;
 
             	       ingestRequest.setDCdescription(DCdescription);
 		       if (DEBUG) System.err.println("[debug] DC.description: " + ingestRequest.getDCdescription());
 		    } else if (item.getFieldName().equals("DC.format")) {
 		       field = "DC.format";
-        	       String DCformat = item.getString("utf-8");
+        	       String DCformat = value;
 
             	       ingestRequest.setDCformat(DCformat);
 		       if (DEBUG) System.err.println("[debug] DC.format: " + ingestRequest.getDCformat());
 		    } else if (item.getFieldName().equals("DC.identifier")) {
 		       field = "DC.identifier";
-        	       String DCidentifier = item.getString("utf-8");
+        	       String DCidentifier = value;
 
             	       ingestRequest.setDCidentifier(DCidentifier);
 		       if (DEBUG) System.err.println("[debug] DC.identifier: " + ingestRequest.getDCidentifier());
 		    } else if (item.getFieldName().equals("DC.language")) {
 		       field = "DC.language";
-        	       String DClanguage = item.getString("utf-8");
+        	       String DClanguage = value;
 
             	       ingestRequest.setDClanguage(DClanguage);
 		       if (DEBUG) System.err.println("[debug] DC.language: " + ingestRequest.getDClanguage());
 		    } else if (item.getFieldName().equals("DC.publisher")) {
 		       field = "DC.publisher";
-        	       String DCpublisher = item.getString("utf-8");
+        	       String DCpublisher = value;
 
             	       ingestRequest.setDCpublisher(DCpublisher);
 		       if (DEBUG) System.err.println("[debug] DC.publisher: " + ingestRequest.getDCpublisher());
 		    } else if (item.getFieldName().equals("DC.relation")) {
 		       field = "DC.relation";
-        	       String DCrelation = item.getString("utf-8");
+        	       String DCrelation = value;
 
             	       ingestRequest.setDCrelation(DCrelation);
 		       if (DEBUG) System.err.println("[debug] DC.relation: " + ingestRequest.getDCrelation());
 		    } else if (item.getFieldName().equals("DC.rights")) {
 		       field = "DC.rights";
-        	       String DCrights = item.getString("utf-8");
+        	       String DCrights = value;
 
             	       ingestRequest.setDCrights(DCrights);
 		       if (DEBUG) System.err.println("[debug] DC.rights: " + ingestRequest.getDCrights());
 		    } else if (item.getFieldName().equals("DC.source")) {
 		       field = "DC.source";
-        	       String DCsource = item.getString("utf-8");
+        	       String DCsource = value;
 
             	       ingestRequest.setDCsource(DCsource);
 		       if (DEBUG) System.err.println("[debug] DC.source: " + ingestRequest.getDCsource());
 		    } else if (item.getFieldName().equals("DC.subject")) {
 		       field = "DC.subject";
-        	       String DCsubject = item.getString("utf-8");
+        	       String DCsubject = value;
 
             	       ingestRequest.setDCsubject(DCsubject);
 		       if (DEBUG) System.err.println("[debug] DC.subject: " + ingestRequest.getDCsubject());
 		    } else if (item.getFieldName().equals("DC.title")) {
 		       field = "DC.title";
-        	       String DCtitle = item.getString("utf-8");
+        	       String DCtitle = value;
 
             	       ingestRequest.setDCtitle(DCtitle);
 		       if (DEBUG) System.err.println("[debug] DC.title: " + ingestRequest.getDCtitle());
 		    } else if (item.getFieldName().equals("DC.type")) {
 		       field = "DC.type";
-        	       String DCtype = item.getString("utf-8");
+        	       String DCtype = value;
 
             	       ingestRequest.setDCtype(DCtype);
 		       if (DEBUG) System.err.println("[debug] DC.type: " + ingestRequest.getDCtype());
 		    } else if (item.getFieldName().equals("DataCite.resourceType")) {
 		       field = "DataCite.resourceType";
-        	       String resourceType = item.getString("utf-8");
+        	       String resourceType = value;
 
             	       ingestRequest.setDataCiteResourceType(resourceType);
 		       if (DEBUG) System.err.println("[debug] DataCite.resourceType: " + ingestRequest.getDataCiteResourceType());
 		    } else if (item.getFieldName().equals("retainTargetURL")) {
 		       field = "retainTargetURL";
-		       if (item.getString("utf-8").equalsIgnoreCase("true")) {
+		       if (value.equalsIgnoreCase("true")) {
 		           ingestRequest.setRetainTargetURL(true);
 		           if (DEBUG) System.err.println("[debug] Retain EZID target URL set");
 			}
@@ -754,7 +745,6 @@ public class JerseyBase
             	       System.err.println("[warning] Form field not supported: " + item.getFieldName());
 		       // throw new TException.INVALID_OR_MISSING_PARM("Form field not supported: " + item.getFieldName());
 		    }
-	            item.delete();
 	   	}
 	    } catch (Exception e) {
             	throw new TException.INVALID_OR_MISSING_PARM(MESSAGE + "Could not process form field: " + field);
@@ -762,15 +752,11 @@ public class JerseyBase
 	}
 
 	// Process data
-	iter = items.iterator();
-	while (iter.hasNext()) {
-    	   item = iter.next();
-    	   if ( ! item.isFormField()) {
-		String fieldName = item.getFieldName();
-		String fileName = item.getName();
-		String contentType = item.getContentType();
-		boolean isInMemory = item.isInMemory();
-		long sizeInBytes = item.getSize();
+	for (SpooledUpload spooled : uploads) {
+		String fieldName = spooled.fieldName;
+		String fileName = spooled.name;
+		String contentType = spooled.contentType;
+		long sizeInBytes = spooled.file.length();
 		String file = null;
 
 		if (DEBUG) System.err.println("[debug] content field name: " + fieldName);
@@ -782,6 +768,10 @@ public class JerseyBase
             	   if (DEBUG) System.out.println("[info] filename parameter set [modal]: " + file);
 		   fileName = file;
 		}
+		if (StringUtil.isEmpty(fileName)) {
+		   spooled.file.delete();
+            	   throw new TException.REQUEST_INVALID(MESSAGE + "Input file not found. Likely cause is failure to specify input file.");
+		}
 		ingestRequest.getJob().setPackageName(fileName);
 
             	if (DEBUG) System.out.println("extracting file: " + fileName);
@@ -792,14 +782,20 @@ public class JerseyBase
             	   if (DEBUG) System.out.println("[warn] file exists renaming to : " + uploadedFile.getName());
 		}
 
-		try {
-		   item.write(uploadedFile);
-		} catch (FileNotFoundException fnfe) {
-            	   throw new TException.REQUEST_INVALID(MESSAGE + "Input file not found. Likely cause is failure to specify input file.");
-		} catch (Exception e) {
-            	   throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + e);
+		// same directory, no copy
+		if ( ! spooled.file.renameTo(uploadedFile)) {
+            	   throw new TException.GENERAL_EXCEPTION(MESSAGE + "Unable to place upload in queue: " + uploadedFile.getAbsolutePath());
 		}
 
+		// digest of the requested type, if it was known (or a default) when the content arrived
+		String algorithm = null;
+		try {
+		   algorithm = ingestRequest.getJob().getHashAlgorithm();
+		} catch (Exception e) { }
+		// one digest per request: kept with the stored name so it is applied only to that file's job
+		ingestRequest.getJob().setUploadDigest(algorithm == null ? null : spooled.digests.get(algorithm.toUpperCase()));
+		ingestRequest.getJob().setUploadDigestFile(algorithm == null ? null : uploadedFile.getName());
+
 		// Simplified ingest code
 		if (ingestRequest.getPackageType() == null) {
 		    if (DEBUG) System.out.println("[info] No file type found.  Let's do our best to determine.");
@@ -828,8 +824,6 @@ public class JerseyBase
 			}
 		    }
 		}
-
-    	   }
 	}
 
 	ingestRequest.setQueuePath(queueDir);
@@ -848,6 +842,50 @@ public class JerseyBase
 
     }
 
+    /**
+     * Write a file part to a temporary name in the queue directory, computing digests
+     * as it is written.  The submitter's digest type is used if already received,
+     * otherwise the default upload digests.
+     * @param item file part
+     * @param queueDir queue directory
+     * @param ingestRequest request, form fields received so far
+     * @return spooled upload
+     * @throws TException process exception
+     */
+    private SpooledUpload spool(FileItemStream item, File queueDir, IngestRequest ingestRequest)
+        throws TException
+    {
+	SpooledUpload spooled = new SpooledUpload();
+	spooled.fieldName = item.getFieldName();
+	spooled.name = item.getName();
+	spooled.contentType = item.getContentType();
+	spooled.file = new File(queueDir, ".upload-" + UUID.randomUUID().toString());
+
+	String[] algorithms = UPLOAD_DIGEST_ALGORITHMS;
+	try {
+	    String algorithm = ingestRequest.getJob().getHashAlgorithm();
+	    if (Security.getAlgorithms("MessageDigest").contains(algorithm.toUpperCase())) algorithms = new String[] { algorithm };
+	} catch (Exception e) { }
+
+	try (InputStream in = item.openStream()) {
+	    spooled.digests = DigestEngine.copy(in, spooled.file, new byte[UPLOAD_BUFFER_SIZE], algorithms);
+	} catch (Exception e) {
+	    spooled.file.delete();
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + e);
+	}
+	if (DEBUG) System.out.println("[debug] spooled " + spooled.file.length() + " bytes: " + spooled.name + " " + spooled.digests);
+	return spooled;
+    }
+
+    private static class SpooledUpload
+    {
+	String fieldName = null;
+	String name = null;
+	String contentType = null;
+	File file = null;
+	Map<String, String> digests = null;
+    }
+
     /**
      * return manifest type
      * @param postedFile pathname of uploaded file
@@ -1056,13 +1094,22 @@ public class JerseyBase
 
 
     /**
-     * Container class for file and Jersey FormatType enum
+     * Container class for file (or streamed output) and Jersey FormatType enum
      */
     public class TypeFile
     {
         public FormatType formatType = null;
         public File file = null;
+        public StreamingOutput output = null;
         public String id = null;
+
+        /**
+         * @return response entity, the file if one was written, otherwise the streamed output
+         */
+        public Object getEntity()
+        {
+            return (file != null) ? file : output;
+        }
     }
 
 }
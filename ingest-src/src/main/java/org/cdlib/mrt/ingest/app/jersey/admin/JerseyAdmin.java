@@ -44,6 +44,7 @@ import javax.ws.rs.core.Response;
 import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.FormParam;
@@ -53,6 +54,7 @@ import org.cdlib.mrt.formatter.FormatterInf;
 import org.cdlib.mrt.ingest.app.IngestServiceInit;
 import org.cdlib.mrt.ingest.app.jersey.JerseyBase;
 import org.cdlib.mrt.ingest.service.IngestServiceInf;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
 import org.cdlib.mrt.log.utility.Log4j2Util;
 import org.cdlib.mrt.utility.StateInf;
 import org.cdlib.mrt.utility.TException;
@@ -105,6 +107,34 @@ public class JerseyAdmin extends JerseyBase
     }
 
 
+    // Pipeline metrics (Prometheus text format)
+    @GET
+    @Path("/metrics")
+    @Produces(MetricsUtil.CONTENT_TYPE)
+    public Response getMetrics(
+            @Context CloseableService cs,
+            @Context ServletConfig sc)
+        throws TException
+    {
+        try {
+            IngestServiceInit ingestServiceInit = IngestServiceInit.getIngestServiceInit(sc);
+            IngestServiceInf ingestService = ingestServiceInit.getIngestService();
+            String queueConnectionString = null;
+            try {
+                queueConnectionString = ingestService.getQueueServiceConf().getString("QueueService");
+            } catch (Exception e) { }
+
+            return Response.ok(MetricsUtil.getPrometheus(queueConnectionString), MetricsUtil.CONTENT_TYPE).build();
+
+        } catch (TException tex) {
+            throw tex;
+        } catch (Exception ex) {
+            System.out.println("[TRACE] " + StringUtil.stackTrace(ex));
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "Exception:" + ex);
+        }
+    }
+
+
     // Show service help
     @GET
     @Path("/help")
@@ -29,8 +29,6 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 *********************************************************************/
 package org.cdlib.mrt.ingest.consumer;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 
@@ -44,6 +42,9 @@ import org.cdlib.mrt.ingest.utility.BatchStatusEnum;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.QueueWatcher;
+import org.cdlib.mrt.ingest.utility.S3Util;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
 import org.cdlib.mrt.zk.Job;
 import org.cdlib.mrt.zk.Batch;
@@ -51,6 +52,7 @@ import org.cdlib.mrt.zk.ZKKey;
 import org.cdlib.mrt.zk.QueueItemHelper;
 import org.cdlib.mrt.zk.MerrittJsonKey;
 import org.cdlib.mrt.zk.MerrittLocks;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
 
 import org.json.JSONObject;
 
@@ -247,6 +249,10 @@ public class BatchConsumer extends HttpServlet
             Thread.sleep(interruptDelay * 1000);
             System.out.println("[info] " + MESSAGE + "Wait complete, interrupting daemon");
             consumerThread.interrupt();
+
+            // Shared S3 clients are process wide, release their connection pools with the service
+            System.out.println("[info] " + MESSAGE + "Closing shared S3 clients");
+            S3Util.closeClients();
 	} catch (Exception e) {
 	    e.printStackTrace(System.err);
 	}
@@ -259,6 +265,7 @@ class BatchConsumerDaemon implements Runnable
    
     private static final String NAME = "BatchConsumerDaemon";
     private static final String MESSAGE = NAME + ": ";
+    private static final String STAGE = "Batch";
 
     private IngestServiceInit ingestServiceInit = null;
     private IngestServiceInf ingestService = null;
@@ -269,6 +276,7 @@ class BatchConsumerDaemon implements Runnable
     private int keepAliveTime = 60;     // when poolSize is exceeded
 
     private ZooKeeper zooKeeper = null;
+    private QueueWatcher queueWatcher = QueueWatcher.forBatches();
 
     // session data
     private long sessionID;
@@ -290,7 +298,7 @@ class BatchConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -306,12 +314,22 @@ class BatchConsumerDaemon implements Runnable
         boolean init = true;
         String status = null;
         ArrayBlockingQueue<BatchConsumeData> workQueue = new ArrayBlockingQueue<BatchConsumeData>(poolSize);
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue);
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue) {
+            protected void beforeExecute(Thread t, Runnable r) {
+                MetricsUtil.startExecution();
+            }
+            // A worker is free, look for more work
+            protected void afterExecute(Runnable r, Throwable t) {
+                MetricsUtil.endExecution(STAGE);
+                queueWatcher.signal();
+            }
+        };
+        MetricsUtil.registerPool(STAGE, executorService);
 
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
              e.printStackTrace(System.err);
            }
@@ -325,13 +343,15 @@ class BatchConsumerDaemon implements Runnable
                 // Wait for next interval.
                 if (! init) {
                     //System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
-                    Thread.yield();
-                    Thread.currentThread().sleep(pollingInterval.longValue() * 1000);
+                    queueWatcher.await(pollingInterval.longValue() * 1000);
                 } else {
                     System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
                     init = false;
                 }
 
+                // Watch for queue changes made while we scan
+                queueWatcher.arm(zooKeeper);
+
                 // Let's check to see if we are on hold
                 if (onHold()) {
                     System.out.println(MESSAGE + "detected 'on hold' condition");
@@ -355,14 +375,14 @@ class BatchConsumerDaemon implements Runnable
                        System.out.println(MESSAGE + "[WARN] Session expired or Connection loss.  Reconnecting...");
                        try {
                		   Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                           zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                           zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                            Job.initNodes(zooKeeper);
                        } catch (Exception ioe){}
                    } catch (Exception e) {}
 
 		    // To prevent long shutdown, no more than poolsize tasks queued.
 		    while (true) {
-		        numActiveTasks = executorService.getActiveCount();
+		        numActiveTasks = executorService.getActiveCount() + executorService.getQueue().size();
 			if (numActiveTasks < poolSize) {
 			    System.out.println(MESSAGE + "Checking for additional tasks -  Current tasks: " + numActiveTasks + " - Max: " + poolSize);
 
@@ -371,7 +391,7 @@ class BatchConsumerDaemon implements Runnable
         		    if (! ZookeeperUtil.validateZK(zooKeeper)) {
             		        try {
                		            // Refresh ZK connection
-               		            zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               		            zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            		        } catch  (Exception e ) {
              		            e.printStackTrace(System.err);
            		        }
@@ -387,7 +407,7 @@ class BatchConsumerDaemon implements Runnable
                                 System.err.println(MESSAGE + "[WARN] error acquiring batch: " + e.getMessage());
 				try {
                			   Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                                 } catch (Exception e4) {
                                 } finally {
                                    if (batch != null) batch.unlock(zooKeeper);
@@ -398,8 +418,8 @@ class BatchConsumerDaemon implements Runnable
 
 			    if ( batch != null) { 
 			    	System.out.println(MESSAGE + "Found pending batch data: " + batch.id());
+                                MetricsUtil.recordDwell(STAGE, zooKeeper, ZkPaths.Batch.path + "/" + batch.id());
                                 executorService.execute(new BatchConsumeData(ingestService, batch, queueConnectionString));
-                                Thread.currentThread().sleep(5 * 1000);
 			    } else {
 				break;
 		     	    }
@@ -439,7 +459,6 @@ class BatchConsumerDaemon implements Runnable
 	    executorService.shutdown();
         } finally {
            try {
-	     zooKeeper.close();
 	     zooKeeper = null;
            } catch(Exception ze) {}
         }
@@ -451,7 +470,7 @@ class BatchConsumerDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
              e.printStackTrace(System.err);
            }
@@ -472,12 +491,6 @@ class BatchConsumerDaemon implements Runnable
         return false;
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
 
@@ -519,7 +532,7 @@ class BatchConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -529,7 +542,7 @@ class BatchConsumeData implements Runnable
 	       jp = batch.jsonProperty(zooKeeper, ZKKey.BATCH_SUBMISSION);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 	       jp = batch.jsonProperty(zooKeeper, ZKKey.BATCH_SUBMISSION);
             }
 	    ji = Job.createJobIdentifiers(JSONUtil.getValue(jp,"objectID"), JSONUtil.getValue(jp,"localID"));
@@ -577,19 +590,12 @@ class BatchConsumeData implements Runnable
             System.out.println("[error] Consuming queue data");
         } finally {
            try {
-	      zooKeeper.close();
 	      zooKeeper = null;
            } catch(Exception ze) {}
         }
 
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 }
 
 
@@ -617,7 +623,7 @@ class BatchCleanupDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
              e.printStackTrace(System.err);
            }
@@ -635,7 +641,7 @@ class BatchCleanupDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -706,17 +712,10 @@ class BatchCleanupDaemon implements Runnable
         } finally {
 	    sessionAuth = null;
            try {
-                zooKeeper.close();
                 zooKeeper = null;
            } catch(Exception ze) {}
         }
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
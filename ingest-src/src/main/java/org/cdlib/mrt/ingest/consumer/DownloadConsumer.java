@@ -29,8 +29,6 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 *********************************************************************/
 package org.cdlib.mrt.ingest.consumer;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
@@ -47,6 +45,8 @@ import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.QueueWatcher;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
 import org.cdlib.mrt.zk.Job;
 import org.cdlib.mrt.zk.ZKKey;
@@ -54,6 +54,7 @@ import org.cdlib.mrt.zk.MerrittJsonKey;
 import org.cdlib.mrt.zk.MerrittStateError;
 import org.cdlib.mrt.zk.QueueItemHelper;
 import org.cdlib.mrt.zk.MerrittLocks;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
 
 import org.json.JSONObject;
 
@@ -211,6 +212,7 @@ class DownloadConsumerDaemon implements Runnable
    
     private static final String NAME = "DownloadConsumerDaemon";
     private static final String MESSAGE = NAME + ": ";
+    private static final String STAGE = "Download";
 
     private IngestServiceInit ingestServiceInit = null;
     private IngestServiceInf ingestService = null;
@@ -221,6 +223,7 @@ class DownloadConsumerDaemon implements Runnable
     private int keepAliveTime = 60;     // when poolSize is exceeded
 
     private ZooKeeper zooKeeper = null;
+    private QueueWatcher queueWatcher = QueueWatcher.forJobState(org.cdlib.mrt.zk.JobState.Downloading);
 
     // session data
     private long sessionID;
@@ -242,7 +245,7 @@ class DownloadConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -258,14 +261,24 @@ class DownloadConsumerDaemon implements Runnable
         boolean init = true;
         String status = null;
         ArrayBlockingQueue<DownloadConsumeData> workQueue = new ArrayBlockingQueue<DownloadConsumeData>(poolSize);
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue);
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue) {
+            protected void beforeExecute(Thread t, Runnable r) {
+                MetricsUtil.startExecution();
+            }
+            // A worker is free, look for more work
+            protected void afterExecute(Runnable r, Throwable t) {
+                MetricsUtil.endExecution(STAGE);
+                queueWatcher.signal();
+            }
+        };
+        MetricsUtil.registerPool(STAGE, executorService);
 
         try {
             long queueSize = workQueue.size();
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -276,13 +289,15 @@ class DownloadConsumerDaemon implements Runnable
                 // Wait for next interval.
                 if (! init) {
                     //System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
-                    Thread.yield();
-                    Thread.currentThread().sleep(pollingInterval.longValue() * 1000);
+                    queueWatcher.await(pollingInterval.longValue() * 1000);
                 } else {
                     System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
                     init = false;
                 }
 
+                // Watch for queue changes made while we scan
+                queueWatcher.arm(zooKeeper);
+
                 // Let's check to see if we are on hold
                 if (onHold()) {
                     System.out.println(MESSAGE + "detected 'on hold' condition");
@@ -301,7 +316,7 @@ class DownloadConsumerDaemon implements Runnable
 
 		    // To prevent long shutdown, no more than poolsize tasks queued.
 		    while (true) {
-		        numActiveTasks = executorService.getActiveCount();
+		        numActiveTasks = executorService.getActiveCount() + executorService.getQueue().size();
 			if (numActiveTasks < poolSize) {
 			    System.out.println(MESSAGE + "Checking for additional Job tasks for Worker: Current tasks: " + numActiveTasks + " - Max: " + poolSize);
                             Job job = null;
@@ -309,7 +324,7 @@ class DownloadConsumerDaemon implements Runnable
         		    if (! ZookeeperUtil.validateZK(zooKeeper)) {
             		        try {
                		            // Refresh ZK connection
-               		            zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               		            zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            		        } catch  (Exception e ) {
              		            e.printStackTrace(System.err);
            		        }
@@ -322,7 +337,7 @@ class DownloadConsumerDaemon implements Runnable
                                 try {
                                    // Reestablish connection
                                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                                 } catch (Exception e4) {}
                                 if (e instanceof InterruptedException) {
                                    System.err.println(MESSAGE + "[INFO] removing lock for Job: " + e.getMessage());
@@ -345,8 +360,8 @@ class DownloadConsumerDaemon implements Runnable
                                    break;
                                 }
 
+                                MetricsUtil.recordDwell(STAGE, zooKeeper, ZkPaths.Job.path + "/" + job.id());
                                 executorService.execute(new DownloadConsumeData(ingestService, job, queueConnectionString));
-                                Thread.currentThread().sleep(5 * 1000);
                             } else {
                                 break;
                             }
@@ -386,7 +401,6 @@ class DownloadConsumerDaemon implements Runnable
 	    executorService.shutdown();
         } finally {
            try {
-                zooKeeper.close();
                 zooKeeper = null;
            } catch(Exception ze) {}
         }
@@ -414,7 +428,7 @@ class DownloadConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -430,12 +444,6 @@ class DownloadConsumerDaemon implements Runnable
         return false;
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
 
@@ -476,7 +484,7 @@ class DownloadConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -491,7 +499,7 @@ class DownloadConsumeData implements Runnable
                priority = job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -531,7 +539,7 @@ class DownloadConsumeData implements Runnable
                if (! ZookeeperUtil.validateZK(zooKeeper)) {
                   try {
                       // Refresh ZK connection
-                      zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                      zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                   } catch  (Exception e ) {
                       e.printStackTrace(System.err);
                   }
@@ -543,7 +551,7 @@ class DownloadConsumeData implements Runnable
                priority = job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception see) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -559,7 +567,7 @@ class DownloadConsumeData implements Runnable
 		} catch (Exception mse) {
 		   System.err.println(MESSAGE + "[WARN] error changing job status: " + mse.getMessage());
 		   Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-		   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+		   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, job.status().success(), "Success");
 		}
 	    } else if (jobState.getJobStatus() == JobStatusEnum.FAILED) {
@@ -569,7 +577,7 @@ class DownloadConsumeData implements Runnable
 		} catch (Exception see) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + see.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, org.cdlib.mrt.zk.JobState.Failed, jobState.getJobStatusMessage());
 		}
 	    } else {
@@ -601,17 +609,10 @@ class DownloadConsumeData implements Runnable
 	     job.unlock(zooKeeper);
 	   } catch(Exception ze) {}
 	   try {
-             zooKeeper.close();
              zooKeeper = null;
 	   } catch(Exception ze) {}
         }
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 }
 
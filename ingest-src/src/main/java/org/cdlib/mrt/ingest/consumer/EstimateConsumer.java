@@ -29,8 +29,6 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 *********************************************************************/
 package org.cdlib.mrt.ingest.consumer;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
@@ -45,6 +43,8 @@ import org.cdlib.mrt.ingest.app.IngestServiceInit;
 import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StringUtil;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.QueueWatcher;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
@@ -55,6 +55,7 @@ import org.cdlib.mrt.zk.MerrittJsonKey;
 import org.cdlib.mrt.zk.MerrittStateError;
 import org.cdlib.mrt.zk.QueueItemHelper;
 import org.cdlib.mrt.zk.MerrittLocks;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
 
 import org.json.JSONObject;
 
@@ -222,6 +223,7 @@ class EstimateConsumerDaemon implements Runnable
    
     private static final String NAME = "EstimateConsumerDaemon";
     private static final String MESSAGE = NAME + ": ";
+    private static final String STAGE = "Estimate";
 
     private IngestServiceInit ingestServiceInit = null;
     private IngestServiceInf ingestService = null;
@@ -232,6 +234,7 @@ class EstimateConsumerDaemon implements Runnable
     private int keepAliveTime = 60;     // when poolSize is exceeded
 
     private ZooKeeper zooKeeper = null;
+    private QueueWatcher queueWatcher = QueueWatcher.forJobState(org.cdlib.mrt.zk.JobState.Estimating);
 
     // session data
     private long sessionID;
@@ -253,7 +256,7 @@ class EstimateConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -269,12 +272,22 @@ class EstimateConsumerDaemon implements Runnable
         boolean init = true;
         String status = null;
         ArrayBlockingQueue<EstimateConsumeData> workQueue = new ArrayBlockingQueue<EstimateConsumeData>(poolSize);
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue);
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue) {
+            protected void beforeExecute(Thread t, Runnable r) {
+                MetricsUtil.startExecution();
+            }
+            // A worker is free, look for more work
+            protected void afterExecute(Runnable r, Throwable t) {
+                MetricsUtil.endExecution(STAGE);
+                queueWatcher.signal();
+            }
+        };
+        MetricsUtil.registerPool(STAGE, executorService);
 
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
              e.printStackTrace(System.err);
            }
@@ -287,13 +300,15 @@ class EstimateConsumerDaemon implements Runnable
                 // Wait for next interval.
                 if (! init) {
                     //System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
-                    Thread.yield();
-                    Thread.currentThread().sleep(pollingInterval.longValue() * 1000);
+                    queueWatcher.await(pollingInterval.longValue() * 1000);
                 } else {
                     System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
                     init = false;
                 }
 
+                // Watch for queue changes made while we scan
+                queueWatcher.arm(zooKeeper);
+
                 // Let's check to see if we are on hold
                 if (onHold()) {
                     System.out.println(MESSAGE + "detected 'on hold' condition");
@@ -312,7 +327,7 @@ class EstimateConsumerDaemon implements Runnable
 
 		    // To prevent long shutdown, no more than poolsize tasks queued.
 		    while (true) {
-		        numActiveTasks = executorService.getActiveCount();
+		        numActiveTasks = executorService.getActiveCount() + executorService.getQueue().size();
 			if (numActiveTasks < poolSize) {
 			    System.out.println(MESSAGE + "Checking for additional Job tasks for Worker: Current tasks: " + numActiveTasks + " - Max: " + poolSize);
                             Job job = null;
@@ -320,7 +335,7 @@ class EstimateConsumerDaemon implements Runnable
         		    if (! ZookeeperUtil.validateZK(zooKeeper)) {
             		        try {
                		            // Refresh ZK connection
-               		            zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               		            zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            		        } catch  (Exception e ) {
              		            e.printStackTrace(System.err);
            		        }
@@ -333,7 +348,7 @@ class EstimateConsumerDaemon implements Runnable
                                 try {
                                    // Reestablish connection
                                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                                 } catch (Exception e4) {}
                                 if (e instanceof InterruptedException) {
                                    System.err.println(MESSAGE + "[INFO] removing lock for Job: " + e.getMessage());
@@ -382,8 +397,8 @@ class EstimateConsumerDaemon implements Runnable
             			   // job.setStatusWithPriority(zooKeeper, org.cdlib.mrt.zk.JobState.Estimating, job.priority());
 				//}
 
+                                MetricsUtil.recordDwell(STAGE, zooKeeper, ZkPaths.Job.path + "/" + job.id());
                                 executorService.execute(new EstimateConsumeData(ingestService, job, queueConnectionString));
-                                Thread.currentThread().sleep(5 * 1000);
                             } else {
                                 break;
                             }
@@ -425,7 +440,6 @@ class EstimateConsumerDaemon implements Runnable
             executorService.shutdown();
         } finally {
 		try {
-		   zooKeeper.close();
 		   zooKeeper = null;
 		} catch (Exception ze) {}
 	}
@@ -450,7 +464,7 @@ class EstimateConsumerDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
              e.printStackTrace(System.err);
            }
@@ -474,7 +488,7 @@ class EstimateConsumerDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
              e.printStackTrace(System.err);
            }
@@ -492,12 +506,6 @@ class EstimateConsumerDaemon implements Runnable
         }
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
 
@@ -540,7 +548,7 @@ class EstimateConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -553,7 +561,7 @@ class EstimateConsumeData implements Runnable
                priority = job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
 	    } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -592,7 +600,7 @@ class EstimateConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -605,7 +613,7 @@ class EstimateConsumeData implements Runnable
                job.setData(zooKeeper, ZKKey.JOB_SPACE_NEEDED, submissionSize);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                job.setData(zooKeeper, ZKKey.JOB_SPACE_NEEDED, submissionSize);
             }
 
@@ -620,7 +628,7 @@ class EstimateConsumeData implements Runnable
                    ingestRequest.getJob().setQueuePriority(Integer.toString(newPriority));
                 } catch (Exception e) {
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 		   job.setStatusWithPriority(zooKeeper, org.cdlib.mrt.zk.JobState.Estimating, newPriority);
                    ingestRequest.getJob().setQueuePriority(Integer.toString(newPriority));
                 }
@@ -633,7 +641,7 @@ class EstimateConsumeData implements Runnable
                priority = job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -648,7 +656,7 @@ class EstimateConsumeData implements Runnable
                 } catch (MerrittStateError mse) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + mse.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, job.status().success(), "Success");
                 }
 	    } else if (jobState.getJobStatus() == JobStatusEnum.FAILED) {
@@ -658,7 +666,7 @@ class EstimateConsumeData implements Runnable
                 } catch (Exception see) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + see.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, org.cdlib.mrt.zk.JobState.Failed, jobState.getJobStatusMessage());
                 }
 
@@ -691,16 +699,9 @@ class EstimateConsumeData implements Runnable
 		job.unlock(zooKeeper);
 	   } catch(Exception ze) {}
 	   try {
-	       zooKeeper.close();
 	       zooKeeper = null;
 	   } catch(Exception ze) {}
 	} 
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 }
@@ -29,8 +29,6 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 *********************************************************************/
 package org.cdlib.mrt.ingest.consumer;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
@@ -46,6 +44,8 @@ import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.QueueWatcher;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
 import org.cdlib.mrt.zk.Job;
 import org.cdlib.mrt.zk.Batch;
@@ -54,6 +54,7 @@ import org.cdlib.mrt.zk.MerrittJsonKey;
 import org.cdlib.mrt.zk.MerrittStateError;
 import org.cdlib.mrt.zk.QueueItemHelper;
 import org.cdlib.mrt.zk.MerrittLocks;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
 
 import org.json.JSONObject;
 
@@ -212,6 +213,7 @@ class InitializeConsumerDaemon implements Runnable
    
     private static final String NAME = "InitializeConsumerDaemon";
     private static final String MESSAGE = NAME + ": ";
+    private static final String STAGE = "Initialize";
 
     private IngestServiceInit ingestServiceInit = null;
     private IngestServiceInf ingestService = null;
@@ -222,6 +224,7 @@ class InitializeConsumerDaemon implements Runnable
     private int keepAliveTime = 60;     // when poolSize is exceeded
 
     private ZooKeeper zooKeeper = null;
+    private QueueWatcher queueWatcher = QueueWatcher.forJobState(org.cdlib.mrt.zk.JobState.Pending);
 
     // session data
     private long sessionID;
@@ -243,7 +246,7 @@ class InitializeConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -259,12 +262,22 @@ class InitializeConsumerDaemon implements Runnable
         boolean init = true;
         String status = null;
         ArrayBlockingQueue<InitializeConsumeData> workQueue = new ArrayBlockingQueue<InitializeConsumeData>(poolSize);
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue);
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue) {
+            protected void beforeExecute(Thread t, Runnable r) {
+                MetricsUtil.startExecution();
+            }
+            // A worker is free, look for more work
+            protected void afterExecute(Runnable r, Throwable t) {
+                MetricsUtil.endExecution(STAGE);
+                queueWatcher.signal();
+            }
+        };
+        MetricsUtil.registerPool(STAGE, executorService);
 
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
            try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
            } catch  (Exception e ) {
                e.printStackTrace(System.err);
            }
@@ -277,13 +290,15 @@ class InitializeConsumerDaemon implements Runnable
                 // Wait for next interval.
                 if (! init) {
                     //System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
-                    Thread.yield();
-                    Thread.currentThread().sleep(pollingInterval.longValue() * 1000);
+                    queueWatcher.await(pollingInterval.longValue() * 1000);
                 } else {
                     System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
                     init = false;
                 }
 
+                // Watch for queue changes made while we scan
+                queueWatcher.arm(zooKeeper);
+
                 // Let's check to see if we are on hold
                 if (onHold()) {
                     System.out.println(MESSAGE + "detected 'on hold' condition");
@@ -302,7 +317,7 @@ class InitializeConsumerDaemon implements Runnable
 
 		    // To prevent long shutdown, no more than poolsize tasks queued.
 		    while (true) {
-		        numActiveTasks = executorService.getActiveCount();
+		        numActiveTasks = executorService.getActiveCount() + executorService.getQueue().size();
 			if (numActiveTasks < poolSize) {
 			    System.out.println(MESSAGE + "Checking for additional Job tasks for Worker: Current tasks: " + numActiveTasks + " - Max: " + poolSize);
                             Job job = null;
@@ -310,7 +325,7 @@ class InitializeConsumerDaemon implements Runnable
             		    if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 	        try {
                    		    // Refresh ZK connection
-                   		    zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   		    zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                		        } catch  (Exception e ) {
                  		    e.printStackTrace(System.err);
                		        }
@@ -323,7 +338,7 @@ class InitializeConsumerDaemon implements Runnable
                                 try {
 				   // Reestablish connection
         	    		   Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY); 
-               			   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               			   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                                 } catch (Exception e4) {}
 				if (e instanceof InterruptedException) {
                                    System.err.println(MESSAGE + "[INFO] removing lock for Job: " + e.getMessage());
@@ -364,8 +379,8 @@ class InitializeConsumerDaemon implements Runnable
 			           }
 			        } 
 
+                                MetricsUtil.recordDwell(STAGE, zooKeeper, ZkPaths.Job.path + "/" + job.id());
                                 executorService.execute(new InitializeConsumeData(ingestService, job, queueConnectionString));
-                                Thread.currentThread().sleep(5 * 1000);
                             } else {
                                 break;
                             }
@@ -406,7 +421,6 @@ class InitializeConsumerDaemon implements Runnable
 	    executorService.shutdown();
         } finally {
 	   try {
-	    zooKeeper.close();
 	   } catch (Exception ze) {}
 	}
     }
@@ -430,7 +444,7 @@ class InitializeConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -454,7 +468,7 @@ class InitializeConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -471,12 +485,6 @@ class InitializeConsumerDaemon implements Runnable
         }
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
 
@@ -520,7 +528,7 @@ class InitializeConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -533,7 +541,7 @@ class InitializeConsumeData implements Runnable
                priority =  job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -565,7 +573,7 @@ class InitializeConsumeData implements Runnable
                 if (! ZookeeperUtil.validateZK(zooKeeper)) {
                     try {
                        // Refresh ZK connection
-                       zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                       zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    } catch  (Exception e ) {
                      e.printStackTrace(System.err);
                    }
@@ -577,7 +585,7 @@ class InitializeConsumeData implements Runnable
                priority =  job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -593,7 +601,7 @@ class InitializeConsumeData implements Runnable
                 } catch (Exception mse) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + mse.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, org.cdlib.mrt.zk.JobState.Estimating);
 		}
 	    } else if (jobState.getJobStatus() == JobStatusEnum.FAILED) {
@@ -603,7 +611,7 @@ class InitializeConsumeData implements Runnable
                 } catch (Exception see) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + see.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, org.cdlib.mrt.zk.JobState.Failed, jobState.getJobStatusMessage());
                 }
 
@@ -636,16 +644,9 @@ class InitializeConsumeData implements Runnable
               job.unlock(zooKeeper);
 	   } catch(Exception ze) {}
 	   try {
-              zooKeeper.close();
 	   } catch(Exception ze) {}
 	} 
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 }
 
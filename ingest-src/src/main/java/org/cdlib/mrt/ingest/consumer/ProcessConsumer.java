@@ -29,8 +29,6 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 *********************************************************************/
 package org.cdlib.mrt.ingest.consumer;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
@@ -47,6 +45,8 @@ import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.QueueWatcher;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
 import org.cdlib.mrt.zk.Job;
 import org.cdlib.mrt.zk.Batch;
@@ -55,6 +55,7 @@ import org.cdlib.mrt.zk.MerrittJsonKey;
 import org.cdlib.mrt.zk.MerrittStateError;
 import org.cdlib.mrt.zk.QueueItemHelper;
 import org.cdlib.mrt.zk.MerrittLocks;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
 
 import org.json.JSONObject;
 
@@ -213,6 +214,7 @@ class ProcessConsumerDaemon implements Runnable
    
     private static final String NAME = "ProcessConsumerDaemon";
     private static final String MESSAGE = NAME + ": ";
+    private static final String STAGE = "Process";
 
     private IngestServiceInit ingestServiceInit = null;
     private IngestServiceInf ingestService = null;
@@ -223,6 +225,7 @@ class ProcessConsumerDaemon implements Runnable
     private int keepAliveTime = 60;     // when poolSize is exceeded
 
     private ZooKeeper zooKeeper = null;
+    private QueueWatcher queueWatcher = QueueWatcher.forJobState(org.cdlib.mrt.zk.JobState.Processing);
     private Job job = null;
 
     // session data
@@ -245,7 +248,7 @@ class ProcessConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -265,14 +268,24 @@ class ProcessConsumerDaemon implements Runnable
         boolean init = true;
         String status = null;
         ArrayBlockingQueue<ProcessConsumeData> workQueue = new ArrayBlockingQueue<ProcessConsumeData>(poolSize);
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue);
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue) {
+            protected void beforeExecute(Thread t, Runnable r) {
+                MetricsUtil.startExecution();
+            }
+            // A worker is free, look for more work
+            protected void afterExecute(Runnable r, Throwable t) {
+                MetricsUtil.endExecution(STAGE);
+                queueWatcher.signal();
+            }
+        };
+        MetricsUtil.registerPool(STAGE, executorService);
 
         try {
 
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -284,13 +297,15 @@ class ProcessConsumerDaemon implements Runnable
                 // Wait for next interval.
                 if (! init) {
                     //System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
-                    Thread.yield();
-                    Thread.currentThread().sleep(pollingInterval.longValue() * 1000);
+                    queueWatcher.await(pollingInterval.longValue() * 1000);
                 } else {
                     System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
                     init = false;
                 }
 
+                // Watch for queue changes made while we scan
+                queueWatcher.arm(zooKeeper);
+
                 // Let's check to see if we are on hold
                 if (onHold()) {
                     System.out.println(MESSAGE + "detected 'on hold' condition");
@@ -309,7 +324,7 @@ class ProcessConsumerDaemon implements Runnable
 
 		    // To prevent long shutdown, no more than poolsize tasks queued.
 		    while (true) {
-		        numActiveTasks = executorService.getActiveCount();
+		        numActiveTasks = executorService.getActiveCount() + executorService.getQueue().size();
 			if (numActiveTasks < poolSize) {
 			    System.out.println(MESSAGE + "Checking for additional Job tasks for Worker: Current tasks: " + numActiveTasks + " - Max: " + poolSize);
                             job = null;
@@ -318,7 +333,7 @@ class ProcessConsumerDaemon implements Runnable
             		    if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 		try {
                    		    // Refresh ZK connection
-                   		    zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   		    zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                		        } catch  (Exception e ) {
                  		    e.printStackTrace(System.err);
                		        }
@@ -331,7 +346,7 @@ class ProcessConsumerDaemon implements Runnable
                                 try {
                                    // Reestablish connection
                                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                                 } catch (Exception e4) {}
                                 if (e instanceof InterruptedException) {
                                    System.err.println(MESSAGE + "[INFO] removing lock for Job: " + e.getMessage());
@@ -353,8 +368,8 @@ class ProcessConsumerDaemon implements Runnable
                                    } catch (Exception el) {}
                                    break;
                                 }
+                                MetricsUtil.recordDwell(STAGE, zooKeeper, ZkPaths.Job.path + "/" + job.id());
                                 executorService.execute(new ProcessConsumeData(ingestService, job, queueConnectionString));
-                                Thread.currentThread().sleep(5 * 1000);
                             } else {
                                 break;
                             }
@@ -393,7 +408,6 @@ class ProcessConsumerDaemon implements Runnable
 	    executorService.shutdown();
         } finally {
            try {
-                zooKeeper.close();
                 zooKeeper = null;
            } catch(Exception ze) {}
         }
@@ -429,12 +443,6 @@ class ProcessConsumerDaemon implements Runnable
         return false;
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
 
@@ -476,7 +484,7 @@ class ProcessConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -489,7 +497,7 @@ class ProcessConsumeData implements Runnable
                priority =  job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -532,7 +540,7 @@ class ProcessConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -551,7 +559,7 @@ class ProcessConsumeData implements Runnable
 		   } catch (Exception e) {
 		      System.err.println(MESSAGE + "[WARN] error setting Inv ZK data: " + e.getMessage());
 		      Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-		      zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+		      zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 		      job.setInventory(zooKeeper, jobState.grabObjectState().replace("/state/", "/manifest/"), "");
 		   }
 	    }
@@ -574,7 +582,7 @@ class ProcessConsumeData implements Runnable
 		   } catch (Exception e) {
 		      System.err.println(MESSAGE + "[WARN] error setting Store ZK data: " + e.getMessage());
 		      Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-		      zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+		      zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 		      job.setStore(zooKeeper, storeManifestURL, storeMode, storeDelete);
 		   }
 	    }
@@ -608,7 +616,7 @@ class ProcessConsumeData implements Runnable
 		} catch (Exception e) {
 		   System.err.println(MESSAGE + "[WARN] error setting Identifier: " + e.getMessage());
 		   Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-		   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+		   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 	           job.setIdentifiers(zooKeeper, Job.createJobIdentifiers(pid, lid));
 		}
 	    }
@@ -623,7 +631,7 @@ class ProcessConsumeData implements Runnable
                priority = job.intProperty(zooKeeper, ZKKey.JOB_PRIORITY);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                jp = job.jsonProperty(zooKeeper, ZKKey.JOB_CONFIGURATION);
                ji = job.jsonProperty(zooKeeper, ZKKey.JOB_IDENTIFIERS);
                spaceNeeded = job.longProperty(zooKeeper, ZKKey.JOB_SPACE_NEEDED);
@@ -639,7 +647,7 @@ class ProcessConsumeData implements Runnable
 		} catch (MerrittStateError mse) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + mse.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, job.status().success(), "Success");
 		}
 	    } else if (jobState.getJobStatus() == JobStatusEnum.FAILED) {
@@ -649,7 +657,7 @@ class ProcessConsumeData implements Runnable
                 } catch (Exception see) {
                    System.err.println(MESSAGE + "[WARN] error changing job status: " + see.getMessage());
                    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                    job.setStatus(zooKeeper, org.cdlib.mrt.zk.JobState.Failed, jobState.getJobStatusMessage());
                 }
 
@@ -682,17 +690,10 @@ class ProcessConsumeData implements Runnable
             job.unlock(zooKeeper);
 	   } catch(Exception ze) {}
 	   try {
-            zooKeeper.close();
             zooKeeper = null;
 	   } catch(Exception ze) {}
 	} 
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 }
 
@@ -29,8 +29,6 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 *********************************************************************/
 package org.cdlib.mrt.ingest.consumer;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 
@@ -43,6 +41,8 @@ import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.QueueWatcher;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
 import org.cdlib.mrt.zk.Batch;
 import org.cdlib.mrt.zk.Job;
@@ -51,6 +51,7 @@ import org.cdlib.mrt.zk.QueueItemHelper;
 import org.cdlib.mrt.zk.MerrittJsonKey;
 import org.cdlib.mrt.zk.MerrittStateError;
 import org.cdlib.mrt.zk.MerrittLocks;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
 
 import org.json.JSONObject;
 
@@ -252,6 +253,7 @@ class UpdateBatchReportConsumerDaemon implements Runnable
    
     private static final String NAME = "UpdateBatchReportConsumerDaemon";
     private static final String MESSAGE = NAME + ": ";
+    private static final String STAGE = "UpdateBatchReport";
 
     private IngestServiceInit ingestServiceInit = null;
     private IngestServiceInf ingestService = null;
@@ -262,6 +264,7 @@ class UpdateBatchReportConsumerDaemon implements Runnable
     private Integer poolSize = null;
 
     private ZooKeeper zooKeeper = null;
+    private QueueWatcher queueWatcher = QueueWatcher.forBatches(org.cdlib.mrt.zk.JobState.Completed, org.cdlib.mrt.zk.JobState.Failed);
 
     // session data
     private long sessionID;
@@ -282,7 +285,7 @@ class UpdateBatchReportConsumerDaemon implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -298,12 +301,22 @@ class UpdateBatchReportConsumerDaemon implements Runnable
         boolean init = true;
         String status = null;
         ArrayBlockingQueue<UpdateBatchReportConsumeData> workQueue = new ArrayBlockingQueue<UpdateBatchReportConsumeData>(poolSize);
-        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue);
+        ThreadPoolExecutor executorService = new ThreadPoolExecutor(poolSize, poolSize, (long) keepAliveTime, TimeUnit.SECONDS, (BlockingQueue) workQueue) {
+            protected void beforeExecute(Thread t, Runnable r) {
+                MetricsUtil.startExecution();
+            }
+            // A worker is free, look for more work
+            protected void afterExecute(Runnable r, Throwable t) {
+                MetricsUtil.endExecution(STAGE);
+                queueWatcher.signal();
+            }
+        };
+        MetricsUtil.registerPool(STAGE, executorService);
 
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
             } catch  (Exception e ) {
                e.printStackTrace(System.err);
             }
@@ -316,13 +329,15 @@ class UpdateBatchReportConsumerDaemon implements Runnable
                 // Wait for next interval.
                 if (! init) {
                     //System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
-                    Thread.yield();
-                    Thread.currentThread().sleep(pollingInterval.longValue() * 1000);
+                    queueWatcher.await(pollingInterval.longValue() * 1000);
                 } else {
                     System.out.println(MESSAGE + "Waiting for polling interval(seconds): " + pollingInterval);
                     init = false;
                 }
 
+                // Watch for queue changes made while we scan
+                queueWatcher.arm(zooKeeper);
+
 
                 // Let's check to see if we are on hold
                 if (onHold()) {
@@ -351,7 +366,7 @@ class UpdateBatchReportConsumerDaemon implements Runnable
             		   if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 	       try {
                    		   // Refresh ZK connection
-                   		   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   		   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                		       } catch  (Exception e ) {
                  		   e.printStackTrace(System.err);
                		       }
@@ -363,14 +378,14 @@ class UpdateBatchReportConsumerDaemon implements Runnable
 
 		    // To prevent long shutdown, no more than poolsize tasks queued.
 		    while (true) {
-		        numActiveTasks = executorService.getActiveCount();
+		        numActiveTasks = executorService.getActiveCount() + executorService.getQueue().size();
 			if (numActiveTasks < poolSize) {
 			    System.out.println(MESSAGE + "Checking for additional tasks -  Current tasks: " + numActiveTasks + " - Max: " + poolSize);
 
             		    if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 	        try {
                    		    // Refresh ZK connection
-                   		    zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   		    zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                		        } catch  (Exception e ) {
                  		    e.printStackTrace(System.err);
                		        }
@@ -388,7 +403,7 @@ class UpdateBatchReportConsumerDaemon implements Runnable
                                 //e.printStackTrace();
                                 try {
                			   Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-                                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                                 } catch (Exception e4) {
                                 } finally {
                                    if (batch != null) batch.unlock(zooKeeper);
@@ -398,8 +413,8 @@ class UpdateBatchReportConsumerDaemon implements Runnable
 
 			    if ( batch != null) { 
 			    	System.out.println(MESSAGE + "Found reporting batch data: " + batch.id());
+                                MetricsUtil.recordDwell(STAGE, zooKeeper, ZkPaths.Batch.path + "/" + batch.id());
                                 executorService.execute(new UpdateBatchReportConsumeData(ingestService, batch, queueConnectionString));
-                                Thread.currentThread().sleep(5 * 1000);
 			    } else {
 				break;
 		     	    }
@@ -438,7 +453,6 @@ class UpdateBatchReportConsumerDaemon implements Runnable
 	    executorService.shutdown();
         } finally {
 	    try {
-		zooKeeper.close();
 		zooKeeper = null;
 	    } catch (Exception ze) {}
 	}
@@ -451,7 +465,7 @@ class UpdateBatchReportConsumerDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
             } catch  (Exception e ) {
                e.printStackTrace(System.err);
             }
@@ -469,12 +483,6 @@ class UpdateBatchReportConsumerDaemon implements Runnable
     }
 
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
 
@@ -516,7 +524,7 @@ class UpdateBatchReportConsumeData implements Runnable
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -526,7 +534,7 @@ class UpdateBatchReportConsumeData implements Runnable
 	       jp = batch.jsonProperty(zooKeeper, ZKKey.BATCH_SUBMISSION);
             } catch (Exception e) {
                Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
 	       jp = batch.jsonProperty(zooKeeper, ZKKey.BATCH_SUBMISSION);
             }
             ji = Job.createJobIdentifiers(JSONUtil.getValue(jp,"objectID"), JSONUtil.getValue(jp,"localID"));
@@ -568,18 +576,11 @@ class UpdateBatchReportConsumeData implements Runnable
             System.out.println("[error] Consuming queue data");
         } finally {
 	    try {
-		zooKeeper.close();
 		zooKeeper = null;
 	    } catch(Exception ze) {}
 	} 
     }
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 }
 
 
@@ -607,7 +608,7 @@ class UpdateBatchReportCleanupDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
             } catch  (Exception e ) {
                e.printStackTrace(System.err);
             }
@@ -626,7 +627,7 @@ class UpdateBatchReportCleanupDaemon implements Runnable
         if (! ZookeeperUtil.validateZK(zooKeeper)) {
             try {
                // Refresh ZK connection
-               zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
             } catch  (Exception e ) {
                e.printStackTrace(System.err);
             }
@@ -692,7 +693,7 @@ class UpdateBatchReportCleanupDaemon implements Runnable
             		if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 	    try {
                    		// Refresh ZK connection
-                   		zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   		zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                		    } catch  (Exception e ) {
                  		e.printStackTrace(System.err);
                		    }
@@ -703,7 +704,7 @@ class UpdateBatchReportCleanupDaemon implements Runnable
                               batches = Batch.deleteCompletedBatches(zooKeeper);
 			   } catch (Exception e) {
                		      Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-               		      zooKeeper = new ZooKeeper(queueConnectionString, ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+               		      zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
                               System.out.println(MESSAGE + "Error removing completed batches, retrying: " + e.getMessage());
                               batches = Batch.deleteCompletedBatches(zooKeeper);
 			   }
@@ -734,7 +735,6 @@ class UpdateBatchReportCleanupDaemon implements Runnable
                     e.printStackTrace();
                 } finally {
 		    try {
-			zooKeeper.close();
 		    } catch (Exception ze) {}
 		}
             }
@@ -744,17 +744,10 @@ class UpdateBatchReportCleanupDaemon implements Runnable
         } finally {
 	    sessionAuth = null;
 		    try {
-			zooKeeper.close();
 		    } catch (Exception ze) {}
         }
     }
 
 
-   public class Ignorer implements Watcher {
-       public void process(WatchedEvent event){
-           if (event.getState().equals("Disconnected"))
-               System.out.println("Disconnected: " + event.toString());
-       }
-   }
 
 }
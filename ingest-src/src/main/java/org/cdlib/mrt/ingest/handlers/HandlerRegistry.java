@@ -0,0 +1,188 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.handlers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+import org.cdlib.mrt.ingest.HandlerState;
+import org.cdlib.mrt.ingest.ProfileState;
+
+
+/**
+ * Handler registry
+ * Resolves each handler class once and hands out new instances from a cached factory,
+ * so that running a stage does no reflection.  Handlers keep per-job state in their
+ * fields, so an instance is never shared between jobs.
+ */
+public class HandlerRegistry
+{
+    private static final String NAME = "HandlerRegistry";
+    private static final String MESSAGE = NAME + ": ";
+
+    private static final Map<String, Supplier<Handler>> factories = new ConcurrentHashMap<String, Supplier<Handler>>();
+    private static final Map<String, Boolean> unresolved = new ConcurrentHashMap<String, Boolean>();
+
+    static {
+	register(org.cdlib.mrt.ingest.handlers.batchProcess.HandlerPost.class, org.cdlib.mrt.ingest.handlers.batchProcess.HandlerPost::new);
+	register(org.cdlib.mrt.ingest.handlers.batchProcess.HandlerSubmit.class, org.cdlib.mrt.ingest.handlers.batchProcess.HandlerSubmit::new);
+	register(org.cdlib.mrt.ingest.handlers.batchReport.HandlerNotification.class, org.cdlib.mrt.ingest.handlers.batchReport.HandlerNotification::new);
+	register(org.cdlib.mrt.ingest.handlers.queue.HandlerDisaggregate.class, org.cdlib.mrt.ingest.handlers.queue.HandlerDisaggregate::new);
+	register(org.cdlib.mrt.ingest.handlers.queue.HandlerSubmit.class, org.cdlib.mrt.ingest.handlers.queue.HandlerSubmit::new);
+	register(org.cdlib.mrt.ingest.handlers.queue.HandlerNotification.class, org.cdlib.mrt.ingest.handlers.queue.HandlerNotification::new);
+	register(org.cdlib.mrt.ingest.handlers.initialize.HandlerAccept.class, org.cdlib.mrt.ingest.handlers.initialize.HandlerAccept::new);
+	register(org.cdlib.mrt.ingest.handlers.initialize.HandlerDisaggregate.class, org.cdlib.mrt.ingest.handlers.initialize.HandlerDisaggregate::new);
+	register(org.cdlib.mrt.ingest.handlers.initialize.HandlerInitialize.class, org.cdlib.mrt.ingest.handlers.initialize.HandlerInitialize::new);
+	register(org.cdlib.mrt.ingest.handlers.initialize.HandlerVerify.class, org.cdlib.mrt.ingest.handlers.initialize.HandlerVerify::new);
+	register(org.cdlib.mrt.ingest.handlers.estimate.HandlerEstimate.class, org.cdlib.mrt.ingest.handlers.estimate.HandlerEstimate::new);
+	register(org.cdlib.mrt.ingest.handlers.provision.HandlerProvision.class, org.cdlib.mrt.ingest.handlers.provision.HandlerProvision::new);
+	register(org.cdlib.mrt.ingest.handlers.download.HandlerRetrieve.class, org.cdlib.mrt.ingest.handlers.download.HandlerRetrieve::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerCharacterize.class, org.cdlib.mrt.ingest.handlers.process.HandlerCharacterize::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerCorroborate.class, org.cdlib.mrt.ingest.handlers.process.HandlerCorroborate::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerDescribe.class, org.cdlib.mrt.ingest.handlers.process.HandlerDescribe::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerDigest.class, org.cdlib.mrt.ingest.handlers.process.HandlerDigest::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerDocument.class, org.cdlib.mrt.ingest.handlers.process.HandlerDocument::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerMinter.class, org.cdlib.mrt.ingest.handlers.process.HandlerMinter::new);
+	register(org.cdlib.mrt.ingest.handlers.process.HandlerTransfer.class, org.cdlib.mrt.ingest.handlers.process.HandlerTransfer::new);
+	register(org.cdlib.mrt.ingest.handlers.notify.HandlerCallback.class, org.cdlib.mrt.ingest.handlers.notify.HandlerCallback::new);
+	register(org.cdlib.mrt.ingest.handlers.notify.HandlerCleanup.class, org.cdlib.mrt.ingest.handlers.notify.HandlerCleanup::new);
+	register(org.cdlib.mrt.ingest.handlers.notify.HandlerNotification.class, org.cdlib.mrt.ingest.handlers.notify.HandlerNotification::new);
+    }
+
+    private static void register(Class<? extends Handler> handlerClass, Supplier<Handler> factory)
+    {
+	factories.put(handlerClass.getName(), factory);
+    }
+
+    /**
+     * New handler instance
+     *
+     * @param className fully qualified handler class (profile entry)
+     * @return handler, null if the class can not be resolved
+     */
+    public static Handler getHandler(String className)
+    {
+	Supplier<Handler> factory = resolve(className);
+	if (factory == null) return null;
+	return factory.get();
+    }
+
+    /**
+     * @return true if the handler class can be instantiated
+     */
+    public static boolean isResolvable(String className)
+    {
+	return resolve(className) != null;
+    }
+
+    /**
+     * @return number of resolved handler classes
+     */
+    public static int size()
+    {
+	return factories.size();
+    }
+
+    /**
+     * Check all handlers named in a profile
+     *
+     * @param profileState parsed profile
+     * @return handler classes that can not be resolved, empty if all are valid
+     */
+    public static List<String> validate(ProfileState profileState)
+    {
+	List<String> invalid = new ArrayList<String>();
+	validate(profileState.getIngestHandlers(), invalid);
+	validate(profileState.getBatchProcessHandlers(), invalid);
+	validate(profileState.getBatchReportHandlers(), invalid);
+	validate(profileState.getQueueHandlers(), invalid);
+	validate(profileState.getInitializeHandlers(), invalid);
+	validate(profileState.getEstimateHandlers(), invalid);
+	validate(profileState.getProvisionHandlers(), invalid);
+	validate(profileState.getDownloadHandlers(), invalid);
+	validate(profileState.getProcessHandlers(), invalid);
+	validate(profileState.getRecordHandlers(), invalid);
+	validate(profileState.getNotifyHandlers(), invalid);
+	return invalid;
+    }
+
+    private static void validate(SortedMap<Integer,HandlerState> handlers, List<String> invalid)
+    {
+	if (handlers == null) return;
+	for (HandlerState handlerState : handlers.values()) {
+	    String className = handlerState.getHandlerName();
+	    if (! isResolvable(className) && ! invalid.contains(className)) invalid.add(className);
+	}
+    }
+
+    /**
+     * Factory of a handler class; classes not registered at startup (e.g. site
+     * specific handlers) are looked up once and their constructor cached
+     */
+    private static Supplier<Handler> resolve(String className)
+    {
+	if (className == null) return null;
+	Supplier<Handler> factory = factories.get(className);
+	if (factory != null || unresolved.containsKey(className)) return factory;
+
+	try {
+	    Class<?> handlerClass = Class.forName(className);
+	    if (! Handler.class.isAssignableFrom(handlerClass)) {
+		throw new ClassCastException(className + " is not a Handler");
+	    }
+	    MethodHandle constructor = MethodHandles.publicLookup()
+		.findConstructor(handlerClass, MethodType.methodType(void.class));
+	    factory = () -> {
+		try {
+		    return (Handler) constructor.invoke();
+		} catch (RuntimeException re) {
+		    throw re;
+		} catch (Throwable t) {
+		    throw new IllegalStateException(MESSAGE + "could not create handler: " + className, t);
+		}
+	    };
+	    Supplier<Handler> existing = factories.putIfAbsent(className, factory);
+	    System.out.println("[info] " + MESSAGE + "Resolved handler: " + className);
+	    return existing != null ? existing : factory;
+	} catch (Exception | LinkageError e) {
+	    System.out.println("[warn] " + MESSAGE + "Could not resolve handler: " + className + " - " + e);
+	    unresolved.put(className, Boolean.TRUE);
+	    return null;
+	}
+    }
+}
@@ -40,8 +40,6 @@ import java.util.Iterator;
 import java.util.Map;
 import java.util.Properties;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException;
 
@@ -108,7 +106,7 @@ public class HandlerSubmit extends Handler<BatchState>
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(batchState.grabTargetQueue(), ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(batchState.grabTargetQueue());
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -145,6 +143,10 @@ public class HandlerSubmit extends Handler<BatchState>
 	    } catch (Exception e) {}
 	    if (ingestRequest.getJob().getHashValue() != null)
                 jproperties.put("digestValue", ingestRequest.getJob().getHashValue());
+	    if (ingestRequest.getJob().grabUploadDigest() != null) {
+                jproperties.put("uploadDigest", ingestRequest.getJob().grabUploadDigest());
+                jproperties.put("uploadDigestFile", ingestRequest.getJob().grabUploadDigestFile());
+	    }
 	    if (ingestRequest.getJob().getNote() != null)
                 jproperties.put("note", ingestRequest.getJob().getNote());
 
@@ -200,7 +202,7 @@ public class HandlerSubmit extends Handler<BatchState>
                 System.out.println(MESSAGE + "[WARN] Session expired or Connection loss.  Reconnecting...");
                 try {
 		    Thread.currentThread().sleep(ZookeeperUtil.SLEEP_ZK_RETRY);
-            	    zooKeeper = new ZooKeeper(batchState.grabTargetQueue(), ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+            	    zooKeeper = ZookeeperUtil.getZooKeeper(batchState.grabTargetQueue());
                     Job.initNodes(zooKeeper);
                 } catch (IOException ioe){}
             } catch (Exception e) {}
@@ -227,7 +229,6 @@ public class HandlerSubmit extends Handler<BatchState>
             return new HandlerResult(false, msg, 10);
 	} finally {
 	    try {
-		zooKeeper.close();
 		zooKeeper = null;
 	    } catch (Exception e) {
 	    }
@@ -239,9 +240,6 @@ public class HandlerSubmit extends Handler<BatchState>
 	return NAME;
     }
 
-   public static class Ignorer implements Watcher {
-        public void process(WatchedEvent event){}
-   }
 
 
 }
@@ -39,8 +39,6 @@ import org.apache.commons.mail.EmailAttachment;
 import org.apache.commons.mail.MultiPartEmail;
 import org.apache.commons.mail.ByteArrayDataSource;
 
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 
 import org.cdlib.mrt.core.DateState;
@@ -129,7 +127,7 @@ public class HandlerNotification extends Handler<BatchState>
             if (! ZookeeperUtil.validateZK(zooKeeper)) {
                 try {
                    // Refresh ZK connection
-                   zooKeeper = new ZooKeeper(batchState.grabTargetQueue(), ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+                   zooKeeper = ZookeeperUtil.getZooKeeper(batchState.grabTargetQueue());
                } catch  (Exception e ) {
                  e.printStackTrace(System.err);
                }
@@ -322,7 +320,6 @@ public class HandlerNotification extends Handler<BatchState>
 	    throw new TException.GENERAL_EXCEPTION(msg);
 	} finally {
 	    try {
-		zooKeeper.close();
 		zooKeeper = null;
 	    } catch (Exception e) {}
             formatterUtil = null;
@@ -358,9 +355,6 @@ public class HandlerNotification extends Handler<BatchState>
 	return NAME;
     }
 
-   public static class Ignorer implements Watcher {
-        public void process(WatchedEvent event){}
-   }
 
 
     // was in BatchState
@@ -34,10 +34,11 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.net.URL;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.LinkedHashMap;
@@ -61,7 +62,10 @@ import org.cdlib.mrt.ingest.handlers.HandlerResult;
 import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.ProfileState;
+import org.cdlib.mrt.ingest.utility.DigestCache;
 import org.cdlib.mrt.ingest.utility.DigestUtil;
+import org.cdlib.mrt.ingest.utility.DownloadScheduler;
+import org.cdlib.mrt.ingest.utility.DownloadUtil;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
 import org.cdlib.mrt.ingest.utility.MetadataUtil;
 import org.cdlib.mrt.ingest.utility.PackageTypeEnum;
@@ -86,7 +90,6 @@ public class HandlerRetrieve extends Handler<JobState>
     protected static final Logger log4j2 = LogManager.getLogger();
     private static final String NAME = "HandlerRetrieve";
     private static final String MESSAGE = NAME + ": ";
-    private int thread_pool_size = 4;	// Default
     private static final boolean DEBUG = true;
     private LoggerInf logger = null;
     private Properties conf = null;
@@ -109,7 +112,7 @@ public class HandlerRetrieve extends Handler<JobState>
 
 	File manifestFile = null;
 	String status = "";
-	ExecutorService executorService = null;
+	String schedulerJobID = null;	// set once downloads are queued
 
 	try {
             Thread.sleep(5);
@@ -154,13 +157,15 @@ public class HandlerRetrieve extends Handler<JobState>
 	    if ( status.equals("valid") || status.equals("")) {
 	        LoggerInf logger = LoggerAbs.getTFileLogger("testFormatter", 10, 10);	// stdout logger
                 Manifest manifest = Manifest.getManifest(logger, ManifestRowAbs.ManifestType.ingest);
+		// digests computed as each file is retrieved, reused by later stages
+		DigestCache digestCache = DigestCache.getDigestCache(ingestRequest.getQueuePath());
 	        // we have a manifest request, process all manifest files
 	        for (String fileS : targetDir.list()) {
 	            manifestFile = new File(targetDir, fileS);
 
 		    if (manifestFile.exists()) {
                         System.out.println("[HandlerRetrieve] Processing manifest file: " + manifestFile.getName());
-		    } else if (executorService != null) {
+		    } else if (schedulerJobID != null) {
                         System.out.println("[HandlerRetrieve] WARNING: Manifest file does not exist: " + manifestFile.getName());
 			continue;
 		    } else {
@@ -183,12 +188,10 @@ public class HandlerRetrieve extends Handler<JobState>
                         //throw new TException.FIXITY_CHECK_FAILS("[error] " + MESSAGE + "manifest integrity check fails: " + packageType);
                     //}
 
-		    if (ingestRequest.getNumDownloadThreads() != 0) {
-			thread_pool_size = ingestRequest.getNumDownloadThreads();
-                        System.out.println("[HandlerRetrieve] INFO: Setting download pool size to: " + thread_pool_size);
-		    }
-			
-		    executorService = Executors.newFixedThreadPool(thread_pool_size);
+		    // Downloads share the service-wide scheduler (global and per-host limits, fair across jobs)
+		    DownloadScheduler scheduler = DownloadScheduler.getScheduler();
+		    BlockingQueue<Future<String>> completed = new LinkedBlockingQueue<Future<String>>();
+		    schedulerJobID = jobState.getJobID().getValue();
 
     		    List<Future<String>> tasks = new ArrayList<Future<String>>();
 
@@ -201,22 +204,17 @@ public class HandlerRetrieve extends Handler<JobState>
                         }
 
 			// launch download
-                        Future<String> future = executorService.submit(new RetrieveData(fileComponent.getURL(), targetDir, fileComponent.getIdentifier(), jobState));
+                        Future<String> future = scheduler.submit(schedulerJobID, fileComponent.getURL().getHost(), 
+				new RetrieveData(fileComponent.getURL(), targetDir, fileComponent.getIdentifier(), getAlgorithm(fileComponent), digestCache, jobState),
+				completed);
 			tasks.add(future);
                     }
 
-		    // Not blocked w/ callables
-      		    executorService.shutdown();
-
-		    while (! executorService.isTerminated()) {
-		        System.out.println("awaiting completion of retrievals.... Thread: " + Thread.currentThread().getName());
-		        Thread.currentThread().sleep(15000);		// 15 seconds
-		    }
-
-		    // check for errors
+		    // check each retrieval as it completes, stop at first error
+		    System.out.println("awaiting completion of retrievals.... Thread: " + Thread.currentThread().getName());
 		    try {
-      			for (Future<String> future : tasks) {
-        		    String s = future.get();	// blocked, but should be complete
+      			for (int i = 0; i < tasks.size(); i++) {
+        		    String s = completed.take().get();
 			    if (s != null) {
 				failure = true;
 				failureURL = s;
@@ -224,10 +222,19 @@ public class HandlerRetrieve extends Handler<JobState>
 			    }
       			}
 
-		    } catch (Exception e) { 
+		    } catch (ExecutionException e) { 
 		        System.err.println("Error in checking download status");
 			e.printStackTrace(System.err);
 			failure = true;
+			failureURL = String.valueOf(e.getCause());
+		    }
+
+		    // cancel outstanding retrievals
+		    if (failure) {
+			scheduler.cancel(schedulerJobID);
+			for (Future<String> future : tasks) {
+			    future.cancel(true);
+			}
 		    }
 
 
@@ -243,7 +250,7 @@ public class HandlerRetrieve extends Handler<JobState>
 			}
 		    }
 
-		    // validate checksums
+		    // validate checksums against digests computed on retrieval
                     enumRow = manifest.getRows(new FileInputStream(manifestFile));
 		    DigestUtil digestUtil = new DigestUtil();
                     while (enumRow.hasMoreElements()) {
@@ -259,7 +266,7 @@ public class HandlerRetrieve extends Handler<JobState>
 			}
 
 			try {
-			    digestUtil.doFileFixity(new File(targetDir, fileComponent.getIdentifier()), fileComponent);
+			    digestUtil.doFileFixity(new File(targetDir, fileComponent.getIdentifier()), fileComponent, digestCache);
 		            if (DEBUG) System.out.println("[info] No checksum problems: " + fileComponent.getIdentifier());
 			} catch (TException te) {
 			    throw te;
@@ -273,6 +280,9 @@ public class HandlerRetrieve extends Handler<JobState>
 		    // Move submission manifest to top level Job dir
 		    manifestFile.renameTo(new File(ingestRequest.getQueuePath(), manifestFile.getName()));
 	        }
+
+		// Retain computed digests for later stages
+		digestCache.save(NAME);
 	    }
 
             // metadata file in ANVL format
@@ -298,7 +308,8 @@ public class HandlerRetrieve extends Handler<JobState>
             return new HandlerResult(false, msg);
 	} finally {
 	    try {
-	    	executorService.shutdown();
+		// drops queued retrievals and interrupts running ones, on every exit path
+	    	if (schedulerJobID != null) DownloadScheduler.getScheduler().cancel(schedulerJobID);
 	    } catch (Exception e) {
 	    }
 	    //resetFailure();
@@ -324,6 +335,21 @@ public class HandlerRetrieve extends Handler<JobState>
     }
 
 
+    /**
+     * Java digest algorithm declared for manifest entry
+     *
+     * @param fileComponent manifest entry
+     * @return algorithm name, null if no digest declared
+     */
+    private String getAlgorithm(FileComponent fileComponent)
+    {
+	try {
+	    return fileComponent.getMessageDigest().getAlgorithm().getJavaAlgorithm();
+	} catch (Exception e) {
+	    return null;
+	}
+    }
+
     /**
      * validate manifest file checksum
      *
@@ -392,13 +418,17 @@ class RetrieveData implements Callable<String>
     private URL url = null;
     private File targetDir = null;
     private String fileName = null;
+    private String algorithm = null;
+    private DigestCache digestCache = null;
     private JobState jobState = null;
 
     // constructor
-    public RetrieveData(URL url, File targetDir, String fileName, JobState jobState) {
+    public RetrieveData(URL url, File targetDir, String fileName, String algorithm, DigestCache digestCache, JobState jobState) {
 	this.url = url;
 	this.targetDir = targetDir;
 	this.fileName = fileName;
+	this.algorithm = algorithm;
+	this.digestCache = digestCache;
 	this.jobState = jobState;
     }
 
@@ -427,19 +457,22 @@ class RetrieveData implements Callable<String>
 	        System.out.println("[error] file already exists: " + f.getAbsolutePath());
 		throw new IOException("Error file already exists: " + f.getAbsolutePath());
 	    }
-            for (int i=0; i < 2; i++) {
-	        try {
-                    FileUtil.url2File(null, url, f, 2);
-		    bytes = f.length();
-	    	    status = "complete";;
-		    break;
-		} catch (Exception ste) {
-		    System.out.println("[error] error on attempt: " + i);
-		    f.delete();
-		    status = "fail";
+	    try {
+		// declared digest (fixity) and SHA-256 (manifest) computed inline, no second read.
+		// Broken transfers are resumed with range requests after a backoff.
+                DownloadUtil.Result result = DownloadUtil.url2File(url, f, 2, algorithm, "SHA-256");
+		bytes = result.getSize();
+		retries = result.getAttempts() - 1;
+		for (Map.Entry<String, String> digest : result.getDigests().entrySet()) {
+		    digestCache.putDigest(f, digest.getKey(), digest.getValue());
 		}
-		retries = i;
-		if (i==1) break;	// log error
+		digestCache.addBytesHashed(bytes);
+	    	status = "complete";
+	    } catch (IOException ioe) {
+		System.out.println("[error] retrieving " + url + ": " + ioe.getMessage());
+		f.delete();
+		status = "fail";
+		retries = DownloadUtil.DEFAULT_ATTEMPTS - 1;
 	    }
             long endTime = DateUtil.getEpochUTCDate();
             ThreadContext.put("Method", "RetrieveGet");
@@ -34,20 +34,26 @@ import java.io.FileInputStream;
 import java.io.InputStream;
 import java.io.IOException;
 import java.lang.Long;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
-import java.net.HttpURLConnection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Future;
 import java.util.ArrayList;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
+import java.util.Set;
 import java.util.Vector;
+import java.util.function.Consumer;
 import java.util.concurrent.Callable;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ExecutorService;
@@ -57,7 +63,13 @@ import java.util.concurrent.Future;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 import org.apache.logging.log4j.ThreadContext;
+import org.apache.http.Header;
 import org.apache.http.HttpEntity;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
 
 import org.cdlib.mrt.ingest.handlers.Handler;
 import org.cdlib.mrt.ingest.handlers.HandlerResult;
@@ -65,6 +77,7 @@ import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.ProfileState;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
+import org.cdlib.mrt.ingest.utility.HttpClientPool;
 import org.cdlib.mrt.ingest.utility.PackageTypeEnum;
 import org.cdlib.mrt.utility.LoggerInf;
 import org.cdlib.mrt.utility.LoggerAbs;
@@ -104,6 +117,7 @@ public class HandlerEstimate extends Handler<JobState>
     private int thread_pool_size = 4;   // Default
     protected static final Logger log4j2 = LogManager.getLogger();
     private String zooConnectString = null;
+    public static final long NOT_FOUND = -2;
 
 
     /**
@@ -158,75 +172,53 @@ public class HandlerEstimate extends Handler<JobState>
                         // manifest does not exist and no other manifests processed...FAIL
                     }
 
-                    Enumeration<ManifestRowInf> enumRow = manifest.getRows(new FileInputStream(manifestFile));
-                    ManifestRowIngest rowIn = null;
-                    FileComponent fileComponent = null;
-
-                    // Dryrun process of manifest
-                    System.out.println("[info] " + MESSAGE + "validating manifest integrity: " + jobState.getPackageName());
-                    if (validateManifestIntegrity(manifestFile, logger)) {
-                        status = "valid";
-                        if (DEBUG) System.out.println("[info] " + MESSAGE + "manifest integrity check successful: " + jobState.getPackageName());
-                    } else {
-                        status = "not-valid";
-                        throw new Exception("Manifest integrity check fails: " + manifestFile.getName());
-                    }
-
                     if (ingestRequest.getNumDownloadThreads() != 0) {
                         thread_pool_size = ingestRequest.getNumDownloadThreads();
                         System.out.println("[HandlerEstimate] INFO: Setting processing pool size to: " + thread_pool_size);
                     }
 
-                    // Check for duplicate manifest entries
-        	    ArrayList<String> objectNames = new ArrayList<>();        // Non string logging
-                    enumRow = manifest.getRows(new FileInputStream(manifestFile));
-                    while (enumRow.hasMoreElements()) {
-                        rowIn = (ManifestRowIngest) enumRow.nextElement();
-                        fileComponent = rowIn.getFileComponent();
-                        String objectName = fileComponent.getIdentifier();
-                        if (objectNames.contains(objectName)) {
-                            System.err.println("[error] Duplicate manifest entry detected: " + objectName);
-			    ThreadContext.put("Duplicate manifest entry detected: ", objectName + " - " + jobState.getPackageName() + " - " + jobState.grabObjectProfile().getCollectionName());
-            		    return new HandlerResult(false, "Error: " + NAME + " Duplicate manifest entry detected: " + objectName, 0);
-                        } else {
-			    objectNames.add(objectName);
-			}
-
-                    }
-
-                    executorService = Executors.newFixedThreadPool(thread_pool_size);
+                    final ExecutorService sizeService = Executors.newFixedThreadPool(thread_pool_size);
+                    executorService = sizeService;
+                    CompletionService<String> completionService = new ExecutorCompletionService<String>(sizeService);
                     List<Future<String>> tasks = new ArrayList<Future<String>>();
 
-                    // process all rows in each manifest file
-                    enumRow = manifest.getRows(new FileInputStream(manifestFile));
-                    while (enumRow.hasMoreElements()) {
-                        rowIn = (ManifestRowIngest) enumRow.nextElement();
-                        fileComponent = rowIn.getFileComponent();
-                        if (DEBUG) {
-                            System.out.println(fileComponent.dump("handlerEstimate"));
-                        }
-
-                        // launch download
-                        Future<String> future = executorService.submit(new CalculateSize(fileComponent.getURL(), fileComponent.getIdentifier(), jobState));
-                        tasks.add(future);
+                    // One pass: validate each row, reject duplicates, launch size probe
+                    System.out.println("[info] " + MESSAGE + "validating manifest integrity: " + jobState.getPackageName());
+                    try {
+                        long rows = scanManifest(manifestFile, logger, fileComponent -> {
+                            if (DEBUG) {
+                                System.out.println(fileComponent.dump("handlerEstimate"));
+                            }
+                            tasks.add(completionService.submit(new CalculateSize(fileComponent.getURL(), fileComponent.getIdentifier(), jobState)));
+                        });
+                        status = "valid";
+                        if (DEBUG) System.out.println("[info] " + MESSAGE + "manifest integrity check successful: " + jobState.getPackageName() + " rows: " + rows);
+                    } catch (TException.REQUEST_ITEM_EXISTS dup) {
+                        sizeService.shutdownNow();
+                        System.err.println("[error] " + dup.getDetail());
+			ThreadContext.put("Duplicate manifest entry detected: ", dup.getDetail() + " - " + jobState.getPackageName() + " - " + jobState.grabObjectProfile().getCollectionName());
+            		return new HandlerResult(false, "Error: " + NAME + " " + dup.getDetail(), 0);
+                    } catch (TException.INVALID_DATA_FORMAT idf) {
+                        sizeService.shutdownNow();
+                        status = "not-valid";
+                        throw new Exception("Manifest integrity check fails: " + manifestFile.getName());
                     }
 
                     // Not blocked w/ callables
                     executorService.shutdown();
 
-                    while (! executorService.isTerminated()) {
-                        System.out.println("awaiting completion of size calculation.... Thread: " + Thread.currentThread().getName());
-                        Thread.currentThread().sleep(15000);            // 15 seconds
-                    }
-
-
-                    // Sum manifest size
+                    // Sum manifest size as each calculation completes, stop at first error
+                    System.out.println("awaiting completion of size calculation.... Thread: " + Thread.currentThread().getName());
                     try {
-                        for (Future<String> future : tasks) {
-                            String s = future.get();    // blocked, but should be complete
+                        for (int i = 0; i < tasks.size(); i++) {
+                            String s = completionService.take().get();
 
 			    // If URL, then it is a retrieval error
                             if (s.contains("://")) {
+                                for (Future<String> future : tasks) {
+                                    future.cancel(true);
+                                }
+                                executorService.shutdownNow();
             			return new HandlerResult(false, "ERROR: " + NAME + "Manifest error (URL retrieval error: " + s, 0);
                             }
 
@@ -237,9 +229,17 @@ public class HandlerEstimate extends Handler<JobState>
                         }
 			// Differeniiate from a zero length file
 			if (submissionSize == 0) submissionSize = -1;
+                    } catch (InterruptedException ie) {
+                        throw ie;
                     } catch (Exception e) {
                         e.printStackTrace(System.err);
                         System.err.println("Error in calculating Manifest size");
+                        // stop outstanding calculations, do not record a partial size
+                        for (Future<String> future : tasks) {
+                            future.cancel(true);
+                        }
+                        executorService.shutdownNow();
+            		return new HandlerResult(false, "ERROR: " + NAME + " Manifest size calculation failed: " + e.getMessage(), 0);
                     }
 
                     tasks.clear();
@@ -293,45 +293,107 @@ public class HandlerEstimate extends Handler<JobState>
 
 
     /**
-     * validate manifest integrity
+     * Parse manifest once: validate each row, detect duplicate entries and hand
+     * each row to the consumer as it is read
      *
      * @param manifestFile manifest file
-     * @return success in validating manifest
+     * @param logger logger
+     * @param rowConsumer called for every valid row, in manifest order
+     * @return number of rows
+     * @throws TException.INVALID_DATA_FORMAT manifest not valid
+     * @throws TException.REQUEST_ITEM_EXISTS duplicate manifest entry
      */
-    private boolean validateManifestIntegrity(File manifestFile, LoggerInf logger)
+    public static long scanManifest(File manifestFile, LoggerInf logger, Consumer<FileComponent> rowConsumer)
+        throws TException
     {
-        Manifest manifest = null;
-        Enumeration<ManifestRowInf> eRow = null;
-        ManifestRowIngest rIn = null;
+        Set<String> objectNames = new HashSet<String>();
+        long rows = 0;
         FileComponent fComponent = null;
 
-        try {
-            manifest = Manifest.getManifest(logger, ManifestRowAbs.ManifestType.ingest);
-            eRow = manifest.getRows(new FileInputStream(manifestFile));
+        try (InputStream inputStream = new FileInputStream(manifestFile)) {
+            Manifest manifest = Manifest.getManifest(logger, ManifestRowAbs.ManifestType.ingest);
+            Enumeration<ManifestRowInf> eRow = manifest.getRows(inputStream);
 
             // process all rows in each manifest file
             while (eRow.hasMoreElements()) {
-                rIn = (ManifestRowIngest) eRow.nextElement();
+                ManifestRowIngest rIn = (ManifestRowIngest) eRow.nextElement();
                 fComponent = rIn.getFileComponent();
                 if (DEBUG) {
                     System.out.println("Pre-processing manifest entry: " + rIn.getLine());
                 }
-
+                if (! objectNames.add(fComponent.getIdentifier())) {
+                    throw new TException.REQUEST_ITEM_EXISTS("Duplicate manifest entry detected: " + fComponent.getIdentifier());
+                }
+                rows++;
+                rowConsumer.accept(fComponent);
             }
-            return true;
+            return rows;
+        } catch (TException.REQUEST_ITEM_EXISTS dup) {
+            throw dup;
         } catch (Exception e) {
 	    e.printStackTrace();
             System.err.println("[ERROR] Pre-processing manifest not valid: " + manifestFile.getAbsolutePath());
-            return false;
-        } finally {
-            manifest = null;
-            eRow = null;
-            rIn = null;
-            fComponent = null;
+            throw new TException.INVALID_DATA_FORMAT("Manifest integrity check fails: " + manifestFile.getName());
         }
     }
 
 
+    /**
+     * Remote size from a HEAD request, falling back to a GET of the first byte.
+     * Requests share the process-wide connection pool and the response is
+     * always closed, so no content is transferred.
+     *
+     * @param url http(s) or file URL
+     * @return size, -1 if not provided, NOT_FOUND if 404
+     */
+    public static long getRemoteSize(URL url)
+        throws Exception
+    {
+	String protocol = url.getProtocol();
+	if (protocol.equals("file")) {
+	    File file = new File(url.toURI());
+	    return file.exists() ? file.length() : NOT_FOUND;
+	}
+	if (! protocol.equals("http") && ! protocol.equals("https")) return -1;
+
+	URI uri = null;
+	try {
+	    uri = url.toURI();
+	} catch (URISyntaxException use) {
+	    // encode characters not allowed in a URI (e.g. spaces)
+	    uri = new URI(url.getProtocol(), url.getUserInfo(), url.getHost(), url.getPort(), url.getPath(), url.getQuery(), url.getRef());
+	}
+	CloseableHttpClient httpClient = HttpClientPool.getHttpClient();
+
+	HttpHead head = new HttpHead(uri);
+	try (CloseableHttpResponse response = httpClient.execute(head)) {
+	    int code = response.getStatusLine().getStatusCode();
+	    if (code == 404) return NOT_FOUND;
+	    Header length = response.getFirstHeader("Content-Length");
+	    if (code < 300 && length != null) return Long.parseLong(length.getValue().trim());
+	    if (DEBUG) System.out.println("[info] HEAD size not available (" + code + "), requesting range: " + url.toString());
+	}
+
+	// HEAD not supported or no Content-Length
+	HttpGet get = new HttpGet(uri);
+	get.setHeader("Range", "bytes=0-0");
+	try (CloseableHttpResponse response = httpClient.execute(get)) {
+	    int code = response.getStatusLine().getStatusCode();
+	    if (code == 404) return NOT_FOUND;
+	    if (code == 206) {
+		EntityUtils.consume(response.getEntity());	// one byte, keeps connection reusable
+		Header range = response.getFirstHeader("Content-Range");	// bytes 0-0/12345
+		if (range == null) return -1;
+		String total = range.getValue().substring(range.getValue().lastIndexOf('/') + 1).trim();
+		return total.equals("*") ? -1 : Long.parseLong(total);
+	    }
+	    long bytes = -1;
+	    if (code < 300 && response.getEntity() != null) bytes = response.getEntity().getContentLength();
+	    get.abort();		// range ignored: do not read the body
+	    return bytes;
+	}
+    }
+
     public String getName() {
         return NAME;
     }
@@ -364,10 +426,9 @@ class CalculateSize implements Callable<String>
             System.out.println("Retrieving remote data size: " + url.toString() + " ---- " + fileName);
             for (int i=0; i < 2; i++) {
                 try {
-		    HttpURLConnection uc = (HttpURLConnection) url.openConnection();
-            	    bytes = uc.getContentLengthLong();
+            	    bytes = HandlerEstimate.getRemoteSize(url);
 
-		    if (uc.getResponseCode() == 404) {
+		    if (bytes == HandlerEstimate.NOT_FOUND) {
                         if (DEBUG) System.out.println("Estimate [error]: " + " URL not retrievable: " + url.toString());
             		return url.toString();
 		    }
@@ -34,13 +34,20 @@ import java.io.BufferedInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Enumeration;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Vector;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipInputStream;
-import java.nio.charset.Charset;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+import java.nio.charset.StandardCharsets;
 
 
 import org.apache.commons.compress.compressors.bzip2.BZip2CompressorInputStream;
@@ -53,6 +60,8 @@ import org.cdlib.mrt.ingest.handlers.HandlerResult;
 import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.ProfileState;
+import org.cdlib.mrt.ingest.utility.DigestCache;
+import org.cdlib.mrt.ingest.utility.DigestEngine;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
 import org.cdlib.mrt.ingest.utility.MetadataUtil;
 import org.cdlib.mrt.ingest.utility.PackageTypeEnum;
@@ -69,12 +78,41 @@ public class HandlerDisaggregate extends Handler<JobState>
 
     private static final String NAME = "HandlerDisaggregate";
     private static final String MESSAGE = NAME + ": ";
-    private static final int BUFFERSIZE = 4096;
+    public static final int DEFAULT_BUFFER_SIZE = 1024 * 1024;
+    public static final String[] DEFAULT_DIGEST_ALGORITHMS = { "SHA-256", "MD5" };
+    public static final int DEFAULT_EXTRACT_THREADS = 4;	// matches ContainerExtractThreads in ingestConfig.yaml
+    private static volatile int bufferSize = DEFAULT_BUFFER_SIZE;
+    private static volatile String[] digestAlgorithms = DEFAULT_DIGEST_ALGORITHMS;
+    private static int extractThreads = DEFAULT_EXTRACT_THREADS;
+    private static ForkJoinPool extractPool = null;
+    // one buffer per extraction thread
+    private static final ThreadLocal<byte[]> extractBuffer = ThreadLocal.withInitial(() -> new byte[bufferSize]);
     private static final boolean DEBUG = true;
     private static final String FS = System.getProperty("file.separator");
     private LoggerInf logger = null;
     private Properties conf = null;
 
+    /**
+     * @param size read and write buffer for container extraction
+     */
+    public static void setBufferSize(int size) {
+	if (size > 0) bufferSize = size;
+    }
+
+    /**
+     * @param threads zip entries extracted concurrently (takes effect on first use)
+     */
+    public static synchronized void setExtractThreads(int threads) {
+	if (threads < 1 || extractPool != null) return;
+	extractThreads = threads;
+    }
+
+    /**
+     * @param algorithms Java digest algorithms computed for container members as they are extracted
+     */
+    public static void setDigestAlgorithms(String... algorithms) {
+	if (algorithms != null && algorithms.length > 0) digestAlgorithms = algorithms.clone();
+    }
 
     /**
      * Unpack container
@@ -102,25 +140,30 @@ public class HandlerDisaggregate extends Handler<JobState>
 
 	    boolean result;
 	    File targetDir = new File(ingestRequest.getQueuePath(), "producer");
+	    // members are hashed as they are written, for Digest and Corroborate
+	    DigestCache digestCache = null;
+	    if (packageType == PackageTypeEnum.container) digestCache = DigestCache.getDigestCache(ingestRequest.getQueuePath());
 	    for (String fileS : targetDir.list()) {
 	        file = new File(targetDir, fileS);
 	    	if (packageType == PackageTypeEnum.container) {
 			System.out.println("[info] " + MESSAGE + "container parm specified, uncompression/un-archiving processing: " + fileS);
 			status = "valid";
 
-			// uncompress
-			file = decompress(file, targetDir);
-			if (file == null) {
+			// uncompress (compressed tar is expanded by untar in a single pass)
+			if (! isCompressedTar(file)) {
+			    file = decompress(file, targetDir, digestCache);
+			    if (file == null) {
 				throw new TException.INVALID_OR_MISSING_PARM("[error] " 
-					+ MESSAGE + "uncompressing: " + file.getAbsolutePath());
-			}
-			if (! file.getName().endsWith(".tar")) {
-			    file.delete();
-			    continue;
+					+ MESSAGE + "uncompressing: " + fileS);
+			    }
+			    if (! file.getName().endsWith(".tar")) {
+			        file.delete();
+			        continue;
+			    }
 			}
 
 			// untar 
-			if (! untar(file, targetDir)) {
+			if (! untar(file, targetDir, digestCache)) {
 	    		    System.out.println("[error] " + MESSAGE + "processing tar container: " + file.getAbsolutePath());
 	    		    throw new TException.INVALID_OR_MISSING_PARM("[error] " 
 				+ MESSAGE + "processing tar container: " + file.getAbsolutePath());
@@ -140,6 +183,8 @@ public class HandlerDisaggregate extends Handler<JobState>
 		}
             }
 
+	    if (digestCache != null) digestCache.save(NAME);
+
             // metadata file in ANVL format
             File systemTargetDir = new File(ingestRequest.getQueuePath(), "system");
             File ingestFile = new File(systemTargetDir, "mrt-ingest.txt");
@@ -165,22 +210,34 @@ public class HandlerDisaggregate extends Handler<JobState>
    
     /**
      * untar container
+     * A compressed tar (tgz, tar.gz, tarz, tar.bz2) is read through the decompressor,
+     * so the intermediate tar is never written to disk
      *
-     * @param container compressed data
+     * @param container tar or compressed tar
      * @param target target unpacking location
-     * @return boolean decompression status
+     * @param digestCache job digest cache, receives digests of extracted members
+     * @return boolean expansion status
      */
-    private boolean untar(File container, File target) throws Exception {
-	FileInputStream in = null;
-	FileOutputStream out = null;
+    private boolean untar(File container, File target, DigestCache digestCache) throws Exception {
+	InputStream in = null;
 	TarInputStream tarIn = null;
 
 	String name = container.getName();
-	boolean compressed = false;
+	boolean compressed = isCompressedTar(container);
 
 	try {
+	    in = new BufferedInputStream(new FileInputStream(container), bufferSize);
+	    if (compressed) {
+		if (DEBUG) System.out.println("[info] " + MESSAGE + "expanding compressed tar in a single pass: " + container.getAbsolutePath());
+		if (name.endsWith("bz2")) {
+		    in = new BZip2CompressorInputStream(in);
+		} else {
+		    in = new GzipCompressorInputStream(in);
+		}
+	    }
 
-	    tarIn = new TarInputStream(new FileInputStream(container));
+	    final byte[] buffer = new byte[bufferSize];
+	    tarIn = new TarInputStream(in);
 	    TarEntry tarEntry = tarIn.getNextEntry();
 	    while (tarEntry != null) {
 	        File destFile = new File(container.getParent() + FS + tarEntry.getName());
@@ -192,9 +249,7 @@ public class HandlerDisaggregate extends Handler<JobState>
 		    if ( ! destFile.getParentFile().exists()) {
 			 destFile.getParentFile().mkdirs();
 		    }
-		    out = new FileOutputStream(destFile);
-		    tarIn.copyEntryContents(out);
-		    out.close();
+		    writeEntry(tarIn, destFile, buffer, digestCache);
 	        }
 	        tarEntry = tarIn.getNextEntry();
 	    }
@@ -206,30 +261,38 @@ public class HandlerDisaggregate extends Handler<JobState>
 	    throw e;
 	} finally {
             try {
-	        tarIn.close();
-	        in.close();
-	        out.close();
+	        if (tarIn != null) tarIn.close();
+	        else if (in != null) in.close();
 	        container.delete();
             } catch (Exception e) { }
 	}
     }
 
+    /**
+     * @return true if container is a tar compressed with gzip or bzip2
+     */
+    private boolean isCompressedTar(File container) {
+	String name = container.getName();
+	if (! (name.endsWith("gz") || name.endsWith("tarz") || name.endsWith("bz2"))) return false;
+	String outName = getOutputName(container, name);
+	return outName != null && outName.endsWith(".tar");
+    }
+
     /**
      * decompress container
      * supported extensions (tgz|gz, zip, bz)
      *
      * @param container compressed data
      * @param target target unpacking location
+     * @param digestCache job digest cache, receives digests of extracted members
      * @return expanded file (or directory for zip)
      */
-    private File decompress(File container, File target) 
+    private File decompress(File container, File target, DigestCache digestCache) 
 	throws Exception
     {
 	InputStream in = null;
 	FileInputStream fileIn = null;
-	FileOutputStream fileOut = null;
 	TarInputStream tarIn = null;
-	ZipInputStream zipIn = null;
 	BZip2CompressorInputStream bzIn = null;
 
 	String name = container.getName();
@@ -246,18 +309,13 @@ public class HandlerDisaggregate extends Handler<JobState>
 		if (newName.endsWith(".tar")) isTar = "/";
 
 		File file = new File (container.getParent() + isTar + newName);
-		fileOut = new FileOutputStream(file);
                 if (DEBUG) System.out.println("[info] " + MESSAGE + "creating gzip entry: " + file.getAbsolutePath());
 
-	        GzipCompressorInputStream gzIn = new GzipCompressorInputStream(fileIn);
-	        final byte[] buffer = new byte[BUFFERSIZE];
-	        int n = 0;
-	        while (-1 != (n = gzIn.read(buffer))) {
-    		        fileOut.write(buffer, 0, n);
-	        }
+	        GzipCompressorInputStream gzIn = new GzipCompressorInputStream(new BufferedInputStream(fileIn, bufferSize));
+	        final byte[] buffer = new byte[bufferSize];
+		writeEntry(gzIn, file, buffer, digestCache);
 		gzIn.close();
 		fileIn.close();
-	        fileOut.close();
 
 		container.delete();
 		container = new File(container.getParent() + "/" + file.getName());
@@ -273,15 +331,10 @@ public class HandlerDisaggregate extends Handler<JobState>
                 if (newName.endsWith(".tar")) isTar = "/";
 
 		File file = new File (container.getParent() + isTar + newName);
-		fileOut = new FileOutputStream(file);
                 if (DEBUG) System.out.println("[info] " + MESSAGE + "creating bzip2 entry: " + file.getAbsolutePath());
-		bzIn = new BZip2CompressorInputStream(fileIn);
-		final byte[] buffer = new byte[BUFFERSIZE];
-		int n = 0;
-		while (-1 != (n = bzIn.read(buffer))) {
-    		    fileOut.write(buffer, 0, n);
-		}
-		fileOut.close();
+		bzIn = new BZip2CompressorInputStream(new BufferedInputStream(fileIn, bufferSize));
+		final byte[] buffer = new byte[bufferSize];
+		writeEntry(bzIn, file, buffer, digestCache);
 		bzIn.close();
 
 		container.delete();
@@ -289,52 +342,8 @@ public class HandlerDisaggregate extends Handler<JobState>
 
 	    // zip
 	    } else if (name.toLowerCase().endsWith("zip")) {
-		in = new BufferedInputStream(new FileInputStream(container));
-
-		// Default encoding
-		zipIn = new ZipInputStream(in, Charset.forName("UTF-8"));
-		ZipEntry zipEntry = new ZipEntry("");   // init
-
-	        final byte[] buffer = new byte[BUFFERSIZE];
-		boolean failure = false;
-
-                while (zipEntry != null) {
-                     try {
-                        zipEntry = zipIn.getNextEntry();
-                     } catch (IllegalArgumentException Exception) {
-                        if (failure) throw Exception;
-                        System.out.println("[info] Error detected. Attempting ISO-8859-1 decoding");
-                        failure = true;
-                        zipIn = new ZipInputStream(in, Charset.forName("ISO-8859-1"));
-                        zipEntry = zipIn.getNextEntry();
-                     }
-
-                     if (zipEntry == null) {
-			System.out.println("[info] zip entries exhausted: " + name);
-			continue;
-		     }
-
-                     File destFile = new File(container.getParent() + "/" + zipEntry.getName());
-                     if (DEBUG) System.out.println("[info] " + MESSAGE + "creating zip entry: " + destFile.getAbsolutePath());
-                     if (zipEntry.isDirectory()){
-                        destFile.mkdirs();
-                     } else {
-			try {
-                            fileOut = new FileOutputStream(destFile);
-			} catch (Exception e) {
-			    destFile.getParentFile().mkdirs();
-                            fileOut = new FileOutputStream(destFile);
-			}
-			int length = 0;
-			while((length = zipIn.read(buffer)) != -1) {
-			    fileOut.write(buffer, 0, length);
-			}
-    			fileOut.close();
-                     }
-                 }
-                 container.delete();
-		 in.close();
-		 zipIn.close();
+		unzip(container, digestCache);
+                container.delete();
 
 	    } else if (! name.endsWith(".tar")) {
 		if (DEBUG) System.out.println("[error] " + MESSAGE + "file extension not supported as a container: " + container.getAbsolutePath());
@@ -354,11 +363,115 @@ public class HandlerDisaggregate extends Handler<JobState>
 		in.close();
 		tarIn.close();
 		fileIn.close();
-		fileOut.close();
 	    } catch (Exception e) { }
 	}
    }
 
+    /**
+     * unzip container
+     * Entries are read through the central directory (Zip64 supported) and extracted
+     * concurrently, inflate is the cost for zips of many small files
+     *
+     * @param container zip file
+     * @param digestCache job digest cache, receives digests of extracted members
+     */
+    private void unzip(File container, DigestCache digestCache)
+        throws Exception
+    {
+	ZipFile zipFile = openZip(container);
+	try {
+	    // last entry of a name wins, as when extracted sequentially
+	    Map<String, ZipEntry> entries = new LinkedHashMap<String, ZipEntry>();
+	    Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+	    while (enumeration.hasMoreElements()) {
+		ZipEntry zipEntry = enumeration.nextElement();
+		entries.put(zipEntry.getName(), zipEntry);
+	    }
+
+	    List<ZipEntry> members = new ArrayList<ZipEntry>();
+	    for (ZipEntry zipEntry : entries.values()) {
+		if (zipEntry.isDirectory()) {
+		    new File(container.getParent() + "/" + zipEntry.getName()).mkdirs();
+		} else {
+		    members.add(zipEntry);
+		}
+	    }
+	    System.out.println("[info] " + MESSAGE + "extracting " + members.size() + " zip entries: " + container.getName());
+
+	    getExtractPool().submit(() -> members.parallelStream().forEach(zipEntry -> {
+		File destFile = new File(container.getParent() + "/" + zipEntry.getName());
+		if (DEBUG) System.out.println("[info] " + MESSAGE + "creating zip entry: " + destFile.getAbsolutePath());
+		try {
+		    destFile.getParentFile().mkdirs();
+		    try (InputStream in = zipFile.getInputStream(zipEntry)) {
+			writeEntry(in, destFile, extractBuffer.get(), digestCache);
+		    }
+		} catch (Exception e) {
+		    throw new RuntimeException(zipEntry.getName() + ": " + e.getMessage(), e);
+		}
+	    })).get();
+	} catch (ExecutionException ee) {
+	    throw new Exception(MESSAGE + "error extracting zip entry: " + ee.getCause().getMessage(), ee.getCause());
+	} finally {
+	    zipFile.close();
+	}
+    }
+
+    /**
+     * Open zip, choosing the entry name charset before anything is extracted:
+     * UTF-8 (or entries flagged UTF-8), otherwise ISO-8859-1
+     */
+    private ZipFile openZip(File container)
+        throws IOException
+    {
+	ZipFile zipFile = null;
+	try {
+	    zipFile = new ZipFile(container, StandardCharsets.UTF_8);
+	    Enumeration<? extends ZipEntry> enumeration = zipFile.entries();
+	    while (enumeration.hasMoreElements()) enumeration.nextElement().getName();
+	    return zipFile;
+	} catch (IllegalArgumentException | ZipException e) {
+	    if (zipFile != null) zipFile.close();
+	    System.out.println("[info] " + MESSAGE + "zip entry names are not UTF-8, using ISO-8859-1 decoding: " + container.getName());
+	    return new ZipFile(container, StandardCharsets.ISO_8859_1);
+	}
+    }
+
+    private static synchronized ForkJoinPool getExtractPool() {
+	if (extractPool == null) {
+	    System.out.println("[info] " + MESSAGE + "Extraction pool size: " + extractThreads);
+	    extractPool = new ForkJoinPool(extractThreads);
+	}
+	return extractPool;
+    }
+
+    /**
+     * Write a container member, recording its digests as it is written
+     *
+     * @param in member content, not closed
+     * @param destFile member target
+     * @param buffer copy buffer
+     * @param digestCache job digest cache, may be null
+     */
+    private void writeEntry(InputStream in, File destFile, byte[] buffer, DigestCache digestCache)
+        throws Exception
+    {
+	if (digestCache == null) {
+	    try (FileOutputStream out = new FileOutputStream(destFile)) {
+		int n = 0;
+		while (-1 != (n = in.read(buffer))) {
+		    out.write(buffer, 0, n);
+		}
+	    }
+	    return;
+	}
+	Map<String, String> digests = DigestEngine.copy(in, destFile, buffer, digestAlgorithms);
+	for (Map.Entry<String, String> digest : digests.entrySet()) {
+	    digestCache.putDigest(destFile, digest.getKey(), digest.getValue());
+	}
+	digestCache.addBytesHashed(destFile.length());
+    }
+
     public String getOutputName(File input, String name) {
 	String inS = input.getName();
 	String outParentS = input.getParent();
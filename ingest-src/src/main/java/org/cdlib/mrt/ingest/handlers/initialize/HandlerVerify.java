@@ -102,10 +102,15 @@ public class HandlerVerify extends Handler<JobState>
 
 	    }
 
-	    LoggerInf logger = LoggerAbs.getTFileLogger("debug", 10, 10);
-	    MessageDigestValue message = new MessageDigestValue(submissionPackage, digest, logger);
-
-	    String calculatedChecksum = message.getChecksum();
+	    // computed when the package was received, otherwise read the package
+	    String calculatedChecksum = jobState.grabUploadDigest();
+	    if (StringUtil.isNotEmpty(calculatedChecksum)) {
+	    	System.out.println("[info]: " + MESSAGE + "Using digest computed on receipt: " + submissionPackage.getName());
+	    } else {
+	        LoggerInf logger = LoggerAbs.getTFileLogger("debug", 10, 10);
+	        MessageDigestValue message = new MessageDigestValue(submissionPackage, digest, logger);
+	        calculatedChecksum = message.getChecksum();
+	    }
 
 	    if (! calculatedChecksum.equalsIgnoreCase(value)) {
 		throw new TException.FIXITY_CHECK_FAILS("[error] submission package checksum mismatch: " + submissionPackage.getName() + " - " + calculatedChecksum);
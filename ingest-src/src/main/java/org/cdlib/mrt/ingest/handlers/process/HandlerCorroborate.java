@@ -41,13 +41,13 @@ import java.util.Vector;
 import org.cdlib.mrt.ingest.handlers.Handler;
 import org.cdlib.mrt.ingest.handlers.HandlerResult;
 import org.cdlib.mrt.core.FileComponent;
-import org.cdlib.mrt.core.FileContent;
 import org.cdlib.mrt.core.Manifest;
 import org.cdlib.mrt.core.ManifestRowAbs;
 import org.cdlib.mrt.core.ManifestRowObject;
 import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.ProfileState;
+import org.cdlib.mrt.ingest.utility.DigestCache;
 import org.cdlib.mrt.ingest.utility.FileUtilAlt;
 import org.cdlib.mrt.ingest.utility.MetadataUtil;
 import org.cdlib.mrt.ingest.utility.PackageTypeEnum;
@@ -191,22 +191,19 @@ public class HandlerCorroborate extends Handler<JobState>
 
             Vector<File> files = new Vector<File>(INITIAL_SIZE);
             Map<String, FileComponent> fcManifest = new HashMap<String, FileComponent>(INITIAL_SIZE);	// user supplied manifest
-            Map<String, FileComponent> fcDirectory = new HashMap<String, FileComponent>(INITIAL_SIZE);	// data directory
+            Map<String, File> fcDirectory = new HashMap<String, File>(INITIAL_SIZE);	// data directory
             FileUtilAlt.getDirectoryFiles(new File(queuePath, "producer"), files);
             FileComponent fc = null;
+	    DigestCache digestCache = DigestCache.getDigestCache(queuePath);
 
-	    // read data directory
+	    // read data directory (digests are computed on demand, from cache when unchanged)
+            String sourceName = new File(queuePath, "producer").getCanonicalPath();
             for (File file : files) {
-                FileContent fileContent = FileContent.getFileContent(file, logger);
-                fc =  fileContent.getFileComponent();
                 String fileName = file.getCanonicalPath();
-                String sourceName = new File(queuePath, "producer").getCanonicalPath();
                 fileName = fileName.substring(sourceName.length() + 1);
-                String urlName = FileUtil.getURLEncodeFilePath(fileName);
                 fileName = fileName.replace('\\', '/');
-                fc.setIdentifier(fileName);
     
-                if (! fileName.equals(manifestName)) fcDirectory.put(fc.getIdentifier(), fc);	// ignore manifest itself
+                if (! fileName.equals(manifestName)) fcDirectory.put(fileName, file);	// ignore manifest itself
 	    }
     
 	    // read manifest
@@ -218,50 +215,43 @@ public class HandlerCorroborate extends Handler<JobState>
 	    }
             ManifestRowObject manRowIn = null;
             Enumeration en = manIn.getRows(manifestFile);
-            while (en.hasMoreElements()) {
-                manRowIn = (ManifestRowObject)en.nextElement();
-                fc =  manRowIn.getFileComponent();
-                fcManifest.put(fc.getIdentifier(), fc);
+            try {
+                while (en.hasMoreElements()) {
+                    manRowIn = (ManifestRowObject)en.nextElement();
+                    fc =  manRowIn.getFileComponent();
+                    fcManifest.put(fc.getIdentifier(), fc);
 
-		// cross-reference supplied manifest with directory data
-		FileComponent fcCheck = fcDirectory.get(fc.getIdentifier());
-		if (fcCheck == null) {
-                    System.err.println("[error] " + MESSAGE + "manifest file entry does not exist in data dir: " + fc.getIdentifier());
-		    return false;
-		} else {
-		    if (fc.getSize() != fcCheck.getSize()) {
-                        System.err.println("[error] " + MESSAGE + "manifest file entry filesize does not match data: " + fc.getIdentifier() + "    " +
-				fc.getSize() + " -- " + fcCheck.getSize());
-		        return false;
-		    }
-	            if (! fc.getMessageDigest().getValue().equals(fcCheck.getMessageDigest().getValue())) {
-                        System.err.println("[error] " + MESSAGE + "manifest file entry digest does not match data: " + fc.getIdentifier() + "    " +
-				fc.getMessageDigest().getValue() + " -- " + fcCheck.getMessageDigest().getValue());
+		    // cross-reference supplied manifest with directory data
+		    File fileCheck = fcDirectory.get(fc.getIdentifier());
+		    if (fileCheck == null) {
+                        System.err.println("[error] " + MESSAGE + "manifest file entry does not exist in data dir: " + fc.getIdentifier());
 		        return false;
+		    } else {
+		        if (fc.getSize() != fileCheck.length()) {
+                            System.err.println("[error] " + MESSAGE + "manifest file entry filesize does not match data: " + fc.getIdentifier() + "    " +
+				    fc.getSize() + " -- " + fileCheck.length());
+		            return false;
+		        }
+		        String digest = digestCache.digest(fileCheck, fc.getMessageDigest().getAlgorithm().getJavaAlgorithm());
+	                if (! fc.getMessageDigest().getValue().equalsIgnoreCase(digest)) {
+                            System.err.println("[error] " + MESSAGE + "manifest file entry digest does not match data: " + fc.getIdentifier() + "    " +
+				    fc.getMessageDigest().getValue() + " -- " + digest);
+		            return false;
+		        }
 		    }
-		}
+                }
+            } finally {
+		digestCache.save(NAME);
             }
 
 	    // cross-reference data directory data with supplied manifest
+	    // (size and digest of every matching entry were compared above)
 	    Iterator it = fcDirectory.keySet().iterator();
 	    while(it.hasNext()) {
-    		fc = (FileComponent) fcDirectory.get((String) it.next());
-
-		FileComponent fcCheck = fcManifest.get(fc.getIdentifier());
-		if (fcCheck == null) {
-                    System.err.println("[error] " + MESSAGE + "data file does not exist in manifest: " + fc.getIdentifier());
+		String fileName = (String) it.next();
+		if (fcManifest.get(fileName) == null) {
+                    System.err.println("[error] " + MESSAGE + "data file does not exist in manifest: " + fileName);
 		    return false;
-		} else {
-		    if (fc.getSize() != fcCheck.getSize()) {
-                        System.err.println("[error] " + MESSAGE + "data file filesize does not match manifest: " + fc.getIdentifier() + "    " +
-				fc.getSize() + " -- " + fcCheck.getSize());
-		        return false;
-		    }
-	            if (! fc.getMessageDigest().getValue().equals(fcCheck.getMessageDigest().getValue())) {
-                        System.err.println("[error] " + MESSAGE + "data file digest does not match manifest: " + fc.getIdentifier() + "    " +
-				fc.getMessageDigest().getValue() + " -- " + fcCheck.getMessageDigest().getValue());
-		        return false;
-		    }
 		}
 	    }
 
@@ -31,18 +31,32 @@ package org.cdlib.mrt.ingest.handlers.process;
 
 import java.io.File;
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.Vector;
+
+import org.apache.tika.Tika;
 
 import org.cdlib.mrt.ingest.handlers.Handler;
 import org.cdlib.mrt.ingest.handlers.HandlerResult;
 import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.ProfileState;
-import org.cdlib.mrt.core.ManifestBuild;
+import org.cdlib.mrt.core.FileComponent;
+import org.cdlib.mrt.core.Manifest;
+import org.cdlib.mrt.core.ManifestRowAbs;
+import org.cdlib.mrt.core.ManifestRowAdd;
+import org.cdlib.mrt.ingest.utility.DigestCache;
+import org.cdlib.mrt.ingest.utility.DigestEngine;
+import org.cdlib.mrt.ingest.utility.FileUtilAlt;
 import org.cdlib.mrt.utility.FileUtil;
 import org.cdlib.mrt.utility.LoggerInf;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.utility.TException;
+import org.cdlib.mrt.utility.TFileLogger;
 
 /**
  * create manifest based on current queue path
@@ -54,6 +68,8 @@ public class HandlerDigest extends Handler<JobState>
     private static final String NAME = "HandlerDigest";
     private static final String MESSAGE = NAME + ": ";
     private static final boolean DEBUG = true;
+    private static final String ALGORITHM = "SHA-256";		// manifest digest
+    private static final Tika tika = new Tika();
     private LoggerInf logger = null;
     private Properties conf = null;
     private Integer defaultStorage = null;
@@ -96,16 +112,16 @@ public class HandlerDigest extends Handler<JobState>
 
 	    if (DEBUG) System.out.println("[debug] " + MESSAGE + " baseURL: " + baseURL);
 
-	    // build manifest
-	    ManifestBuild.getPostManifest(baseURL, ingestRequest.getQueuePath(), manifest);
-
-	    FileUtil.removeLineFromFile(manifest.getAbsolutePath(), "system/mrt-manifest.txt", "CONTAIN");
+	    // Entries never written to the manifest (paths relative to Job dir)
+	    Set<String> exclude = new HashSet<String>();
+	    exclude.add("system/mrt-manifest.txt");
+	    exclude.add(DigestCache.CACHE_PATH);			// working data, not object content
+	    exclude.add(ingestRequest.getJob().getPackageName());	// Job manifest used for submission (top level Job dir)
 
-	    String job_manifest = ingestRequest.getJob().grabBatchID().getValue() + "/" 
-		+ ingestRequest.getJob().getJobID().getValue() + "/" 
-		+ ingestRequest.getJob().getPackageName();
-	    // Do not preserve Job manifest used for submission (top level Job dir)
-	    FileUtil.removeLineFromFile(manifest.getAbsolutePath(), job_manifest, "CONTAIN");
+	    // build manifest, reusing digests computed by earlier stages
+	    DigestCache digestCache = DigestCache.getDigestCache(ingestRequest.getQueuePath());
+	    buildPostManifest(baseURL, ingestRequest.getQueuePath(), manifest, exclude, digestCache);
+	    digestCache.save(NAME);
 
 	    return new HandlerResult(true, "SUCCESS: " + NAME + " created manifest");
 
@@ -123,6 +139,77 @@ public class HandlerDigest extends Handler<JobState>
         }
 
     }
+
+    /**
+     * build post manifest for all queue data in one streaming pass
+     * Same content as ManifestBuild.getPostManifest(), but excluded entries are
+     * never written, files without a cached SHA-256 are hashed concurrently by the
+     * DigestEngine and cached files are not read again (only sniffed for mime type)
+     *
+     * @param baseURL URL of queue directory
+     * @param queuePath queue directory
+     * @param manifestFile target manifest
+     * @param exclude paths relative to queue directory to leave out
+     * @param digestCache job digest cache
+     */
+    private void buildPostManifest(String baseURL, File queuePath, File manifestFile, Set<String> exclude, DigestCache digestCache)
+        throws TException
+    {
+	try {
+	    LoggerInf logger = new TFileLogger(NAME, 10, 10);
+            Vector<File> files = new Vector<File>(100);
+            FileUtilAlt.getDirectoryFiles(queuePath, files);
+            String sourceName = queuePath.getCanonicalPath();
+
+	    // manifest entries, in directory order
+	    List<File> entries = new ArrayList<File>(files.size());
+	    List<String> entryNames = new ArrayList<String>(files.size());
+            for (File file : files) {
+                String fileName = file.getCanonicalPath().substring(sourceName.length() + 1).replace('\\', '/');
+		if (exclude.contains(fileName)) continue;
+		entries.add(file);
+		entryNames.add(fileName);
+	    }
+
+	    // hash everything not already in the cache
+	    List<File> uncached = new ArrayList<File>();
+            for (File file : entries) {
+		if (digestCache.getDigest(file, ALGORITHM) == null) {
+		    uncached.add(file);
+		} else {
+		    digestCache.addBytesSaved(file.length());
+		}
+	    }
+	    if (DEBUG) System.out.println("[debug] " + MESSAGE + "files to digest: " + uncached.size() + " of " + entries.size());
+	    DigestEngine.digest(uncached, digestCache, ALGORITHM);
+
+            Manifest postManifest = Manifest.getManifest(logger, ManifestRowAbs.ManifestType.add);
+            postManifest.openOutput(manifestFile);
+            for (int i = 0; i < entries.size(); i++) {
+		File file = entries.get(i);
+		String fileName = entryNames.get(i);
+
+		String digest = digestCache.getDigest(file, ALGORITHM);
+		if (digest == null) digest = digestCache.digest(file, ALGORITHM);	// changed since hashed
+                FileComponent fileComponent = new FileComponent();
+		fileComponent.setSize(file.length());
+		fileComponent.setMessageDigest(digest, "sha256");
+		fileComponent.setMimeType(tika.detect(file));
+                fileComponent.setIdentifier(fileName);
+                fileComponent.setURL(new URL(baseURL + "/" + FileUtil.getURLEncodeFilePath(fileName)));
+
+                ManifestRowAdd rowOut = (ManifestRowAdd) ManifestRowAbs.getManifestRow(ManifestRowAbs.ManifestType.add, logger);
+                rowOut.setFileComponent(fileComponent);
+                postManifest.write(rowOut);
+            }
+            postManifest.writeEOF();
+            postManifest.closeOutput();
+	} catch (TException te) {
+	    throw te;
+	} catch (Exception e) {
+	    throw new TException.GENERAL_EXCEPTION(MESSAGE + "building manifest: " + e.getMessage());
+	}
+    }
    
     public String getName() {
 	return NAME;
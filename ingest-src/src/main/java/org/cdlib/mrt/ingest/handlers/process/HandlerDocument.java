@@ -85,7 +85,6 @@ public class HandlerDocument extends Handler<JobState>
             for (Object key : sortedMap.keySet()) {
 		if (StringUtil.isNotEmpty(value)) value += ",";
                 String handlerS = ((HandlerState) sortedMap.get((Integer) key)).getHandlerName();
-                Handler handler = (Handler) createObject(handlerS);
 
 		// String version = handler.getVersion();	// NOT YET SUPPORTED
 		String version = "not-available";
@@ -138,20 +137,6 @@ public class HandlerDocument extends Handler<JobState>
     }
 
    
-    static Object createObject(String className) {
-       Object object = null;
-       try {
-           Class classDefinition = Class.forName(className);
-           object = classDefinition.newInstance();
-       } catch (InstantiationException e) {
-           System.out.println(e);
-       } catch (IllegalAccessException e) {
-           System.out.println(e);
-       } catch (ClassNotFoundException e) {
-           System.out.println(e);
-       }
-       return object;
-   }
 
     public String getName() {
 	return NAME;
@@ -33,6 +33,9 @@ import java.io.File;
 import java.net.URL;
 import java.util.Enumeration;
 import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
 
 import org.cdlib.mrt.core.FileComponent;
 import org.cdlib.mrt.core.Manifest;
@@ -45,8 +48,10 @@ import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.BatchState;
 import org.cdlib.mrt.ingest.ProfileState;
+import org.cdlib.mrt.ingest.utility.DownloadScheduler;
 import org.cdlib.mrt.ingest.utility.MintUtil;
 import org.cdlib.mrt.ingest.utility.PackageTypeEnum;
+import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.utility.LoggerInf;
 import org.cdlib.mrt.utility.FileUtil;
 import org.cdlib.mrt.utility.StringUtil;
@@ -106,11 +111,14 @@ public class HandlerDisaggregate extends Handler<BatchState>
 			JobState jobState = createJob(file, queueDir);
 			jobState.setUpdateFlag(batchState.grabUpdateFlag());
 
-			if (fileS.equals(ingestRequest.getJob().getPackageName())) 
+			if (fileS.equals(ingestRequest.getJob().getPackageName())) {
 			    jobState.setPackageName(ingestRequest.getJob().getPackageName());
-			else
+			} else
 			    // address multiple file submission
 			    jobState.setPackageName(fileS);
+			// digest computed on receipt belongs to the stored file it was computed from
+			if (fileS.equals(ingestRequest.getJob().grabUploadDigestFile()))
+			    jobState.setUploadDigest(ingestRequest.getJob().grabUploadDigest());
 			try {
                             jobState.setHashAlgorithm(ingestRequest.getJob().getHashAlgorithm());
 			} catch (Exception e) { /* optional */ }
@@ -188,6 +196,14 @@ public class HandlerDisaggregate extends Handler<BatchState>
                 throw new TException.FIXITY_CHECK_FAILS("[error] " + MESSAGE + "Manifest of Manifest integrity check fails: " + manifestFile.getName());
             }
 
+            // Jobs are created (and added to the batch) in manifest order; their object manifests
+            // are retrieved in parallel and each job is handed to submission as its manifest arrives
+            DownloadScheduler scheduler = DownloadScheduler.getScheduler();
+            BlockingQueue<Future<JobState>> arrivingJobs = batchState.grabArrivingJobs();
+            if (arrivingJobs == null) arrivingJobs = new LinkedBlockingQueue<Future<JobState>>();
+            String batchID = batchState.getBatchID().getValue();
+            int arrivingCount = batchState.grabArrivingCount();
+
             Enumeration en = manifest.getRows(manifestFile);
 	    boolean empty = true;
             while (en.hasMoreElements()) {
@@ -197,7 +213,7 @@ public class HandlerDisaggregate extends Handler<BatchState>
 	        String fileName = fileComponent.getIdentifier();
 	        if (StringUtil.isEmpty(fileName)) fileName = fileComponent.getURL().getFile().replace("/", "");
                 System.out.println("[info] " + MESSAGE + "Queuing is active, batchID: " + batchState.getBatchID().getValue() + " manifest entry: " + fileName);
-		JobState jobState = createJob(fileComponent.getURL(), fileName, queueDir);
+		JobState jobState = newJob(queueDir);
 		jobState.setUpdateFlag(batchState.grabUpdateFlag());
 
 		// particulars are housed in object manifest file
@@ -224,7 +240,13 @@ public class HandlerDisaggregate extends Handler<BatchState>
 		    jobState.setObjectDate(fileComponent.getDate().toString());
 		} catch (Exception e) {}
 		batchState.addJob(jobState.getJobID().getValue(), jobState);
+
+		URL url = fileComponent.getURL();
+		File objectManifest = new File(new File(queueDir, jobState.getJobID().getValue()), fileName);
+		scheduler.submit(batchID, url.getHost(), () -> retrieveManifest(url, objectManifest, jobState), arrivingJobs);
+		arrivingCount++;
             }
+	    batchState.setArrivingJobs(arrivingJobs, arrivingCount);
 
 	    // Empty Batch Manifest
 	    if (empty) {
@@ -238,8 +260,10 @@ public class HandlerDisaggregate extends Handler<BatchState>
 
     	    return true;
 	} catch (TException te) {
+	    DownloadScheduler.getScheduler().cancel(batchState.getBatchID().getValue());
 	    throw te;
 	} catch (Exception e) {
+	    DownloadScheduler.getScheduler().cancel(batchState.getBatchID().getValue());
     	    String msg = "[error] " + MESSAGE + "unpacking manifest file: " + manifestFile.getAbsolutePath();
 	    System.err.println(msg);
 	    throw new TException.GENERAL_EXCEPTION(msg);
@@ -248,31 +272,47 @@ public class HandlerDisaggregate extends Handler<BatchState>
     }
 
     /**
-     * create new job
+     * create new job, object manifest to follow
      *
-     * @param fileURL file url reference
      * @param queueDir target directory
      * @return jobState
      */
-    private JobState createJob(URL fileURL, String fileName, File queueDir)
+    private JobState newJob(File queueDir)
 	throws TException
     {
-	try {
-	    File tempFile = new File(queueDir, fileName);
-	    tempFile.createNewFile();
+	JobState jobState = new JobState();
+	jobState.setJobID(MintUtil.getJobID());
+	File targetDir = new File(queueDir, jobState.getJobID().getValue());
+	if ( ! targetDir.exists()) {
+	    targetDir.mkdirs();
+	}
+	return jobState;
+    }
 
+    /**
+     * retrieve object manifest of a job
+     * A failed retrieval fails only this job: it is returned FAILED with the reason,
+     * and submitted as a failed job of the batch
+     *
+     * @param fileURL file url reference
+     * @param objectManifest target file in job directory
+     * @param jobState job
+     * @return jobState
+     */
+    private JobState retrieveManifest(URL fileURL, File objectManifest, JobState jobState)
+    {
+	try {
 	    // retry 3 times
-            FileUtil.url2File(null, fileURL.toString(), tempFile, 3);
-
-    	    return createJob(tempFile, queueDir);
+            FileUtil.url2File(null, fileURL.toString(), objectManifest, 3);
+	    System.out.println("[info] " + MESSAGE + "created new JOB: " + jobState.getJobID().getValue() +
+		 " - manifest entry: " + objectManifest.getAbsolutePath()); 
 	} catch (Exception e) {
     	    String msg = "[error] " + MESSAGE + "Could not retrieve url: " + fileURL.toString();
     	    System.out.println(msg);
-	    throw new TException.REQUESTED_ITEM_NOT_FOUND(msg);
-	} finally {
-            try {
-            } catch (Exception e) { }
+	    jobState.setJobStatus(JobStatusEnum.FAILED);
+	    jobState.setJobStatusMessage(msg);
 	}
+	return jobState;
     }
 
     /**
@@ -31,13 +31,22 @@ package org.cdlib.mrt.ingest.handlers.queue;
 
 import java.io.File;
 import java.lang.Boolean;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
-
-import org.apache.zookeeper.WatchedEvent;
-import org.apache.zookeeper.Watcher;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.ThreadContext;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.zookeeper.KeeperException.ConnectionLossException;
 
@@ -48,9 +57,12 @@ import org.cdlib.mrt.ingest.IngestRequest;
 import org.cdlib.mrt.ingest.JobState;
 import org.cdlib.mrt.ingest.BatchState;
 import org.cdlib.mrt.ingest.ProfileState;
+import org.cdlib.mrt.ingest.utility.ChunkUtil;
+import org.cdlib.mrt.ingest.utility.DownloadScheduler;
 import org.cdlib.mrt.ingest.utility.JSONUtil;
 import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.ZookeeperUtil;
+import org.cdlib.mrt.utility.DateUtil;
 import org.cdlib.mrt.utility.LoggerInf;
 import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.utility.TException;
@@ -71,9 +83,20 @@ public class HandlerSubmit extends Handler<BatchState>
     protected static final String NAME = "HandlerSubmit";
     protected static final String MESSAGE = NAME + ": ";
     protected static final boolean DEBUG = true;
+    protected static final int DEFAULT_CHUNK_SIZE = 50;
+    protected static final int MAX_PIPELINE = 16;
+    protected static int chunkSize = DEFAULT_CHUNK_SIZE;
     protected LoggerInf logger = null;
     protected Properties conf = null;
 
+    /**
+     * Set number of jobs created together (and rolled back together on failure)
+     * @param size jobs per chunk
+     */
+    public static void setChunkSize(int size) {
+	if (size > 0) chunkSize = size;
+    }
+
     /**
      * Submit batch manifest jobs to queing service
      *
@@ -96,13 +119,17 @@ public class HandlerSubmit extends Handler<BatchState>
 	String primaryID = null;
 	String localID = null;
         ZooKeeper zooKeeper = null;
+	ExecutorService executor = null;
+	HashMap<String,Object> msgMap = new HashMap<>();	// Non string logging
+	long startTime = DateUtil.getEpochUTCDate();
+	int submitted = 0;
 
 	try {
             Thread.sleep(5);
 
             // open a single connection to zookeeper for all queue posting
             // todo: create an interface
-            zooKeeper = new ZooKeeper(batchState.grabTargetQueue(), ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
+            zooKeeper = ZookeeperUtil.getZooKeeper(batchState.grabTargetQueue());
 	    priority = calculatePriority(batchState.getJobStates().size());		// 00-99 (0=highest)
 	    if (profileState.getPriority() != null) {
 		priority = profileState.getPriority();
@@ -182,11 +209,51 @@ public class HandlerSubmit extends Handler<BatchState>
 	    if (ingestRequest.getDCtype() != null)
 	        jproperties.put("DCtype", ingestRequest.getDCtype());
 
-	    // for all jobs in batch
+	    // for all jobs in batch: those ready now, then each job whose object manifest is still
+	    // being retrieved, in order of arrival
 	    Map<String, JobState> jobStates = (HashMap) batchState.getJobStates();
-	    Iterator iterator = jobStates.keySet().iterator();
-	    while(iterator.hasNext()) {
-	        JobState jobState = (JobState) jobStates.get(iterator.next());
+	    BlockingQueue<Future<JobState>> arrivingJobs = batchState.grabArrivingJobs();
+	    List<JobState> readyJobs = new ArrayList<JobState>(jobStates.values());
+	    int remaining = 0;
+	    if (arrivingJobs != null) {
+		remaining = batchState.grabArrivingCount();
+		readyJobs = readyJobs.subList(0, readyJobs.size() - remaining);
+	    }
+	    String batchID = batchState.getBatchID().getValue();
+	    List<Submission> chunk = new ArrayList<Submission>();
+	    executor = Executors.newFixedThreadPool(Math.min(chunkSize, MAX_PIPELINE));
+	    Iterator<JobState> iterator = readyJobs.iterator();
+	    while(iterator.hasNext() || remaining > 0) {
+	        JobState jobState = null;
+		String failure = null;		// object manifest could not be retrieved
+		if (iterator.hasNext()) {
+		    jobState = iterator.next();
+		} else {
+		    remaining--;
+		    Future<JobState> arrived = arrivingJobs.poll();
+		    if (arrived == null && ! chunk.isEmpty()) {
+			// nothing ready, submit what we have before waiting on the next manifest
+			zooKeeper = refreshZooKeeper(zooKeeper, batchState);
+			int size = chunk.size();
+			String chunkFailure = submitChunk(executor, zooKeeper, ingestRequest.getBatch().id(), Integer.parseInt(priority), chunk);
+			if (chunkFailure != null) return failBatch(zooKeeper, ingestRequest, batchState, chunkFailure);
+			submitted += size;
+		    }
+		    try {
+		        jobState = (arrived != null ? arrived : arrivingJobs.take()).get();
+			if (jobState.getJobStatus() == JobStatusEnum.FAILED) {
+			    // fails this job only, the rest of the batch proceeds
+			    failure = jobState.getJobStatusMessage();
+			    System.err.println("[error] " + MESSAGE + "Failed to retrieve object manifest of job: " 
+				+ jobState.getJobID().getValue() + " - " + failure);
+			}
+		    } catch (ExecutionException | CancellationException ee) {
+			String msg = "Failed to retrieve object manifest: " + 
+				(ee.getCause() instanceof TException ? ((TException) ee.getCause()).getDetail() : String.valueOf(ee.getCause()));
+			System.err.println("[error] " + msg);
+			return failBatch(refreshZooKeeper(zooKeeper, batchState), ingestRequest, batchState, msg);
+		    }
+		}
 
 		jobState.setBatchID(batchState.getBatchID());
 		jproperties.put("jobID", jobState.getJobID().getValue());	// overwrite if exists
@@ -197,6 +264,8 @@ public class HandlerSubmit extends Handler<BatchState>
 		try {
 		    jproperties.put("digestValue", jobState.getHashValue());
 		} catch (Exception e) { properties.remove("digestValue"); }
+		if (jobState.grabUploadDigest() != null) jproperties.put("uploadDigest", jobState.grabUploadDigest());
+		else jproperties.remove("uploadDigest");
 	        try {
 		    jproperties.put("objectID", jobState.getPrimaryID().getValue());
 		} catch (Exception e) { 
@@ -244,66 +313,148 @@ public class HandlerSubmit extends Handler<BatchState>
 	    	    jproperties.put("update", Boolean.valueOf(false));
 		}
 
-		int retryCount = 0;
-	        Job job = null;
-		while (true) {
-		    try {
-
-	                if (! ZookeeperUtil.validateZK(zooKeeper)) {
-                	    try {
-                   	        // Refresh ZK connection
-                   	        zooKeeper = new ZooKeeper(batchState.grabTargetQueue(), ZookeeperUtil.ZK_SESSION_TIMEOUT, new Ignorer());
-               	            } catch  (Exception e ) {
-                 	        e.printStackTrace(System.err);
-               	            }
-            	        }
-
-			// Create Job 
-			System.out.println("[info] queue submission: " + jproperties.toString() 
-				+ "  --- Priority: " + priority 
-				+ " --- Identifiers: " + jidentifiers.toString());
-			job = Job.createJob(zooKeeper, ingestRequest.getBatch().id(), Integer.parseInt(priority), jproperties, jidentifiers);
-
-			break;
-		    } catch (Exception e) {
-			e.printStackTrace();
-			String msg = "Failed to create Job queue submission: " + jproperties.toString();
-			System.err.println("[error] " + msg);
-
-			// Batch failure
-			if (job != null) {
-			    try {
-			        Batch batch = new Batch(job.bid());
-            		        batch.setStatus(zooKeeper, org.cdlib.mrt.zk.BatchState.Failed);
-			    } catch (Exception e2) {}
-			}
-			return new HandlerResult(false, "FAIL: " + NAME + " Submission failed: " + msg, 0);
-		    }
+		chunk.add(new Submission(jobState, new JSONObject(jproperties.toString()), jidentifiers, failure));
+		if (chunk.size() >= chunkSize) {
+		    zooKeeper = refreshZooKeeper(zooKeeper, batchState);
+		    String chunkFailure = submitChunk(executor, zooKeeper, ingestRequest.getBatch().id(), Integer.parseInt(priority), chunk);
+		    if (chunkFailure != null) return failBatch(zooKeeper, ingestRequest, batchState, chunkFailure);
+		    submitted += chunkSize;
 		}
-
-		jobState.setJobStatus(JobStatusEnum.PENDING);
-		if (job != null) job.unlock(zooKeeper);
 	    }
+	    if (! chunk.isEmpty()) {
+		zooKeeper = refreshZooKeeper(zooKeeper, batchState);
+		int size = chunk.size();
+		String failure = submitChunk(executor, zooKeeper, ingestRequest.getBatch().id(), Integer.parseInt(priority), chunk);
+		if (failure != null) return failBatch(zooKeeper, ingestRequest, batchState, failure);
+		submitted += size;
+	    }
+	    batchState.setArrivingJobs(null, 0);
+
+	    long duration = DateUtil.getEpochUTCDate() - startTime;
+            ThreadContext.put("Method", "QueueSubmit");
+            ThreadContext.put("BatchID", batchID);
+	    msgMap.put("Jobs", submitted);
+	    msgMap.put("DurationMs", duration);
+	    msgMap.put("JobsPerSecond", duration > 0 ? (submitted * 1000L) / duration : submitted);
+	    LogManager.getLogger().info(msgMap);
 
 	    // global
-	    System.out.println("[info] QueueHandlerSubmit: Ready to process requests.");
+	    System.out.println("[info] QueueHandlerSubmit: Ready to process requests. Submitted " + submitted + " jobs in " + duration + " ms");
 	    return new HandlerResult(true, "SUCCESS: " + NAME + " completed successfully", 0);
 
         } catch (InterruptedException ie) {
+	    DownloadScheduler.getScheduler().cancel(batchState.getBatchID().getValue());
             return new HandlerResult(false, "[error]: " + MESSAGE + " Interrupted detected - forcing failure");
 	} catch (Exception e) {
 	    e.printStackTrace();
+	    DownloadScheduler.getScheduler().cancel(batchState.getBatchID().getValue());
             String msg = "[error] " + MESSAGE + "submitting batch: " + batchState.getBatchID().getValue() + " : " + e.getMessage();
 	    System.err.println(msg);
             return new HandlerResult(false, msg, 10);
 	} finally {
 	    try {
-		zooKeeper.close();
+		if (executor != null) executor.shutdownNow();
 		zooKeeper = null;
 	    } catch (Exception e) {
 	    }
 	}
     }
+
+    /**
+     * Create the jobs of a chunk concurrently; requests pipeline over the single ZooKeeper session.
+     * Jobs remain locked until the whole chunk is created.  On any failure, or if the handler is
+     * interrupted, the jobs already created are deleted (ChunkUtil).  This is compensation, not a
+     * transaction: should the process die while a chunk is being created, the jobs created so far
+     * remain in ZooKeeper, locked, and must be removed by hand.
+     *
+     * @return null if successful, otherwise failure message
+     */
+    private String submitChunk(ExecutorService executor, ZooKeeper zooKeeper, String zkBatchID, int priority, List<Submission> chunk)
+	throws Exception
+    {
+	List<Callable<Job>> creations = new ArrayList<Callable<Job>>();
+	for (Submission submission : chunk) {
+	    System.out.println("[info] queue submission: " + submission.properties.toString() 
+		+ "  --- Priority: " + priority 
+		+ " --- Identifiers: " + submission.identifiers.toString());
+	    creations.add(() -> {
+		Job job = Job.createJob(zooKeeper, zkBatchID, priority, submission.properties, submission.identifiers);
+		if (submission.failure != null) {
+		    try {
+			job.setStatus(zooKeeper, org.cdlib.mrt.zk.JobState.Failed, submission.failure);
+		    } catch (Exception e) {
+			job.delete(zooKeeper);
+			throw e;
+		    }
+		}
+		return job;
+	    });
+	}
+
+	List<Job> jobs = new ArrayList<Job>();
+	int failed = ChunkUtil.createAll(executor, creations, jobs, job -> {
+	    try {
+		job.delete(zooKeeper);
+	    } catch (Exception e) {
+		System.err.println("[error] " + MESSAGE + "could not remove job of failed chunk: " + job.id());
+	    }
+	});
+	if (failed >= 0) {
+	    String failure = "Failed to create Job queue submission: " + chunk.get(failed).properties.toString();
+	    System.err.println("[error] " + MESSAGE + failure + " - jobs of chunk removed");
+	    return failure;
+	}
+
+	for (int i = 0; i < jobs.size(); i++) {
+	    if (chunk.get(i).failure == null) chunk.get(i).jobState.setJobStatus(JobStatusEnum.PENDING);
+	    jobs.get(i).unlock(zooKeeper);
+	}
+	chunk.clear();
+	return null;
+    }
+
+    /**
+     * Mark the batch Failed and cancel its queued object manifest retrievals.
+     * Jobs of chunks already submitted are not rolled back: they remain queued
+     * (or running) as part of the failed batch.
+     */
+    private HandlerResult failBatch(ZooKeeper zooKeeper, IngestRequest ingestRequest, BatchState batchState, String msg) {
+	DownloadScheduler.getScheduler().cancel(batchState.getBatchID().getValue());
+	batchState.setArrivingJobs(null, 0);
+	try {
+	    ingestRequest.getBatch().setStatus(zooKeeper, org.cdlib.mrt.zk.BatchState.Failed);
+	} catch (Exception e) {}
+	return new HandlerResult(false, "FAIL: " + NAME + " Submission failed: " + msg, 0);
+    }
+
+    private ZooKeeper refreshZooKeeper(ZooKeeper zooKeeper, BatchState batchState) {
+	if (! ZookeeperUtil.validateZK(zooKeeper)) {
+	    try {
+		// Refresh ZK connection
+		zooKeeper = ZookeeperUtil.getZooKeeper(batchState.grabTargetQueue());
+	    } catch  (Exception e ) {
+		e.printStackTrace(System.err);
+	    }
+	}
+	return zooKeeper;
+    }
+
+    /**
+     * Job waiting for creation with a snapshot of its properties
+     */
+    private static class Submission {
+	private final JobState jobState;
+	private final JSONObject properties;
+	private final JSONObject identifiers;
+	private final String failure;		// created as a Failed job when set
+
+	private Submission(JobState jobState, JSONObject properties, JSONObject identifiers, String failure) {
+	    this.jobState = jobState;
+	    this.properties = properties;
+	    this.identifiers = identifiers;
+	    this.failure = failure;
+	}
+    }
    
     public String getName() {
 	return NAME;
@@ -337,9 +488,6 @@ public class HandlerSubmit extends Handler<BatchState>
 	return workerID;
     }
 
-   public static class Ignorer implements Watcher {
-        public void process(WatchedEvent event){}
-   }
 
 
 }
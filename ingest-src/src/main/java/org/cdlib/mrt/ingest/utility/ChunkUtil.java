@@ -0,0 +1,104 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+
+
+/**
+ * Create a chunk of items concurrently, all or none.
+ * When any creation fails, or the wait for them is interrupted, the items that were
+ * created are undone.  This is compensation, not a transaction: should the process
+ * die part way, items created so far remain.
+ */
+public class ChunkUtil {
+    protected static final String NAME = "ChunkUtil";
+    protected static final String MESSAGE = NAME + ": ";
+
+    /**
+     * @param executor runs the creations
+     * @param creations one per item, in chunk order
+     * @param created receives the created items in chunk order, empty on failure
+     * @param undo removes a created item (logs its own errors)
+     * @return -1 if every item was created, otherwise index of the first failed creation
+     * @throws InterruptedException wait interrupted; created items were undone
+     */
+    public static <T> int createAll(ExecutorService executor, List<Callable<T>> creations, List<T> created, Consumer<T> undo)
+        throws InterruptedException
+    {
+        int failed = -1;
+        List<Future<T>> futures = new ArrayList<Future<T>>();
+        try {
+            for (Callable<T> creation : creations) {
+                futures.add(executor.submit(creation));
+            }
+        } catch (RuntimeException re) {
+            System.err.println("[error] " + MESSAGE + "could not start creation: " + re);
+            failed = futures.size();
+        }
+
+        InterruptedException interrupted = null;
+        for (int i = 0; i < futures.size(); i++) {
+            while (true) {
+                try {
+                    created.add(futures.get(i).get());
+                    break;
+                } catch (InterruptedException ie) {
+                    // keep waiting: every item created must be known to be undone
+                    interrupted = ie;
+                } catch (ExecutionException | CancellationException e) {
+                    System.err.println("[error] " + MESSAGE + "creation failed: "
+                        + (e instanceof ExecutionException ? e.getCause() : e));
+                    if (failed < 0 || i < failed) failed = i;
+                    break;
+                }
+            }
+        }
+
+        if (failed >= 0 || interrupted != null) {
+            System.err.println("[error] " + MESSAGE + "undoing " + created.size() + " of " + creations.size() + " creations");
+            for (T item : created) undo.accept(item);
+            created.clear();
+        }
+        if (interrupted != null) {
+            Thread.currentThread().interrupt();
+            throw interrupted;
+        }
+        return failed;
+    }
+}
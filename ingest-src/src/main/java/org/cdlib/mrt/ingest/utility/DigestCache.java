@@ -0,0 +1,284 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.cdlib.mrt.utility.TException;
+
+
+/**
+ * Per-job index of file digests, persisted in the job's system directory
+ * so that Download, Digest and Corroborate hash each file's bytes once.
+ *
+ * Entries are keyed by path relative to the job directory and are only
+ * trusted while the file's size and modification time are unchanged.
+ * Algorithms are Java MessageDigest names (e.g. SHA-256).
+ *
+ * File format, one line per path and algorithm:
+ *   path<tab>size<tab>mtime<tab>algorithm<tab>digest
+ * plus a "#saved<tab>bytes" line carrying the job's cumulative savings.
+ */
+public class DigestCache
+{
+
+    private static final String NAME = "DigestCache";
+    private static final String MESSAGE = NAME + ": ";
+    private static final boolean DEBUG = false;
+
+    public static final String CACHE_FILE = "mrt-digest-cache.txt";
+    public static final String CACHE_PATH = "system/" + CACHE_FILE;
+
+    private final File jobDir;
+    private final String jobPath;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final AtomicLong bytesHashed = new AtomicLong();
+    private final AtomicLong bytesSaved = new AtomicLong();
+    private long previousSaved = 0;
+
+    private DigestCache(File jobDir)
+        throws IOException
+    {
+        this.jobDir = jobDir;
+        this.jobPath = jobDir.getCanonicalPath();
+    }
+
+    /**
+     * Load the digest cache of a job, empty if none has been saved
+     *
+     * @param jobDir job (queue) directory
+     * @return digest cache
+     */
+    public static DigestCache getDigestCache(File jobDir)
+        throws TException
+    {
+        try {
+            DigestCache digestCache = new DigestCache(jobDir);
+            digestCache.load();
+            return digestCache;
+        } catch (IOException ioe) {
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "unable to read digest cache: " + ioe.getMessage());
+        }
+    }
+
+    /**
+     * Cached digest of file, if the file is unchanged since it was recorded
+     *
+     * @param file file within job directory
+     * @param algorithm Java digest algorithm
+     * @return digest (lower case hex), null if not cached or stale
+     */
+    public String getDigest(File file, String algorithm)
+    {
+        String path = getPath(file);
+        if (path == null) return null;
+        Entry entry = entries.get(path);
+        if (entry == null || entry.size != file.length() || entry.mtime != file.lastModified()) return null;
+        return entry.digests.get(algorithm.toUpperCase());
+    }
+
+    /**
+     * Record the digest of a file with its current size and modification time
+     *
+     * @param file file within job directory
+     * @param algorithm Java digest algorithm
+     * @param digest hex digest
+     */
+    public void putDigest(File file, String algorithm, String digest)
+    {
+        String path = getPath(file);
+        if (path == null || digest == null) return;
+        long size = file.length();
+        long mtime = file.lastModified();
+        Entry entry = entries.compute(path, (k, v) ->
+            (v != null && v.size == size && v.mtime == mtime) ? v : new Entry(size, mtime));
+        entry.digests.put(algorithm.toUpperCase(), digest.toLowerCase());
+    }
+
+    /**
+     * Digest of file, from cache when unchanged, otherwise computed and recorded
+     *
+     * @param file file within job directory
+     * @param algorithm Java digest algorithm
+     * @return digest (lower case hex)
+     */
+    public String digest(File file, String algorithm)
+        throws TException
+    {
+        String digest = getDigest(file, algorithm);
+        if (digest != null) {
+            bytesSaved.addAndGet(file.length());
+            return digest;
+        }
+        try {
+            digest = DigestEngine.digest(file, algorithm).get(algorithm.toUpperCase());
+        } catch (IOException e) {
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "unable to digest " + file.getAbsolutePath() + ": " + e.getMessage());
+        }
+        bytesHashed.addAndGet(file.length());
+        putDigest(file, algorithm, digest);
+        return digest;
+    }
+
+    /**
+     * Note bytes hashed outside the cache (e.g. inline while downloading)
+     */
+    public void addBytesHashed(long bytes)
+    {
+        bytesHashed.addAndGet(bytes);
+    }
+
+    /**
+     * Note bytes for which a cached digest was used via getDigest()
+     */
+    public void addBytesSaved(long bytes)
+    {
+        bytesSaved.addAndGet(bytes);
+    }
+
+    /**
+     * @return bytes hashed by this instance
+     */
+    public long getBytesHashed()
+    {
+        return bytesHashed.get();
+    }
+
+    /**
+     * @return bytes served from cache by this instance
+     */
+    public long getBytesSaved()
+    {
+        return bytesSaved.get();
+    }
+
+    /**
+     * @return bytes served from cache across all stages of the job
+     */
+    public long getTotalBytesSaved()
+    {
+        return previousSaved + bytesSaved.get();
+    }
+
+    /**
+     * Persist cache and report savings for the stage
+     *
+     * @param handler handler name, for reporting
+     */
+    public void save(String handler)
+        throws TException
+    {
+        File cacheFile = new File(jobDir, CACHE_PATH);
+        File tmpFile = new File(jobDir, CACHE_PATH + ".tmp");
+        try {
+            cacheFile.getParentFile().mkdirs();
+            try (PrintWriter writer = new PrintWriter(tmpFile, "UTF-8")) {
+                writer.println("#saved\t" + getTotalBytesSaved());
+                for (Map.Entry<String, Entry> mapEntry : entries.entrySet()) {
+                    Entry entry = mapEntry.getValue();
+                    for (Map.Entry<String, String> digest : entry.digests.entrySet()) {
+                        writer.println(mapEntry.getKey() + "\t" + entry.size + "\t" + entry.mtime + "\t"
+                            + digest.getKey() + "\t" + digest.getValue());
+                    }
+                }
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ioe) {
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "unable to write digest cache: " + cacheFile.getAbsolutePath());
+        }
+
+        MetricsUtil.recordDigest(handler, getBytesHashed(), getBytesSaved());
+        System.out.println("[info] " + MESSAGE + handler + " hashed " + getBytesHashed() + " bytes, saved "
+            + getBytesSaved() + " bytes (job total saved: " + getTotalBytesSaved() + "): " + jobDir.getName());
+    }
+
+    private void load()
+        throws IOException
+    {
+        File cacheFile = new File(jobDir, CACHE_PATH);
+        if (! cacheFile.exists()) return;
+        try (BufferedReader reader = Files.newBufferedReader(cacheFile.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.split("\t");
+                try {
+                    if (parts.length == 2 && parts[0].equals("#saved")) {
+                        previousSaved = Long.parseLong(parts[1]);
+                        continue;
+                    }
+                    if (parts.length != 5) continue;
+                    long size = Long.parseLong(parts[1]);
+                    long mtime = Long.parseLong(parts[2]);
+                    Entry entry = entries.computeIfAbsent(parts[0], k -> new Entry(size, mtime));
+                    if (entry.size == size && entry.mtime == mtime) entry.digests.put(parts[3], parts[4]);
+                } catch (NumberFormatException nfe) {
+                    if (DEBUG) System.out.println("[debug] " + MESSAGE + "skipping cache line: " + line);
+                }
+            }
+        }
+    }
+
+    /**
+     * Path relative to job directory, null if outside it
+     */
+    private String getPath(File file)
+    {
+        try {
+            String path = file.getCanonicalPath();
+            if (! path.startsWith(jobPath + File.separator)) return null;
+            return path.substring(jobPath.length() + 1).replace('\\', '/');
+        } catch (IOException ioe) {
+            return null;
+        }
+    }
+
+    private static class Entry
+    {
+        private final long size;
+        private final long mtime;
+        private final Map<String, String> digests = new ConcurrentHashMap<String, String>();
+
+        private Entry(long size, long mtime)
+        {
+            this.size = size;
+            this.mtime = mtime;
+        }
+    }
+}
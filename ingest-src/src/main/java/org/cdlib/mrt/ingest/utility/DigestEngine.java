@@ -0,0 +1,255 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import org.cdlib.mrt.utility.TException;
+
+
+/**
+ * Digest engine
+ * - one read of a file computes every requested algorithm
+ * - files at or above LARGE_FILE are read on the pool, through a FileChannel into the worker's direct buffer
+ * - lists of files are hashed concurrently on a bounded fork-join pool
+ */
+public class DigestEngine
+{
+
+    private static final String NAME = "DigestEngine";
+    private static final String MESSAGE = NAME + ": ";
+    private static final boolean DEBUG = false;
+
+    public static final long LARGE_FILE = 8L * 1024L * 1024L;
+    private static final int BUFSIZE = 64 * 1024;
+    private static final int DIRECT_BUFSIZE = 4 * 1024 * 1024;
+
+    private static int parallelism = Runtime.getRuntime().availableProcessors();
+    private static ForkJoinPool pool = null;
+
+    // Pool thread owning a direct buffer, direct buffers are expensive to allocate.
+    // Only pool threads hold one, so caller threads never pin native memory and
+    // buffers are released when idle workers exit.
+    private static final class DigestWorker extends ForkJoinWorkerThread
+    {
+        private ByteBuffer buffer = null;
+
+        private DigestWorker(ForkJoinPool forkJoinPool)
+        {
+            super(forkJoinPool);
+        }
+
+        private ByteBuffer getBuffer()
+        {
+            if (buffer == null) buffer = ByteBuffer.allocateDirect(DIRECT_BUFSIZE);
+            return buffer;
+        }
+    }
+
+    /**
+     * Set the number of files hashed concurrently (takes effect on first use)
+     *
+     * @param threads pool size
+     */
+    public static synchronized void setParallelism(int threads)
+    {
+        if (threads < 1 || pool != null) return;
+        parallelism = threads;
+    }
+
+    private static synchronized ForkJoinPool getPool()
+    {
+        if (pool == null) {
+            System.out.println("[info] " + MESSAGE + "Digest pool size: " + parallelism);
+            pool = new ForkJoinPool(parallelism, DigestWorker::new, null, false);
+        }
+        return pool;
+    }
+
+    /**
+     * Digest a file with one or more algorithms in a single read
+     *
+     * @param file file to digest
+     * @param algorithms Java digest algorithms
+     * @return digests (lower case hex) keyed by upper case algorithm
+     */
+    public static Map<String, String> digest(File file, String... algorithms)
+        throws IOException
+    {
+        MessageDigest[] messageDigests = getMessageDigests(algorithms);
+
+        if (file.length() >= LARGE_FILE) {
+            if (! (Thread.currentThread() instanceof DigestWorker)) return digestOnPool(file, algorithms);
+            ByteBuffer buffer = ((DigestWorker) Thread.currentThread()).getBuffer();
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+                buffer.clear();
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    for (MessageDigest messageDigest : messageDigests) {
+                        buffer.mark();
+                        messageDigest.update(buffer);
+                        buffer.reset();
+                    }
+                    buffer.clear();
+                }
+            }
+        } else {
+            byte[] buffer = new byte[BUFSIZE];
+            try (InputStream in = new FileInputStream(file)) {
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    for (MessageDigest messageDigest : messageDigests) {
+                        messageDigest.update(buffer, 0, len);
+                    }
+                }
+            }
+        }
+
+        return getDigests(algorithms, messageDigests);
+    }
+
+    // Large file from a caller thread, hash it on a pool worker
+    private static Map<String, String> digestOnPool(File file, String... algorithms)
+        throws IOException
+    {
+        try {
+            return getPool().submit(() -> digest(file, algorithms)).get();
+        } catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) throw (IOException) ee.getCause();
+            throw new IOException(MESSAGE + "unable to digest: " + file.getAbsolutePath(), ee.getCause());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(MESSAGE + "interrupted: " + file.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Copy a stream to a file, computing digests of the bytes as they are written
+     * (e.g. container members during extraction), so the file need not be read again
+     *
+     * @param in source, not closed
+     * @param file target file, replaced
+     * @param buffer copy buffer
+     * @param algorithms Java digest algorithms
+     * @return digests (lower case hex) keyed by upper case algorithm
+     */
+    public static Map<String, String> copy(InputStream in, File file, byte[] buffer, String... algorithms)
+        throws IOException
+    {
+        MessageDigest[] messageDigests = getMessageDigests(algorithms);
+        try (OutputStream out = new FileOutputStream(file)) {
+            int len;
+            while ((len = in.read(buffer)) != -1) {
+                out.write(buffer, 0, len);
+                for (MessageDigest messageDigest : messageDigests) {
+                    messageDigest.update(buffer, 0, len);
+                }
+            }
+        }
+        return getDigests(algorithms, messageDigests);
+    }
+
+    private static MessageDigest[] getMessageDigests(String... algorithms)
+        throws IOException
+    {
+        MessageDigest[] messageDigests = new MessageDigest[algorithms.length];
+        for (int i = 0; i < algorithms.length; i++) {
+            try {
+                messageDigests[i] = MessageDigest.getInstance(algorithms[i]);
+            } catch (NoSuchAlgorithmException nsae) {
+                throw new IOException(MESSAGE + "digest algorithm not supported: " + algorithms[i]);
+            }
+        }
+        return messageDigests;
+    }
+
+    private static Map<String, String> getDigests(String[] algorithms, MessageDigest[] messageDigests)
+    {
+        Map<String, String> digests = new LinkedHashMap<String, String>();
+        for (int i = 0; i < algorithms.length; i++) {
+            digests.put(algorithms[i].toUpperCase(), HexFormat.of().formatHex(messageDigests[i].digest()));
+        }
+        return digests;
+    }
+
+    /**
+     * Digest files concurrently, recording results in the job digest cache
+     *
+     * @param files files within the job directory
+     * @param digestCache job digest cache
+     * @param algorithms Java digest algorithms
+     */
+    public static void digest(List<File> files, DigestCache digestCache, String... algorithms)
+        throws TException
+    {
+        if (files.isEmpty()) return;
+        long startTime = System.currentTimeMillis();
+        try {
+            getPool().submit(() -> files.parallelStream().forEach(file -> {
+                try {
+                    Map<String, String> digests = digest(file, algorithms);
+                    for (Map.Entry<String, String> entry : digests.entrySet()) {
+                        digestCache.putDigest(file, entry.getKey(), entry.getValue());
+                    }
+                    digestCache.addBytesHashed(file.length());
+                } catch (IOException ioe) {
+                    throw new UncheckedIOException(file.getAbsolutePath() + ": " + ioe.getMessage(), ioe);
+                }
+            })).get();
+        } catch (ExecutionException ee) {
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "unable to digest: " + ee.getCause().getMessage());
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new TException.GENERAL_EXCEPTION(MESSAGE + "interrupted");
+        }
+        if (DEBUG) System.out.println("[debug] " + MESSAGE + "digested " + files.size() + " files in "
+            + (System.currentTimeMillis() - startTime) + " ms");
+    }
+}
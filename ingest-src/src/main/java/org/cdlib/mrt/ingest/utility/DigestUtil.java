@@ -92,4 +92,39 @@ public class DigestUtil
             throw new TException.INVALID_DATA_FORMAT(msg + " ]");
         }
     }
+
+    /**
+     * Run fixity on this file using the job's digest cache
+     * A digest recorded when the file was written (e.g. on retrieval) is reused;
+     * algorithms without a Java MessageDigest fall back to reading the file
+     * @param componentFile file to be tested
+     * @param fileState state information for file including declared digest
+     * @param digestCache job digest cache
+     * @throws Exception
+     */
+    public void doFileFixity(
+            File componentFile,
+            FileComponent fileState,
+            DigestCache digestCache)
+        throws Exception
+    {
+        MessageDigest messageDigest = fileState.getMessageDigest();
+        String algorithm = messageDigest.getAlgorithm().getJavaAlgorithm();
+        try {
+            java.security.MessageDigest.getInstance(algorithm);
+        } catch (java.security.NoSuchAlgorithmException nsae) {
+            doFileFixity(componentFile, fileState);
+            return;
+        }
+        String computed = digestCache.digest(componentFile, algorithm);
+        String checksum = messageDigest.getValue();
+        if (! computed.equalsIgnoreCase(checksum)) {
+            String msg = MESSAGE + "Fixity check fails: " + componentFile.getName();
+            System.out.println("[ERROR] Checksum error:" + NL
+                    + " - File checksum=" + computed + NL
+                    + " - In   checksum=" + checksum + NL
+                    + " - File algorithm=" + algorithm + NL);
+            throw new TException.INVALID_DATA_FORMAT(msg + " ]");
+        }
+    }
 }
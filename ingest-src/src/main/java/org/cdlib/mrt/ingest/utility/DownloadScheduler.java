@@ -0,0 +1,281 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+
+/**
+ * Process-wide download scheduler
+ * - a fixed set of download threads is shared by all jobs (global limit)
+ * - no more than a set number of downloads run against any one host
+ * - jobs are served round robin, and within a job its hosts are, so a large
+ *   manifest or a slow origin cannot starve other jobs
+ */
+public class DownloadScheduler
+{
+
+    private static final String NAME = "DownloadScheduler";
+    private static final String MESSAGE = NAME + ": ";
+    private static final boolean DEBUG = false;
+
+    public static final int DEFAULT_THREADS = 16;
+    public static final int DEFAULT_THREADS_PER_HOST = 4;
+
+    private static int numThreads = DEFAULT_THREADS;
+    private static int numThreadsPerHost = DEFAULT_THREADS_PER_HOST;
+    private static DownloadScheduler scheduler = null;
+
+    private final int threadsPerHost;
+    // jobs with queued downloads, in service order
+    private final Deque<JobQueue> jobs = new ArrayDeque<JobQueue>();
+    private final Map<String, JobQueue> jobMap = new HashMap<String, JobQueue>();
+    private final Map<String, Integer> hostActive = new HashMap<String, Integer>();
+    // dispatched downloads by job, so cancel() reaches them once they leave the queue
+    private final Map<String, Set<Task<?>>> running = new HashMap<String, Set<Task<?>>>();
+    private int active = 0;
+    private int queued = 0;
+
+    /**
+     * Set scheduler size (takes effect on first use)
+     *
+     * @param threads concurrent downloads across all jobs
+     * @param threadsPerHost concurrent downloads from one host
+     */
+    public static synchronized void configure(int threads, int threadsPerHost)
+    {
+        if (scheduler != null) return;
+        if (threads > 0) numThreads = threads;
+        if (threadsPerHost > 0) numThreadsPerHost = threadsPerHost;
+    }
+
+    public static synchronized DownloadScheduler getScheduler()
+    {
+        if (scheduler == null) {
+            System.out.println("[info] " + MESSAGE + "Download threads: " + numThreads + " per host: " + numThreadsPerHost);
+            scheduler = new DownloadScheduler(numThreads, numThreadsPerHost);
+        }
+        return scheduler;
+    }
+
+    /**
+     * Separate scheduler (tests), the service shares getScheduler()
+     *
+     * @param threads concurrent downloads across all jobs
+     * @param threadsPerHost concurrent downloads from one host
+     */
+    public DownloadScheduler(int threads, int threadsPerHost)
+    {
+        this.threadsPerHost = threadsPerHost;
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(this::work, "download-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Queue a download
+     *
+     * @param jobID job the download belongs to (unit of fairness)
+     * @param host origin host (unit of connection cap)
+     * @param task download
+     * @param completed receives the future when the task completes or is cancelled
+     * @return future of task
+     */
+    public <T> Future<T> submit(String jobID, String host, Callable<T> task, BlockingQueue<Future<T>> completed)
+    {
+        Task<T> future = new Task<T>(jobID, (host == null ? "" : host.toLowerCase()), task, completed);
+        synchronized (this) {
+            JobQueue jobQueue = jobMap.get(jobID);
+            if (jobQueue == null) {
+                jobQueue = new JobQueue(jobID);
+                jobMap.put(jobID, jobQueue);
+                jobs.addLast(jobQueue);
+            }
+            jobQueue.hosts.computeIfAbsent(future.host, k -> new ArrayDeque<Task<?>>()).addLast(future);
+            queued++;
+            notifyAll();
+        }
+        return future;
+    }
+
+    /**
+     * Drop queued downloads of a job and interrupt its running ones
+     *
+     * @param jobID job
+     */
+    public void cancel(String jobID)
+    {
+        List<Task<?>> cancelled = new ArrayList<Task<?>>();
+        synchronized (this) {
+            JobQueue jobQueue = jobMap.remove(jobID);
+            if (jobQueue != null) {
+                jobs.remove(jobQueue);
+                for (Deque<Task<?>> tasks : jobQueue.hosts.values()) {
+                    queued -= tasks.size();
+                    cancelled.addAll(tasks);
+                }
+            }
+            Set<Task<?>> dispatched = running.get(jobID);
+            if (dispatched != null) cancelled.addAll(dispatched);
+        }
+        // a running task keeps its slots until its thread returns
+        for (Task<?> task : cancelled) task.cancel(true);
+    }
+
+    public synchronized int getActive()
+    {
+        return active;
+    }
+
+    public synchronized int getQueued()
+    {
+        return queued;
+    }
+
+    private void work()
+    {
+        while (true) {
+            Task<?> task = null;
+            try {
+                task = take();
+                task.run();
+            } catch (InterruptedException ie) {
+                // task cancelled while running, keep worker alive
+            } finally {
+                if (task != null) release(task);
+                Thread.interrupted();
+            }
+        }
+    }
+
+    /**
+     * Next task: first job in round robin order with a host below its cap
+     */
+    private synchronized Task<?> take()
+        throws InterruptedException
+    {
+        while (true) {
+            boolean dispatched = false;
+            Iterator<JobQueue> jobIterator = jobs.iterator();
+            while (jobIterator.hasNext()) {
+                JobQueue jobQueue = jobIterator.next();
+                String host = null;
+                for (String candidate : jobQueue.hosts.keySet()) {
+                    if (hostActive.getOrDefault(candidate, 0) < threadsPerHost) {
+                        host = candidate;
+                        break;
+                    }
+                }
+                if (host == null) continue;
+
+                Deque<Task<?>> tasks = jobQueue.hosts.remove(host);
+                Task<?> task = tasks.pollFirst();
+                if (! tasks.isEmpty()) jobQueue.hosts.put(host, tasks);	// host to back of job's rotation
+                jobIterator.remove();
+                if (jobQueue.hosts.isEmpty()) {
+                    jobMap.remove(jobQueue.jobID);
+                } else {
+                    jobs.addLast(jobQueue);					// job to back of rotation
+                }
+                queued--;
+                dispatched = true;
+                if (task.isCancelled()) break;					// rescan
+
+                hostActive.merge(host, 1, Integer::sum);
+                running.computeIfAbsent(task.jobID, k -> new HashSet<Task<?>>()).add(task);
+                active++;
+                if (DEBUG) System.out.println("[debug] " + MESSAGE + "start " + task.jobID + " " + host);
+                return task;
+            }
+            if (! dispatched) wait();
+        }
+    }
+
+    private synchronized void release(Task<?> task)
+    {
+        active--;
+        hostActive.merge(task.host, -1, Integer::sum);
+        if (hostActive.get(task.host) <= 0) hostActive.remove(task.host);
+        Set<Task<?>> dispatched = running.get(task.jobID);
+        if (dispatched != null) {
+            dispatched.remove(task);
+            if (dispatched.isEmpty()) running.remove(task.jobID);
+        }
+        notifyAll();
+    }
+
+    private static class JobQueue
+    {
+        private final String jobID;
+        private final LinkedHashMap<String, Deque<Task<?>>> hosts = new LinkedHashMap<String, Deque<Task<?>>>();
+
+        private JobQueue(String jobID)
+        {
+            this.jobID = jobID;
+        }
+    }
+
+    private static class Task<T> extends FutureTask<T>
+    {
+        private final String jobID;
+        private final String host;
+        private final BlockingQueue<Future<T>> completed;
+
+        private Task(String jobID, String host, Callable<T> callable, BlockingQueue<Future<T>> completed)
+        {
+            super(callable);
+            this.jobID = jobID;
+            this.host = host;
+            this.completed = completed;
+        }
+
+        @Override
+        protected void done()
+        {
+            if (completed != null) completed.add(this);
+        }
+    }
+}
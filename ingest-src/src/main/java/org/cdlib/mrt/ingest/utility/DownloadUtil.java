@@ -0,0 +1,553 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Retrieve remote content to a file, computing size and digest as the bytes arrive
+ * so that fixity can be checked without a second read of the file.
+ *
+ * Interrupted transfers are resumed with a ranged request (validated by ETag or
+ * Last-Modified) after an exponential backoff.  Digest state covers exactly the
+ * bytes on disk, so a resumed transfer does not re-read the prefix.
+ *
+ * Files at or above the chunk threshold, from origins that accept byte ranges,
+ * are fetched as parallel ranges written in place into a preallocated file and
+ * digested afterwards in one sequential pass.
+ */
+public class DownloadUtil {
+    protected static final String NAME = "DownloadUtil";
+    protected static final String MESSAGE = NAME + ": ";
+    protected static final int BUFSIZE = 1024 * 1024;
+    protected static final int MAX_REDIRECTS = 5;
+    public static final int DEFAULT_ATTEMPTS = 5;
+    protected static final long BACKOFF_MS = 1000L;
+    protected static final long MAX_BACKOFF_MS = 60L * 1000L;
+    public static final long DEFAULT_CHUNK_THRESHOLD = 1024L * 1024L * 1024L;
+    public static final long DEFAULT_CHUNK_SIZE = 64L * 1024L * 1024L;
+    public static final int DEFAULT_CHUNK_THREADS = 4;
+
+    private static long chunkThreshold = DEFAULT_CHUNK_THRESHOLD;
+    private static long chunkSize = DEFAULT_CHUNK_SIZE;
+    private static int chunkThreads = DEFAULT_CHUNK_THREADS;
+    private static ExecutorService chunkExecutor = null;
+
+    /**
+     * Configure parallel chunked retrieval, effective before first chunked retrieval
+     * @param threshold minimum file size for chunked retrieval, 0 disables
+     * @param size range size
+     * @param threads concurrent range requests (shared by all retrievals)
+     */
+    public static synchronized void setChunking(long threshold, long size, int threads) {
+        if (size <= 0 || threads <= 0) return;
+        chunkThreshold = threshold;
+        chunkSize = size;
+        chunkThreads = threads;
+    }
+
+    protected static synchronized ExecutorService getChunkExecutor() {
+        if (chunkExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            chunkExecutor = Executors.newFixedThreadPool(chunkThreads, runnable -> {
+                Thread thread = new Thread(runnable, "download-chunk-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return chunkExecutor;
+    }
+
+    /**
+     * Retrieve URL content into file, resuming up to DEFAULT_ATTEMPTS times
+     * @see #url2File(URL, File, int, int, String...)
+     */
+    public static Result url2File(URL url, File file, int timeout, String... algorithms)
+        throws IOException
+    {
+        return url2File(url, file, timeout, DEFAULT_ATTEMPTS, algorithms);
+    }
+
+    /**
+     * Retrieve URL content into file
+     * @param url source of content (http, https or file)
+     * @param file target file, overwritten
+     * @param timeout connect and read timeout in minutes
+     * @param attempts maximum number of transfer attempts
+     * @param algorithms Java digest algorithms (e.g. SHA-256) to compute inline,
+     *        null or unsupported (e.g. Adler-32) are skipped
+     * @return size and digests of retrieved content
+     */
+    public static Result url2File(URL url, File file, int timeout, int attempts, String... algorithms)
+        throws IOException
+    {
+        Map<String, MessageDigest> messageDigests = new LinkedHashMap<String, MessageDigest>();
+        for (String algorithm : algorithms) {
+            MessageDigest messageDigest = getMessageDigest(algorithm);
+            if (messageDigest != null) messageDigests.put(algorithm.toUpperCase(), messageDigest);
+        }
+        Transfer transfer = new Transfer(url, file, timeout * 60 * 1000, messageDigests);
+        transfer.chunkThreshold = chunkThreshold;
+        runTransfer(transfer, attempts);
+
+        if (transfer.chunkable) {
+            Result result = chunkedUrl2File(transfer, attempts, messageDigests.keySet());
+            if (result != null) return result;
+
+            // source changed between ranges, fall back to a single stream
+            transfer.chunkThreshold = 0;
+            runTransfer(transfer, attempts);
+        }
+
+        Map<String, String> digests = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, MessageDigest> entry : messageDigests.entrySet()) {
+            digests.put(entry.getKey(), HexFormat.of().formatHex(entry.getValue().digest()));
+        }
+        return new Result(transfer.offset, digests, transfer.attempts);
+    }
+
+    /**
+     * Run transfer until complete, resuming after a backoff
+     */
+    protected static void runTransfer(Transfer transfer, int attempts)
+        throws IOException
+    {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                transfer.run();
+                break;
+            } catch (IOException ioe) {
+                if (attempt >= attempts || ! isRetriable(ioe)) throw ioe;
+                System.out.println("[warn] " + MESSAGE + "attempt " + attempt + " failed for " + transfer.url
+                    + " at byte " + transfer.offset + ": " + ioe.getMessage());
+                backoff(attempt, transfer.url);
+            }
+        }
+    }
+
+    /**
+     * Sleep before the next attempt, doubling with each attempt
+     */
+    protected static void backoff(int attempt, URL url)
+        throws InterruptedIOException
+    {
+        long backoff = Math.min(MAX_BACKOFF_MS, BACKOFF_MS << Math.min(attempt - 1, 16));
+        System.out.println("[info] " + MESSAGE + "retrying " + url + " in " + backoff + " ms");
+        try {
+            Thread.sleep(backoff);
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(MESSAGE + "interrupted retrieving " + url);
+        }
+    }
+
+    /**
+     * Retrieve content as parallel ranges into a preallocated file, then digest
+     * it in a single sequential pass (MD5 and the SHA family cannot be combined
+     * from per-range digests)
+     *
+     * @return size and digests, null if the source changed during retrieval
+     */
+    protected static Result chunkedUrl2File(Transfer transfer, int attempts, Set<String> algorithms)
+        throws IOException
+    {
+        URL url = transfer.url;
+        long total = transfer.total;
+        String validator = transfer.getValidator();
+        long size = chunkSize;
+        System.out.println("[info] " + MESSAGE + "chunked retrieval of " + url + ": " + total + " bytes in "
+            + ((total + size - 1) / size) + " ranges of " + size);
+
+        AtomicInteger connections = new AtomicInteger();
+        List<Future<Boolean>> futures = new ArrayList<Future<Boolean>>();
+        try (RandomAccessFile randomAccessFile = new RandomAccessFile(transfer.file, "rw")) {
+            randomAccessFile.setLength(total);
+            FileChannel channel = randomAccessFile.getChannel();
+            ExecutorService executor = getChunkExecutor();
+            for (long start = 0; start < total; start += size) {
+                final long first = start;
+                final long last = Math.min(start + size, total) - 1;
+                futures.add(executor.submit(() ->
+                    fetchRange(url, channel, first, last, validator, transfer.timeoutMs, attempts, connections)));
+            }
+            for (Future<Boolean> future : futures) {
+                if (! future.get()) {
+                    System.out.println("[warn] " + MESSAGE + "source changed during chunked retrieval: " + url);
+                    return null;
+                }
+            }
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException(MESSAGE + "interrupted retrieving " + url);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            throw new IOException(MESSAGE + "chunked retrieval of " + url + " failed: " + cause, cause);
+        } finally {
+            for (Future<Boolean> future : futures) future.cancel(true);
+        }
+
+        Map<String, String> digests = algorithms.isEmpty() ? new LinkedHashMap<String, String>()
+            : DigestEngine.digest(transfer.file, algorithms.toArray(new String[0]));
+        return new Result(total, digests, transfer.attempts + connections.get());
+    }
+
+    /**
+     * Fetch bytes first..last (inclusive) into the channel at the same position,
+     * resuming within the range after a failure
+     *
+     * @return false if the origin no longer matches the validator
+     */
+    protected static boolean fetchRange(URL url, FileChannel channel, long first, long last, String validator,
+        int timeoutMs, int attempts, AtomicInteger connections)
+        throws IOException
+    {
+        long position = first;
+        byte[] buffer = new byte[BUFSIZE];
+        for (int attempt = 1; ; attempt++) {
+            connections.incrementAndGet();
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            headers.put("Range", "bytes=" + position + "-" + last);
+            headers.put("If-Range", validator);
+            try {
+                HttpURLConnection connection = (HttpURLConnection) openConnection(url, timeoutMs, headers);
+                if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+                        || rangeStart(connection.getHeaderField("Content-Range")) != position) {
+                    connection.disconnect();
+                    return false;
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    int len;
+                    while (position <= last && (len = in.read(buffer, 0, (int) Math.min(buffer.length, last - position + 1))) != -1) {
+                        ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+                        while (byteBuffer.hasRemaining()) {
+                            position += channel.write(byteBuffer, position);
+                        }
+                    }
+                }
+                if (position <= last) {
+                    throw new IOException(MESSAGE + "truncated range of " + url + ": expected byte " + (last + 1) + ", received " + position);
+                }
+                return true;
+            } catch (IOException ioe) {
+                if (attempt >= attempts || ! isRetriable(ioe)) throw ioe;
+                System.out.println("[warn] " + MESSAGE + "range " + first + "-" + last + " attempt " + attempt
+                    + " failed for " + url + " at byte " + position + ": " + ioe.getMessage());
+                backoff(attempt, url);
+            }
+        }
+    }
+
+    /**
+     * Client errors (other than timeout and throttling) will not succeed on retry
+     */
+    protected static boolean isRetriable(IOException ioe) {
+        if (ioe instanceof InterruptedIOException && ! (ioe instanceof SocketTimeoutException)) return false;
+        if (ioe instanceof HttpStatusException) {
+            int status = ((HttpStatusException) ioe).getStatus();
+            return status >= 500 || status == 408 || status == 429;
+        }
+        return true;
+    }
+
+    /**
+     * One file retrieval, possibly spanning several connections.  The file and
+     * digests always agree on the first offset bytes of content.
+     */
+    protected static class Transfer {
+        private final URL url;
+        private final File file;
+        private final int timeoutMs;
+        private final Map<String, MessageDigest> messageDigests;
+        private long offset = 0;
+        private long total = -1;
+        private String etag = null;
+        private String lastModified = null;
+        private int attempts = 0;
+        private long chunkThreshold = 0;
+        private boolean chunkable = false;
+
+        protected Transfer(URL url, File file, int timeoutMs, Map<String, MessageDigest> messageDigests) {
+            this.url = url;
+            this.file = file;
+            this.timeoutMs = timeoutMs;
+            this.messageDigests = messageDigests;
+        }
+
+        protected void run()
+            throws IOException
+        {
+            attempts++;
+            chunkable = false;
+            String validator = getValidator();
+            boolean resume = offset > 0 && validator != null;
+            Map<String, String> headers = new LinkedHashMap<String, String>();
+            if (resume) {
+                headers.put("Range", "bytes=" + offset + "-");
+                headers.put("If-Range", validator);
+            }
+            URLConnection connection = null;
+            try {
+                connection = openConnection(url, timeoutMs, headers);
+            } catch (HttpStatusException hse) {
+                if (! resume || hse.getStatus() != 416) throw hse;
+                // range no longer satisfiable, next attempt starts over
+                reset();
+                throw new IOException(MESSAGE + "range not satisfiable resuming " + url);
+            }
+
+            boolean partial = resume && connection instanceof HttpURLConnection
+                && ((HttpURLConnection) connection).getResponseCode() == HttpURLConnection.HTTP_PARTIAL;
+            if (partial) {
+                String contentRange = connection.getHeaderField("Content-Range");
+                String currentETag = connection.getHeaderField("ETag");
+                if (rangeStart(contentRange) != offset || (etag != null && currentETag != null && ! etag.equals(currentETag))) {
+                    // range does not continue our content, next attempt starts over
+                    ((HttpURLConnection) connection).disconnect();
+                    reset();
+                    throw new IOException(MESSAGE + "unexpected range " + contentRange + " resuming " + url);
+                }
+                total = rangeTotal(contentRange, total);
+                System.out.println("[info] " + MESSAGE + "resuming " + url + " at byte " + offset);
+            } else {
+                // full content: first attempt, no validator, or source changed / ignored the range
+                if (offset > 0) {
+                    System.out.println("[warn] " + MESSAGE + "unable to resume " + url + " at byte " + offset + " - restarting");
+                }
+                reset();
+                total = connection.getContentLengthLong();
+                etag = connection.getHeaderField("ETag");
+                lastModified = connection.getHeaderField("Last-Modified");
+
+                if (chunkThreshold > 0 && total >= chunkThreshold && getValidator() != null
+                        && connection instanceof HttpURLConnection
+                        && "bytes".equalsIgnoreCase(connection.getHeaderField("Accept-Ranges"))) {
+                    // large file from a range capable origin, retrieved in parallel ranges instead
+                    ((HttpURLConnection) connection).disconnect();
+                    chunkable = true;
+                    return;
+                }
+            }
+
+            try (InputStream in = connection.getInputStream();
+                 FileChannel out = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+                out.truncate(offset);
+                out.position(offset);
+                byte[] buffer = new byte[BUFSIZE];
+                int len;
+                while ((len = in.read(buffer)) != -1) {
+                    ByteBuffer byteBuffer = ByteBuffer.wrap(buffer, 0, len);
+                    while (byteBuffer.hasRemaining()) out.write(byteBuffer);
+                    for (MessageDigest messageDigest : messageDigests.values()) {
+                        messageDigest.update(buffer, 0, len);
+                    }
+                    offset += len;
+                }
+            }
+
+            if (total >= 0 && total != offset) {
+                throw new IOException(MESSAGE + "truncated retrieval of " + url + ": expected "
+                    + total + " bytes, received " + offset);
+            }
+        }
+
+        private void reset() {
+            offset = 0;
+            total = -1;
+            etag = null;
+            lastModified = null;
+            for (MessageDigest messageDigest : messageDigests.values()) messageDigest.reset();
+        }
+
+        /**
+         * Strong ETag preferred, weak ETags may not be used with If-Range
+         */
+        private String getValidator() {
+            if (etag != null && ! etag.startsWith("W/")) return etag;
+            return lastModified;
+        }
+    }
+
+    /**
+     * First byte position of a Content-Range header (bytes first-last/total), -1 if not parsable
+     */
+    protected static long rangeStart(String contentRange) {
+        try {
+            String range = contentRange.trim().substring("bytes".length()).trim();
+            return Long.parseLong(range.substring(0, range.indexOf('-')).trim());
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Complete length of a Content-Range header, defaultTotal if unknown
+     */
+    protected static long rangeTotal(String contentRange, long defaultTotal) {
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.indexOf('/') + 1).trim());
+        } catch (Exception e) {
+            return defaultTotal;
+        }
+    }
+
+    /**
+     * Digest for algorithm, null if not a Java MessageDigest algorithm
+     */
+    protected static MessageDigest getMessageDigest(String algorithm) {
+        if (algorithm == null) return null;
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException nsae) {
+            System.out.println("[info] " + MESSAGE + "digest not computed inline: " + algorithm);
+            return null;
+        }
+    }
+
+    /**
+     * Open connection, following redirects across protocols (http to https)
+     */
+    protected static URLConnection openConnection(URL url, int timeoutMs, Map<String, String> headers)
+        throws IOException
+    {
+        for (int i = 0; i <= MAX_REDIRECTS; i++) {
+            URLConnection connection = url.openConnection();
+            connection.setConnectTimeout(timeoutMs);
+            connection.setReadTimeout(timeoutMs);
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                connection.setRequestProperty(header.getKey(), header.getValue());
+            }
+            if (! (connection instanceof HttpURLConnection)) return connection;
+
+            HttpURLConnection http = (HttpURLConnection) connection;
+            http.setInstanceFollowRedirects(false);
+            int code = http.getResponseCode();
+            if (code >= 300 && code < 400 && http.getHeaderField("Location") != null) {
+                url = new URL(url, http.getHeaderField("Location"));
+                http.disconnect();
+                continue;
+            }
+            if (code >= 400) {
+                http.disconnect();
+                throw new HttpStatusException(code, MESSAGE + "HTTP " + code + " retrieving " + url);
+            }
+            return http;
+        }
+        throw new IOException(MESSAGE + "too many redirects: " + url);
+    }
+
+    /**
+     * HTTP error response
+     */
+    public static class HttpStatusException extends IOException {
+        private final int status;
+
+        public HttpStatusException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+        public int getStatus() {
+            return status;
+        }
+    }
+
+    /**
+     * Size and digests of a retrieved file
+     */
+    public static class Result {
+        private final long size;
+        private final Map<String, String> digests;
+        private final int attempts;
+
+        public Result(long size, Map<String, String> digests) {
+            this(size, digests, 1);
+        }
+
+        public Result(long size, Map<String, String> digests, int attempts) {
+            this.size = size;
+            this.digests = digests;
+            this.attempts = attempts;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        /**
+         * @return number of connections used, more than one if resumed or restarted
+         */
+        public int getAttempts() {
+            return attempts;
+        }
+
+        /**
+         * @return digests (lower case hex) keyed by upper case Java algorithm
+         */
+        public Map<String, String> getDigests() {
+            return digests;
+        }
+
+        /**
+         * @param algorithm Java digest algorithm
+         * @return lower case hex digest, null if not computed
+         */
+        public String getDigest(String algorithm) {
+            if (algorithm == null) return null;
+            return digests.get(algorithm.toUpperCase());
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+
+
+/**
+ * Process-wide pooled HTTP client for requests to submitter hosts
+ * Keep-alive connections are reused across jobs; connections per host are capped
+ * so a large manifest cannot monopolize (or overwhelm) a single server.
+ */
+public class HttpClientPool
+{
+
+    private static final String NAME = "HttpClientPool";
+    private static final String MESSAGE = NAME + ": ";
+
+    public static final int MAX_TOTAL = 200;
+    public static final int MAX_PER_HOST = 10;
+    public static final int CONNECT_TIMEOUT = 60 * 1000;		// msec
+    public static final int SOCKET_TIMEOUT = 5 * 60 * 1000;		// msec
+    public static final int IDLE_TIMEOUT = 60;				// seconds
+
+    private static int maxTotal = MAX_TOTAL;
+    private static int maxPerHost = MAX_PER_HOST;
+    private static PoolingHttpClientConnectionManager connectionManager = null;
+    private static CloseableHttpClient httpClient = null;
+
+    /**
+     * Set pool limits (takes effect on first use)
+     *
+     * @param total connections across all hosts
+     * @param perHost connections to any one host
+     */
+    public static synchronized void setLimits(int total, int perHost)
+    {
+        if (httpClient != null) return;
+        if (total > 0) maxTotal = total;
+        if (perHost > 0) maxPerHost = perHost;
+    }
+
+    /**
+     * Shared client; do not close
+     *
+     * @return pooled HTTP client
+     */
+    public static synchronized CloseableHttpClient getHttpClient()
+    {
+        if (httpClient == null) {
+            System.out.println("[info] " + MESSAGE + "HTTP connection pool - total: " + maxTotal + " per host: " + maxPerHost);
+            connectionManager = new PoolingHttpClientConnectionManager(IDLE_TIMEOUT, TimeUnit.SECONDS);
+            connectionManager.setMaxTotal(maxTotal);
+            connectionManager.setDefaultMaxPerRoute(maxPerHost);
+            connectionManager.setValidateAfterInactivity(5 * 1000);
+
+            RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT)
+                .setConnectionRequestTimeout(SOCKET_TIMEOUT)
+                .setSocketTimeout(SOCKET_TIMEOUT)
+                .build();
+            httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .evictIdleConnections(IDLE_TIMEOUT, TimeUnit.SECONDS)
+                .build();
+        }
+        return httpClient;
+    }
+}
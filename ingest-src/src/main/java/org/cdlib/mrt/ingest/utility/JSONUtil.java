@@ -187,6 +187,10 @@ public class JSONUtil
 	         ingestRequest.setRetainTargetURL(false);
 	   }
 	} catch (Exception e) { }
+	if (! jp.isNull("uploadDigest"))
+	   ingestRequest.getJob().setUploadDigest(jp.getString("uploadDigest"));
+	if (! jp.isNull("uploadDigestFile"))
+	   ingestRequest.getJob().setUploadDigestFile(jp.getString("uploadDigestFile"));
 
 
 	// process Dublin Core (optional)
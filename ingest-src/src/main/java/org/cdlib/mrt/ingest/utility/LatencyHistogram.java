@@ -0,0 +1,137 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+package org.cdlib.mrt.ingest.utility;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+
+/**
+ * Fixed-bucket latency histogram.
+ * Buckets follow a 1-2-5 log-linear series from 1 ms to about 14 hours,
+ * giving a constant relative error as in HDR histograms while allowing
+ * export in Prometheus histogram format.  Recording is lock free.
+ */
+public class LatencyHistogram
+{
+
+    // Upper bucket bounds (milliseconds)
+    private static final long[] BOUNDS = buildBounds();
+
+    private final AtomicLongArray counts = new AtomicLongArray(BOUNDS.length + 1);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+
+    private static long[] buildBounds()
+    {
+        long[] steps = {1, 2, 5};
+        long[] bounds = new long[24];
+        long scale = 1;
+        for (int i = 0; i < bounds.length; i++) {
+            bounds[i] = steps[i % 3] * scale;
+            if (i % 3 == 2) scale *= 10;
+        }
+        return bounds;
+    }
+
+    /**
+     * Record a duration
+     * @param millis elapsed time (milliseconds)
+     */
+    public void record(long millis)
+    {
+        if (millis < 0) millis = 0;
+        int i = 0;
+        while (i < BOUNDS.length && millis > BOUNDS[i]) i++;
+        counts.incrementAndGet(i);
+        count.incrementAndGet();
+        sum.addAndGet(millis);
+        long m = max.get();
+        while (millis > m && ! max.compareAndSet(m, millis)) m = max.get();
+    }
+
+    public long getCount()
+    {
+        return count.get();
+    }
+
+    public long getSum()
+    {
+        return sum.get();
+    }
+
+    public long getMax()
+    {
+        return max.get();
+    }
+
+    /**
+     * Estimate a percentile from the bucket counts
+     * @param percentile 0.0 - 100.0
+     * @return upper bound of the bucket holding the percentile (milliseconds)
+     */
+    public long getPercentile(double percentile)
+    {
+        long total = count.get();
+        if (total == 0) return 0;
+        long target = (long) Math.ceil(total * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            seen += counts.get(i);
+            if (seen >= target) return BOUNDS[i];
+        }
+        return max.get();
+    }
+
+    /**
+     * Append Prometheus histogram samples, values in seconds
+     * @param out buffer to append to
+     * @param name metric name
+     * @param labels label set without braces (name="value",...) or empty
+     */
+    public void writePrometheus(StringBuilder out, String name, String labels)
+    {
+        String prefix = (labels == null || labels.isEmpty()) ? "" : labels + ",";
+        long cumulative = 0;
+        for (int i = 0; i < BOUNDS.length; i++) {
+            cumulative += counts.get(i);
+            out.append(name).append("_bucket{").append(prefix).append("le=\"")
+               .append(BOUNDS[i] / 1000.0).append("\"} ").append(cumulative).append('\n');
+        }
+        cumulative += counts.get(BOUNDS.length);
+        out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(cumulative).append('\n');
+        String braces = (labels == null || labels.isEmpty()) ? "" : "{" + labels + "}";
+        out.append(name).append("_sum").append(braces).append(' ').append(sum.get() / 1000.0).append('\n');
+        out.append(name).append("_count").append(braces).append(' ').append(cumulative).append('\n');
+    }
+
+}
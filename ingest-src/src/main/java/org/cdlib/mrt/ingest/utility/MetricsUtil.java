@@ -0,0 +1,256 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+package org.cdlib.mrt.ingest.utility;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.ZooKeeper;
+
+import org.cdlib.mrt.zk.JobState;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
+
+
+/**
+ * Process-wide pipeline metrics
+ * - stage dwell: time a queue item waited in ZooKeeper before a consumer acquired it
+ * - stage execution: time a consumer worker spent on an item
+ * - handler execution: time spent in each Handler.handle() call
+ * - thread pool and queue depth gauges, sampled when metrics are requested
+ * - bytes hashed and bytes served from the per-job digest cache
+ * - S3 request latency and failures, by operation
+ * Output is in Prometheus text exposition format.
+ */
+public class MetricsUtil
+{
+
+    private static final String NAME = "MetricsUtil";
+    private static final String MESSAGE = NAME + ": ";
+    private static final boolean DEBUG = false;
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final Map<String, LatencyHistogram> stageDwell = new ConcurrentHashMap<String, LatencyHistogram>();
+    private static final Map<String, LatencyHistogram> stageExecution = new ConcurrentHashMap<String, LatencyHistogram>();
+    private static final Map<String, LatencyHistogram> handlerExecution = new ConcurrentHashMap<String, LatencyHistogram>();
+    private static final Map<String, ThreadPoolExecutor> pools = new ConcurrentHashMap<String, ThreadPoolExecutor>();
+    private static final Map<String, AtomicLong> digestHashed = new ConcurrentHashMap<String, AtomicLong>();
+    private static final Map<String, AtomicLong> digestSaved = new ConcurrentHashMap<String, AtomicLong>();
+    private static final Map<String, LatencyHistogram> s3Requests = new ConcurrentHashMap<String, LatencyHistogram>();
+    private static final Map<String, AtomicLong> s3Failures = new ConcurrentHashMap<String, AtomicLong>();
+
+    private static final ThreadLocal<Long> executionStart = new ThreadLocal<Long>();
+
+
+    private static LatencyHistogram histogram(Map<String, LatencyHistogram> map, String key)
+    {
+        return map.computeIfAbsent(key, k -> new LatencyHistogram());
+    }
+
+    /**
+     * Record how long a queue item waited before being acquired.
+     * The item's status node is rewritten on every state change, so its
+     * modification time marks entry into the current state.
+     *
+     * @param stage consumer stage
+     * @param zooKeeper session
+     * @param itemPath queue item node (e.g. /jobs/jid0000001)
+     */
+    public static void recordDwell(String stage, ZooKeeper zooKeeper, String itemPath)
+    {
+        try {
+            Stat stat = zooKeeper.exists(itemPath + "/status", false);
+            if (stat == null) return;
+            histogram(stageDwell, stage).record(System.currentTimeMillis() - stat.getMtime());
+        } catch (Exception e) {
+            if (DEBUG) System.err.println("[debug] " + MESSAGE + "Could not record dwell for: " + itemPath);
+        }
+    }
+
+    /**
+     * Mark start of work on the current thread (ThreadPoolExecutor.beforeExecute)
+     */
+    public static void startExecution()
+    {
+        executionStart.set(Long.valueOf(System.currentTimeMillis()));
+    }
+
+    /**
+     * Record work done on the current thread since startExecution() (ThreadPoolExecutor.afterExecute)
+     */
+    public static void endExecution(String stage)
+    {
+        Long start = executionStart.get();
+        if (start == null) return;
+        executionStart.remove();
+        histogram(stageExecution, stage).record(System.currentTimeMillis() - start.longValue());
+    }
+
+    public static void recordHandler(String stage, String handler, long millis)
+    {
+        histogram(handlerExecution, stage + "|" + handler).record(millis);
+    }
+
+    public static void registerPool(String name, ThreadPoolExecutor executor)
+    {
+        pools.put(name, executor);
+    }
+
+    public static void recordDigest(String handler, long hashed, long saved)
+    {
+        digestHashed.computeIfAbsent(handler, k -> new AtomicLong()).addAndGet(hashed);
+        digestSaved.computeIfAbsent(handler, k -> new AtomicLong()).addAndGet(saved);
+    }
+
+    public static void recordS3(String operation, long millis, boolean failed)
+    {
+        if (operation == null) operation = "unknown";
+        histogram(s3Requests, operation).record(millis);
+        if (failed) s3Failures.computeIfAbsent(operation, k -> new AtomicLong()).incrementAndGet();
+    }
+
+    /**
+     * Format all metrics
+     *
+     * @param queueConnectionString ZooKeeper connection for queue depth, may be null
+     * @return Prometheus text format
+     */
+    public static String getPrometheus(String queueConnectionString)
+    {
+        StringBuilder out = new StringBuilder(8192);
+
+        writeHistograms(out, "ingest_stage_dwell_seconds", "Time queue items wait in ZooKeeper before a consumer acquires them", stageDwell);
+        writeHistograms(out, "ingest_stage_execution_seconds", "Time consumer workers spend on a queue item", stageExecution);
+        writeHistograms(out, "ingest_handler_execution_seconds", "Time spent in each handler", handlerExecution);
+
+        // Thread pools
+        Map<String, ThreadPoolExecutor> sortedPools = new TreeMap<String, ThreadPoolExecutor>(pools);
+        writeHeader(out, "ingest_pool_active_threads", "Consumer worker threads currently busy", "gauge");
+        for (Map.Entry<String, ThreadPoolExecutor> entry : sortedPools.entrySet()) {
+            writeSample(out, "ingest_pool_active_threads", "stage=\"" + entry.getKey() + "\"", entry.getValue().getActiveCount());
+        }
+        writeHeader(out, "ingest_pool_queued_tasks", "Consumer tasks waiting for a worker thread", "gauge");
+        for (Map.Entry<String, ThreadPoolExecutor> entry : sortedPools.entrySet()) {
+            writeSample(out, "ingest_pool_queued_tasks", "stage=\"" + entry.getKey() + "\"", entry.getValue().getQueue().size());
+        }
+        writeHeader(out, "ingest_pool_max_threads", "Consumer worker pool size", "gauge");
+        for (Map.Entry<String, ThreadPoolExecutor> entry : sortedPools.entrySet()) {
+            writeSample(out, "ingest_pool_max_threads", "stage=\"" + entry.getKey() + "\"", entry.getValue().getMaximumPoolSize());
+        }
+
+        // Digest cache
+        writeCounters(out, "ingest_digest_bytes_hashed_total", "Bytes read to compute digests", digestHashed);
+        writeCounters(out, "ingest_digest_bytes_saved_total", "Bytes not re-read because a cached digest was reused", digestSaved);
+
+        // S3
+        writeHeader(out, "ingest_s3_request_seconds", "Latency of S3 requests", "histogram");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(s3Requests).entrySet()) {
+            entry.getValue().writePrometheus(out, "ingest_s3_request_seconds", "operation=\"" + entry.getKey() + "\"");
+        }
+        writeHeader(out, "ingest_s3_request_failures_total", "Failed S3 requests", "counter");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(s3Failures).entrySet()) {
+            writeSample(out, "ingest_s3_request_failures_total", "operation=\"" + entry.getKey() + "\"", entry.getValue().get());
+        }
+
+        // Queue depth
+        if (queueConnectionString != null) {
+            writeQueueDepth(out, queueConnectionString);
+        }
+
+        // ZooKeeper sessions
+        writeHeader(out, "ingest_zk_session_creations_total", "ZooKeeper sessions created", "counter");
+        writeSample(out, "ingest_zk_session_creations_total", "", ZookeeperUtil.getSessionCreations());
+        writeHeader(out, "ingest_zk_session_reconnects_total", "ZooKeeper session reconnects after connection loss", "counter");
+        writeSample(out, "ingest_zk_session_reconnects_total", "", ZookeeperUtil.getSessionReconnects());
+        writeHeader(out, "ingest_zk_session_expirations_total", "ZooKeeper session expirations", "counter");
+        writeSample(out, "ingest_zk_session_expirations_total", "", ZookeeperUtil.getSessionExpirations());
+
+        return out.toString();
+    }
+
+    private static void writeQueueDepth(StringBuilder out, String queueConnectionString)
+    {
+        try {
+            ZooKeeper zooKeeper = ZookeeperUtil.getZooKeeper(queueConnectionString);
+            StringBuilder samples = new StringBuilder();
+            for (JobState jobState : JobState.values()) {
+                String path = ZkPaths.Job.path + "/states/" + jobState.name().toLowerCase();
+                if (zooKeeper.exists(path, false) == null) continue;
+                writeSample(samples, "ingest_queue_depth", "state=\"" + jobState.name() + "\"", zooKeeper.getChildren(path, false).size());
+            }
+            writeHeader(out, "ingest_queue_depth", "Jobs in each queue state", "gauge");
+            out.append(samples);
+        } catch (Exception e) {
+            System.err.println("[warn] " + MESSAGE + "Could not read queue depth: " + e.getMessage());
+        }
+    }
+
+    private static void writeHistograms(StringBuilder out, String name, String help, Map<String, LatencyHistogram> map)
+    {
+        writeHeader(out, name, help, "histogram");
+        for (Map.Entry<String, LatencyHistogram> entry : new TreeMap<String, LatencyHistogram>(map).entrySet()) {
+            String key = entry.getKey();
+            String labels;
+            int sep = key.indexOf('|');
+            if (sep < 0) {
+                labels = "stage=\"" + key + "\"";
+            } else {
+                labels = "stage=\"" + key.substring(0, sep) + "\",handler=\"" + key.substring(sep + 1) + "\"";
+            }
+            entry.getValue().writePrometheus(out, name, labels);
+        }
+    }
+
+    private static void writeCounters(StringBuilder out, String name, String help, Map<String, AtomicLong> map)
+    {
+        writeHeader(out, name, help, "counter");
+        for (Map.Entry<String, AtomicLong> entry : new TreeMap<String, AtomicLong>(map).entrySet()) {
+            writeSample(out, name, "handler=\"" + entry.getKey() + "\"", entry.getValue().get());
+        }
+    }
+
+    private static void writeHeader(StringBuilder out, String name, String help, String type)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, long value)
+    {
+        out.append(name);
+        if (! labels.isEmpty()) out.append('{').append(labels).append('}');
+        out.append(' ').append(value).append('\n');
+    }
+
+}
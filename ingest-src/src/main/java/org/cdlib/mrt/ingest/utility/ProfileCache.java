@@ -0,0 +1,214 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+
+package org.cdlib.mrt.ingest.utility;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import software.amazon.awssdk.core.ResponseBytes;
+import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import org.cdlib.mrt.ingest.ProfileState;
+import org.cdlib.mrt.utility.TException;
+
+
+/**
+ * Process-wide profile cache.  Profile files are parsed once and shared until the
+ * file changes or the entry expires; S3 profile content is downloaded once and
+ * revalidated by ETag when its entry expires.
+ *
+ * Loading is per key: concurrent requests for one profile share a single load,
+ * while different profiles load independently.
+ *
+ * Cached ProfileStates are shared, callers must hand out copies.
+ */
+public class ProfileCache
+{
+    private static final String NAME = "ProfileCache";
+    private static final String MESSAGE = NAME + ": ";
+    public static final long DEFAULT_TTL = 5L * 60L * 1000L;
+
+    private static volatile long ttl = DEFAULT_TTL;
+    private static final Map<String, Parsed> parsedProfiles = new ConcurrentHashMap<String, Parsed>();
+    private static final Map<String, Remote> remoteProfiles = new ConcurrentHashMap<String, Remote>();
+    private static final Map<String, FutureTask<Parsed>> parsing = new ConcurrentHashMap<String, FutureTask<Parsed>>();
+    private static final Map<String, FutureTask<Remote>> fetching = new ConcurrentHashMap<String, FutureTask<Remote>>();
+
+    /**
+     * @param ttlMs time before an entry is parsed or revalidated again
+     */
+    public static void setTTL(long ttlMs) {
+        if (ttlMs >= 0) ttl = ttlMs;
+    }
+
+    /**
+     * Parsed profile of a file
+     *
+     * @param profileFile profile file
+     * @param parser parses the file when not cached, changed or expired
+     * @return shared ProfileState
+     */
+    public static ProfileState getParsed(File profileFile, Callable<ProfileState> parser)
+        throws Exception
+    {
+        String key = profileFile.getAbsolutePath();
+        long length = profileFile.length();
+        long modified = profileFile.lastModified();
+        long now = System.currentTimeMillis();
+
+        Parsed parsed = parsedProfiles.get(key);
+        if (parsed != null && parsed.length == length && parsed.modified == modified && now - parsed.loaded < ttl) {
+            return parsed.profileState;
+        }
+        parsed = load(parsing, key, () -> {
+            ProfileState profileState = parser.call();
+            // cached before the load completes, so late arrivals do not parse again
+            Parsed loaded = new Parsed(length, modified, System.currentTimeMillis(), profileState);
+            parsedProfiles.put(key, loaded);
+            return loaded;
+        });
+        evict(now);
+        return parsed.profileState;
+    }
+
+    /**
+     * Content of an S3 profile
+     *
+     * @param clientFactory supplies a client, only called when S3 must be contacted
+     * @param bucket S3 bucket (node)
+     * @param key S3 key of profile
+     * @return profile content
+     */
+    public static byte[] getRemote(Callable<S3Client> clientFactory, String bucket, String key)
+        throws Exception
+    {
+        String cacheKey = bucket + "/" + key;
+        long now = System.currentTimeMillis();
+        Remote remote = remoteProfiles.get(cacheKey);
+        if (remote != null && now - remote.validated < ttl) {
+            return remote.content;
+        }
+
+        Remote previous = remote;
+        remote = load(fetching, cacheKey, () -> {
+            S3Client s3Client = clientFactory.call();
+            if (previous != null) {
+                String etag = S3Util.getObjectETag(s3Client, bucket, key);
+                if (previous.etag != null && previous.etag.equals(etag)) {
+                    System.out.println("[info] " + MESSAGE + "S3 profile unchanged: " + cacheKey);
+                    previous.validated = System.currentTimeMillis();
+                    return previous;
+                }
+            }
+
+            System.out.println("[info] " + MESSAGE + "Downloading S3 profile: " + cacheKey);
+            ResponseBytes<GetObjectResponse> object = S3Util.getObjectBytes(s3Client, bucket, key);
+            Remote fetched = new Remote(object.response().eTag(), object.asByteArray(), System.currentTimeMillis());
+            remoteProfiles.put(cacheKey, fetched);
+            return fetched;
+        });
+        return remote.content;
+    }
+
+    /**
+     * Run a load once per key; threads arriving while it runs wait for its result
+     */
+    private static <T> T load(Map<String, FutureTask<T>> inflight, String key, Callable<T> loader)
+        throws Exception
+    {
+        FutureTask<T> task = new FutureTask<T>(loader);
+        FutureTask<T> running = inflight.putIfAbsent(key, task);
+        if (running == null) {
+            running = task;
+            try {
+                task.run();
+            } finally {
+                inflight.remove(key, task);
+            }
+        }
+        try {
+            return running.get();
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof Exception) throw (Exception) cause;
+            throw ee;
+        }
+    }
+
+    /**
+     * Drop parsed profile of a file (e.g. batch profile removed)
+     */
+    public static void remove(File profileFile) {
+        parsedProfiles.remove(profileFile.getAbsolutePath());
+    }
+
+    /**
+     * Remove expired parsed profiles
+     */
+    private static void evict(long now) {
+        Iterator<Parsed> iterator = parsedProfiles.values().iterator();
+        while (iterator.hasNext()) {
+            if (now - iterator.next().loaded >= ttl) iterator.remove();
+        }
+    }
+
+    private static class Parsed {
+        private final long length;
+        private final long modified;
+        private final long loaded;
+        private final ProfileState profileState;
+
+        private Parsed(long length, long modified, long loaded, ProfileState profileState) {
+            this.length = length;
+            this.modified = modified;
+            this.loaded = loaded;
+            this.profileState = profileState;
+        }
+    }
+
+    private static class Remote {
+        private final String etag;
+        private final byte[] content;
+        private volatile long validated;
+
+        private Remote(String etag, byte[] content, long validated) {
+            this.etag = etag;
+            this.content = content;
+            this.validated = validated;
+        }
+    }
+}
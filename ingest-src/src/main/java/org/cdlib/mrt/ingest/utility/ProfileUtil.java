@@ -57,7 +57,10 @@ import java.io.ObjectOutputStream;
 import java.io.File;
 import java.net.URL;
 import java.net.MalformedURLException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.Enumeration;
+import java.util.List;
 import java.util.Properties;
 import java.util.TreeMap;
 import java.util.Vector;
@@ -70,6 +73,7 @@ import org.cdlib.mrt.ingest.BatchState;
 import org.cdlib.mrt.ingest.HandlerState;
 import org.cdlib.mrt.ingest.ProfileState;
 import org.cdlib.mrt.ingest.ProfilesState;
+import org.cdlib.mrt.ingest.handlers.HandlerRegistry;
 import org.cdlib.mrt.ingest.utility.S3Util;
 import org.cdlib.mrt.utility.LoggerInf;
 import org.cdlib.mrt.ingest.StoreNode;
@@ -91,13 +95,10 @@ public class ProfileUtil
     private static final boolean DEBUG = false;
     private static final int MAX_HANDLERS = 20;
     public static final String DEFAULT_BATCH_ID = "JOB_ONLY";
+    public static final Region PROFILE_REGION = Region.US_WEST_2;
     private LoggerInf logger = null;
     private Properties conf = null;
 
-    private static URL url = null;
-    private static URL storageUrl = null;
-    private static int node;
-
     // extract strings
     private static final String matchProfileID = "ProfileID";
     private static final String matchProfileDescription = "ProfileDescription";
@@ -136,15 +137,20 @@ public class ProfileUtil
     private static final String matchNotificationSuppression = "NotificationSuppression";
     private static final String matchSuppressDublinCoreLocalID = "SuppressDublinCoreLocalID";
 
+    // Create shared S3 profile client at startup
+    public static void warmS3(String s3endpoint, String accessKey, String secretKey, String profileNode)
+    {
+	S3Util.warm(PROFILE_REGION, accessKey, secretKey, s3endpoint, profileNode);
+    }
+
     // Process active profile (S3)
-    public static synchronized ProfileState getProfile(Identifier profileName, String ingestDir, String s3endpoint, String accessKey, String secretKey, String profileNode, String profilePath, boolean delete)
+    public static ProfileState getProfile(Identifier profileName, String ingestDir, String s3endpoint, String accessKey, String secretKey, String profileNode, String profilePath, boolean delete)
         throws TException
     {
 	ProfileState profileState;
 	try {
 
-	    InputStream inputStream = null;
-            Region region = Region.US_WEST_2;
+            Region region = PROFILE_REGION;
 
 	    String batchID = ingestDir.substring(ingestDir.indexOf("bid-"));
 	    File profileFile = createTempFile(batchID + "_" + profileName.getValue());
@@ -154,33 +160,25 @@ public class ProfileUtil
 	    if (! profileFile.exists()) {
 
                 System.out.println("[info] Cached S3 profile file does not exist: " + profileFile.getAbsolutePath());
-                System.out.println("[info] Downloading S3 profile: " + profileName.getValue() + " From S3: " + profileNode + "/" + profilePath );
+                System.out.println("[info] Resolving S3 profile: " + profileName.getValue() + " From S3: " + profileNode + "/" + profilePath );
 		String s3Path = profilePath + "/" + profileName.getValue();
-		S3Client s3Client = null;
-
-		if (! StringUtil.isEmpty(s3endpoint)) {
-                    System.out.println("[info] Detected Minio style S3 environment");
-		    s3Client = S3Util.getMinioClient(region, accessKey, secretKey, s3endpoint);
-		} else {
-                    System.out.println("[info] Detected AWS style S3 environment");
-		    s3Client = S3Util.getAWSClient(region);
-		}
-
 
                 try {
-                    inputStream = S3Util.getObjectSyncInputStream(s3Client, profileNode, s3Path);
-		    copyInputStreamToFile(inputStream, profileFile);
+		    // Shared client, only used when the cached content must be revalidated
+		    byte[] content = ProfileCache.getRemote(
+			() -> S3Util.getClient(region, accessKey, secretKey, s3endpoint), profileNode, s3Path);
+		    writeAtomic(content, profileFile);
 	        } catch (Exception e2) {
 		    e2.printStackTrace();
 		    throw new Exception(e2.getMessage());
-	        } finally {
-		}
+	        }
 	    } else {
                 System.out.println("[info] Cached S3 profile exists: " + profileNode + " - " + profilePath + " - " + profileName.toString());
 	    }
 
 	    profileState = getProfile(profileName, profileFile);
 	    if (delete) {
+		ProfileCache.remove(profileFile);
 		deleteTempFile(batchID + "_" + profileName.getValue());
 	    }
 
@@ -199,7 +197,7 @@ public class ProfileUtil
     }
 
     // Process active profile (Local file)
-    public static synchronized ProfileState getProfile(Identifier profileName, String ingestDir)
+    public static ProfileState getProfile(Identifier profileName, String ingestDir)
         throws TException
     {
 	try {
@@ -223,8 +221,26 @@ public class ProfileUtil
 	}
     }
 
-    // Process any profile
-    public static synchronized ProfileState getProfile(Identifier profileName, File profileTxt)
+    // Process any profile (parsed profiles are cached, each caller gets its own copy)
+    public static ProfileState getProfile(Identifier profileName, File profileTxt)
+        throws TException
+    {
+	try {
+            if (!profileTxt.exists()) {
+                throw new TException.INVALID_OR_MISSING_PARM(MESSAGE + "IngestService: profile not found: " + profileTxt.getAbsolutePath());
+            }
+	    return ProfileCache.getParsed(profileTxt, () -> parseProfile(profileName, profileTxt)).copy();
+	} catch (TException tex) {
+	    throw tex;
+	} catch (Exception ex) {
+            String err = MESSAGE + "error in creating profile ID - Exception:" + ex;
+
+            System.out.println(err + " : " + StringUtil.stackTrace(ex));
+            throw new TException.GENERAL_EXCEPTION(err);
+	}
+    }
+
+    private static ProfileState parseProfile(Identifier profileName, File profileTxt)
         throws TException
     {
     	TreeMap<Integer,HandlerState> ingestHandlers = new TreeMap<Integer,HandlerState>();
@@ -239,6 +255,9 @@ public class ProfileUtil
     	TreeMap<Integer,HandlerState> recordHandlers = new TreeMap<Integer,HandlerState>();
     	TreeMap<Integer,HandlerState> notifyHandlers = new TreeMap<Integer,HandlerState>();
 	ProfileState profileState = new ProfileState();
+	URL url = null;
+	URL storageUrl = null;
+	int node = 0;
 
 	try {
                 if (!profileTxt.exists()) {
@@ -502,6 +521,12 @@ public class ProfileUtil
 	     profileState.setRecordHandlers(recordHandlers);
 	     profileState.setNotifyHandlers(notifyHandlers);
 	     profileState.setTargetStorage(new StoreNode(storageUrl, node));
+
+	     // Resolve handlers once per parsed profile, not per job
+	     List<String> invalidHandlers = HandlerRegistry.validate(profileState);
+	     if (! invalidHandlers.isEmpty()) {
+                 System.out.println("[warn] " + MESSAGE + "Profile " + profileName.getValue() + " names handlers that can not be resolved: " + invalidHandlers);
+	     }
  
              return profileState;
 
@@ -526,7 +551,7 @@ public class ProfileUtil
     }
 
 
-    public static synchronized ProfilesState getProfiles(String profileDir, boolean recurse)
+    public static ProfilesState getProfiles(String profileDir, boolean recurse)
         throws TException
     {
 	ProfilesState profilesState = new ProfilesState();
@@ -581,20 +606,27 @@ public class ProfileUtil
 
 
     // write serialize object to disk
-    public static synchronized void writeTo(BatchState batchState, File targetDir)
+    public static void writeTo(BatchState batchState, File targetDir)
         throws Exception {
+        File tempFile = null;
         try {
-            FileOutputStream fout = new FileOutputStream(new File(targetDir, "batchState.obj"));
-            ObjectOutputStream oos = new ObjectOutputStream(fout);
-            oos.writeObject(batchState);
-            oos.close();
+            // readers never see a partially written state
+            File stateFile = new File(targetDir, "batchState.obj");
+            tempFile = File.createTempFile("batchState", ".tmp", targetDir);
+            try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(tempFile))) {
+                oos.writeObject(batchState);
+            }
+            Files.move(tempFile.toPath(), stateFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         } catch (Exception e) {
             throw new Exception("[error] " + MESSAGE + " could not write object to disk: " + targetDir.getAbsolutePath());
+        } finally {
+            // no-op once moved
+            if (tempFile != null) tempFile.delete();
         }
    }
 
     // read serialize object from disk
-    public static synchronized BatchState readFrom(BatchState batchState, File targetDir)
+    public static BatchState readFrom(BatchState batchState, File targetDir)
         throws Exception {
         try {
             FileInputStream fin = new FileInputStream(new File(targetDir, "batchState.obj"));
@@ -707,6 +739,18 @@ public class ProfileUtil
 
     }
 
+	// Concurrent writers of one profile file each replace it whole
+	private static void writeAtomic(byte[] content, File file)
+            throws Exception {
+	    File tempFile = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+	    try {
+	        Files.write(tempFile.toPath(), content);
+	        Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	    } finally {
+	        tempFile.delete();
+	    }
+        }
+
 	private static File createTempFile(String fileName) throws Exception {
             String dir = System.getProperty("java.io.tmpdir");
             return new File(dir + "/" + fileName);
@@ -0,0 +1,161 @@
+/*
+Copyright (c) 2011, Regents of the University of California
+All rights reserved.
+
+Redistribution and use in source and binary forms, with or without
+modification, are permitted provided that the following conditions are
+met:
+ *
+- Redistributions of source code must retain the above copyright notice,
+  this list of conditions and the following disclaimer.
+- Redistributions in binary form must reproduce the above copyright
+  notice, this list of conditions and the following disclaimer in the
+  documentation and/or other materials provided with the distribution.
+- Neither the name of the University of California nor the names of its
+  contributors may be used to endorse or promote products derived from
+  this software without specific prior written permission.
+
+THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS
+"AS IS" AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR CONTRIBUTORS BE
+LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED
+OF THE POSSIBILITY OF SUCH DAMAGE.
+**********************************************************/
+package org.cdlib.mrt.ingest.utility;
+
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
+import org.apache.zookeeper.ZooKeeper;
+
+import org.cdlib.mrt.zk.JobState;
+import org.cdlib.mrt.zk.QueueItem.ZkPaths;
+
+
+/**
+ * Wake a consumer daemon as soon as queue nodes change.
+ * Child watches are set on the queue nodes before each scan, so any change
+ * made while the daemon is scanning or busy is seen by the following wait.
+ * The polling interval is kept as a slow fallback in case a watch is lost.
+ */
+public class QueueWatcher implements Watcher
+{
+
+    private static final String NAME = "QueueWatcher";
+    private static final String MESSAGE = NAME + ": ";
+    private static final boolean DEBUG = false;
+
+    // Fallback polling interval is stretched when watches are armed
+    public static final int WATCH_FALLBACK_FACTOR = 4;
+
+    private final String[] paths;
+    private boolean changed = false;
+    private boolean armed = false;
+
+
+    public QueueWatcher(String... paths)
+    {
+        this.paths = paths;
+    }
+
+    /**
+     * Watch the job queue for jobs entering a state.
+     * MerrittZK indexes jobs by state below /jobs/states, new jobs appear below /jobs.
+     */
+    public static QueueWatcher forJobState(JobState jobState)
+    {
+        return new QueueWatcher(ZkPaths.Job.path,
+		ZkPaths.Job.path + "/states/" + jobState.name().toLowerCase());
+    }
+
+    /**
+     * Watch the batch queue, and optionally jobs entering a state
+     */
+    public static QueueWatcher forBatches(JobState... jobStates)
+    {
+        String[] paths = new String[jobStates.length + 1];
+        paths[0] = ZkPaths.Batch.path;
+        for (int i = 0; i < jobStates.length; i++) {
+            paths[i + 1] = ZkPaths.Job.path + "/states/" + jobStates[i].name().toLowerCase();
+        }
+        return new QueueWatcher(paths);
+    }
+
+    /**
+     * (Re)register watches prior to a queue scan.
+     * The same watcher object is registered each time, which ZooKeeper
+     * holds only once per node.
+     *
+     * @param zooKeeper session
+     */
+    public void arm(ZooKeeper zooKeeper)
+    {
+        boolean ok = true;
+        for (String path : paths) {
+            try {
+                if (zooKeeper.exists(path, this) != null) {
+                    zooKeeper.getChildren(path, this);
+                }
+            } catch (Exception e) {
+                if (DEBUG) System.err.println("[debug] " + MESSAGE + "Could not watch " + path + ": " + e.getMessage());
+                ok = false;
+            }
+        }
+        synchronized (this) {
+            armed = ok;
+        }
+    }
+
+    /**
+     * Wait for a queue change.  Returns immediately if a change was seen since the last wait.
+     *
+     * @param pollingInterval fallback polling interval (milliseconds)
+     * @return true if woken by a queue change, false on timeout
+     */
+    public synchronized boolean await(long pollingInterval)
+        throws InterruptedException
+    {
+        long wait = armed ? pollingInterval * WATCH_FALLBACK_FACTOR : pollingInterval;
+        long deadline = System.currentTimeMillis() + wait;
+        long remaining = wait;
+        while (! changed && remaining > 0) {
+            wait(remaining);
+            remaining = deadline - System.currentTimeMillis();
+        }
+        boolean result = changed;
+        changed = false;
+        return result;
+    }
+
+    /**
+     * Wake the waiting daemon, e.g. when a worker thread frees up
+     */
+    public synchronized void signal()
+    {
+        changed = true;
+        notifyAll();
+    }
+
+    public synchronized void process(WatchedEvent event)
+    {
+        switch (event.getType()) {
+            case NodeChildrenChanged:
+            case NodeCreated:
+                changed = true;
+                notifyAll();
+                break;
+            case None:
+                // Session events drop watches, fall back to polling until re-armed
+                if (event.getState() != Event.KeeperState.SyncConnected) armed = false;
+                break;
+            default:
+                break;
+        }
+    }
+
+}
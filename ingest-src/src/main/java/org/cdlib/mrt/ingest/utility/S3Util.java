@@ -57,13 +57,24 @@ import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.HeadBucketRequest;
+import software.amazon.awssdk.core.client.config.ClientOverrideConfiguration;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+import software.amazon.awssdk.core.interceptor.SdkExecutionAttribute;
 
 import java.io.InputStream;
 import java.io.File;
 import java.net.URL;
 import java.net.URI;
 import java.net.MalformedURLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.cdlib.mrt.utility.StringUtil;
 import org.cdlib.mrt.utility.TException;
 
 /**
@@ -79,6 +90,75 @@ public class S3Util
 
     private static int node;
 
+    // Long-lived thread-safe clients, keyed by region, endpoint and credentials
+    private static final Map<String, S3Client> clients = new ConcurrentHashMap<String, S3Client>();
+
+    private static final ExecutionAttribute<Long> REQUEST_START = new ExecutionAttribute<Long>("IngestS3RequestStart");
+    private static final ClientOverrideConfiguration METRICS = ClientOverrideConfiguration.builder()
+            .addExecutionInterceptor(new LatencyInterceptor())
+            .build();
+
+
+    /**
+     * Shared client for an endpoint (Minio style) or the default AWS environment.
+     * Do not close, clients live for the life of the service (closeClients() on shutdown).
+     *
+     * @param endPoint S3 endpoint, empty for AWS
+     */
+    public static S3Client getClient(Region region, String accessKey, String secretKey, String endPoint)
+            throws TException
+    {
+        String key = clientKey(region, accessKey, secretKey, endPoint);
+        S3Client s3Client = clients.get(key);
+        if (s3Client != null) return s3Client;
+
+        if (StringUtil.isEmpty(endPoint)) {
+            s3Client = getAWSClient(region);
+        } else {
+            s3Client = getMinioClient(region, accessKey, secretKey, endPoint);
+        }
+        S3Client existing = clients.putIfAbsent(key, s3Client);
+        if (existing != null) {
+            s3Client.close();
+            return existing;
+        }
+        return s3Client;
+    }
+
+    /**
+     * Create the shared client at startup and open a connection to the bucket,
+     * so the first request does not pay for credentials and connection setup.
+     * Failure is not fatal, the client is created again on first use.
+     */
+    public static void warm(Region region, String accessKey, String secretKey, String endPoint, String bucketName)
+    {
+        long start = System.currentTimeMillis();
+        try {
+            S3Client s3Client = getClient(region, accessKey, secretKey, endPoint);
+            if (! StringUtil.isEmpty(bucketName)) {
+                s3Client.headBucket(HeadBucketRequest.builder().bucket(bucketName).build());
+            }
+            System.out.println("[info] " + MESSAGE + "S3 client ready: " + bucketName + " - " + (System.currentTimeMillis() - start) + " ms");
+        } catch (Exception e) {
+            System.err.println("[warn] " + MESSAGE + "Could not warm S3 client: " + bucketName + " - " + e.getMessage());
+        }
+    }
+
+    /**
+     * Close all shared clients (shutdown, tests)
+     */
+    public static void closeClients()
+    {
+        for (S3Client s3Client : clients.values()) s3Client.close();
+        clients.clear();
+    }
+
+    private static String clientKey(Region region, String accessKey, String secretKey, String endPoint)
+    {
+        if (StringUtil.isEmpty(endPoint)) return region.id();
+        return region.id() + "|" + endPoint + "|" + accessKey + "|" + (secretKey == null ? 0 : secretKey.hashCode());
+    }
+
 
     public static S3Client getAWSClient(Region region)
             throws TException
@@ -88,6 +168,7 @@ public class S3Util
             S3Client s3Client = S3Client.builder()
                      .region(region)
                      .forcePathStyle(true)
+                     .overrideConfiguration(METRICS)
                      .build();
             return s3Client;
 
@@ -111,6 +192,7 @@ public class S3Util
                      .region(region)
                      .endpointOverride(URI.create(endPoint))
                      .forcePathStyle(true)
+                     .overrideConfiguration(METRICS)
                      .build();
             return s3Client;
 
@@ -151,4 +233,88 @@ public class S3Util
         }
     }
 
+
+    /**
+     * Object content with its response (ETag)
+     */
+    public static ResponseBytes<GetObjectResponse> getObjectBytes (S3Client s3Client, String bucketName, String keyName)
+        throws TException
+    {
+        System.out.println("[S3Util] getObjectBytes " 
+		+ " - keyName=" + keyName 
+		+ " - bucketName=" + bucketName);
+
+        try {
+            GetObjectRequest objectRequest = GetObjectRequest
+                    .builder()
+                    .key(keyName)
+                    .bucket(bucketName)
+                    .build();
+
+            return s3Client.getObject(objectRequest, ResponseTransformer.toBytes());
+
+        } catch (S3Exception e) {
+           if ((e.statusCode() == 404) || e.toString().contains("404")) {
+               throw new TException.REQUESTED_ITEM_NOT_FOUND("Not found:"
+                       + " - bucket:" + bucketName
+                       + " - key:" + keyName);
+           }
+           throw new TException(e);
+        }
+    }
+
+    /**
+     * Object ETag without retrieving content
+     */
+    public static String getObjectETag (S3Client s3Client, String bucketName, String keyName)
+        throws TException
+    {
+        try {
+            HeadObjectRequest headRequest = HeadObjectRequest
+                    .builder()
+                    .key(keyName)
+                    .bucket(bucketName)
+                    .build();
+
+            return s3Client.headObject(headRequest).eTag();
+
+        } catch (S3Exception e) {
+           if ((e.statusCode() == 404) || e.toString().contains("404")) {
+               throw new TException.REQUESTED_ITEM_NOT_FOUND("Not found:"
+                       + " - bucket:" + bucketName
+                       + " - key:" + keyName);
+           }
+           throw new TException(e);
+        }
+    }
+
+
+    /**
+     * Records latency of every S3 call made by S3Util clients, by operation
+     */
+    private static class LatencyInterceptor implements ExecutionInterceptor
+    {
+        @Override
+        public void beforeExecution(Context.BeforeExecution context, ExecutionAttributes executionAttributes) {
+            executionAttributes.putAttribute(REQUEST_START, Long.valueOf(System.currentTimeMillis()));
+        }
+
+        @Override
+        public void afterExecution(Context.AfterExecution context, ExecutionAttributes executionAttributes) {
+            record(executionAttributes, false);
+        }
+
+        @Override
+        public void onExecutionFailure(Context.FailedExecution context, ExecutionAttributes executionAttributes) {
+            record(executionAttributes, true);
+        }
+
+        private void record(ExecutionAttributes executionAttributes, boolean failed) {
+            Long start = executionAttributes.getAttribute(REQUEST_START);
+            if (start == null) return;
+            String operation = executionAttributes.getAttribute(SdkExecutionAttribute.OPERATION_NAME);
+            MetricsUtil.recordS3(operation, System.currentTimeMillis() - start.longValue(), failed);
+        }
+    }
+
 }
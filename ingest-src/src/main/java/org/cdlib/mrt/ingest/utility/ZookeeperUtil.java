@@ -30,9 +30,15 @@ OF THE POSSIBILITY OF SUCH DAMAGE.
 package org.cdlib.mrt.ingest.utility;
 
 import org.apache.zookeeper.data.Stat;
+import org.apache.zookeeper.WatchedEvent;
+import org.apache.zookeeper.Watcher;
 import org.apache.zookeeper.ZooKeeper;
 import org.apache.logging.log4j.ThreadContext;
 
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
 
 /**
  * Zookeeper static definitions
@@ -48,6 +54,76 @@ public class ZookeeperUtil
     public static final int SLEEP_ZK_RETRY = (30 * 1000);			// 30 sec retry timeout
     public static final int ZK_SESSION_TIMEOUT = (6 * 60 * 60 * 1000); 		// 6 hour session timeout
 
+    // Process-wide sessions, one per connection string
+    private static final ConcurrentHashMap<String, ZooKeeper> sessions = new ConcurrentHashMap<String, ZooKeeper>();
+
+    // Session metrics
+    private static final AtomicLong sessionCreations = new AtomicLong();
+    private static final AtomicLong sessionReconnects = new AtomicLong();
+    private static final AtomicLong sessionExpirations = new AtomicLong();
+
+
+    /**
+     * Return the shared ZooKeeper session for a connection string.
+     * A new session is only created when none exists or the current one
+     * has expired or been closed.  Connection loss is handled by the
+     * ZooKeeper client itself, which transparently reconnects the session.
+     *
+     * @param connectionString ZooKeeper connection string (host1:2181,host2:2181)
+     * @return shared ZooKeeper session
+     * @throws IOException session could not be created
+     */
+    public static ZooKeeper getZooKeeper(String connectionString)
+	throws IOException
+    {
+	ZooKeeper zooKeeper = sessions.get(connectionString);
+	if (isAlive(zooKeeper)) return zooKeeper;
+
+	synchronized (sessions) {
+	    zooKeeper = sessions.get(connectionString);
+	    if (isAlive(zooKeeper)) return zooKeeper;
+	    if (zooKeeper != null) {
+		try {
+		    zooKeeper.close();
+		} catch (Exception e) { }
+	    }
+
+	    zooKeeper = new ZooKeeper(connectionString, ZK_SESSION_TIMEOUT, new SessionWatcher(connectionString));
+	    sessions.put(connectionString, zooKeeper);
+	    long count = sessionCreations.incrementAndGet();
+	    System.out.println("[info] " + MESSAGE + "Created ZooKeeper session for: " + connectionString + " - sessions created: " + count);
+	    return zooKeeper;
+	}
+    }
+
+    /**
+     * Is this one of the process-wide sessions
+     */
+    public static boolean isShared(ZooKeeper zooKeeper)
+    {
+	return zooKeeper != null && sessions.containsValue(zooKeeper);
+    }
+
+    public static long getSessionCreations()
+    {
+	return sessionCreations.get();
+    }
+
+    public static long getSessionReconnects()
+    {
+	return sessionReconnects.get();
+    }
+
+    public static long getSessionExpirations()
+    {
+	return sessionExpirations.get();
+    }
+
+    private static boolean isAlive(ZooKeeper zooKeeper)
+    {
+	return zooKeeper != null && zooKeeper.getState().isAlive();
+    }
+
 
     public static boolean validateZK(ZooKeeper zk)
     {
@@ -64,8 +140,9 @@ public class ZookeeperUtil
 	    if (DEBUG) System.err.println("[INFO] ZookeeperUtil: Need to ESTABLISH/REFRESH ZK Connection " + caller);
 	    ThreadContext.put("Zookeeper Connection needs refresh", caller);
 	    try {
-		// Close expired connection.
-		zk.close();
+		// Close expired connection.  Shared sessions are left to
+		// getZooKeeper(), other threads may still be using them.
+		if (! isShared(zk)) zk.close();
 		zk = null;
 	    } catch (Exception e2) {
 	    }
@@ -75,4 +152,44 @@ public class ZookeeperUtil
 	}
     }
 
+
+
+    /**
+     * Track session state for the shared sessions
+     */
+    private static class SessionWatcher implements Watcher
+    {
+	private final String connectionString;
+	private volatile boolean disconnected = false;
+
+	SessionWatcher(String connectionString)
+	{
+	    this.connectionString = connectionString;
+	}
+
+	public void process(WatchedEvent event)
+	{
+	    if (event.getType() != Event.EventType.None) return;
+	    switch (event.getState()) {
+		case Disconnected:
+		    disconnected = true;
+		    System.out.println("[info] " + MESSAGE + "ZooKeeper session disconnected: " + connectionString);
+		    break;
+		case SyncConnected:
+		    if (disconnected) {
+			disconnected = false;
+			sessionReconnects.incrementAndGet();
+			System.out.println("[info] " + MESSAGE + "ZooKeeper session reconnected: " + connectionString);
+		    }
+		    break;
+		case Expired:
+		    sessionExpirations.incrementAndGet();
+		    System.out.println("[warn] " + MESSAGE + "ZooKeeper session expired, will be recreated on next use: " + connectionString);
+		    break;
+		default:
+		    break;
+	    }
+	}
+    }
+
 }
@@ -0,0 +1,96 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.cdlib.mrt.ingest.utility.ChunkUtil;
+import org.junit.After;
+import org.junit.Test;
+
+public class ChunkUtilUnitTest {
+
+        private ExecutorService executor = Executors.newFixedThreadPool(4);
+        private List<String> undone = Collections.synchronizedList(new ArrayList<String>());
+
+        @After
+        public void teardown() {
+                executor.shutdownNow();
+        }
+
+        @Test
+        public void ChunkCreated() throws Exception {
+                List<String> created = new ArrayList<String>();
+                int failed = ChunkUtil.createAll(executor, Arrays.asList(create("a"), create("b"), create("c")), created, undone::add);
+                assertEquals(-1, failed);
+                assertEquals(Arrays.asList("a", "b", "c"), created);
+                assertTrue(undone.isEmpty());
+        }
+
+        @Test
+        public void ChunkRolledBackOnFailure() throws Exception {
+                Callable<String> fails = () -> {
+                        throw new IllegalStateException("node exists");
+                };
+                List<String> created = new ArrayList<String>();
+                int failed = ChunkUtil.createAll(executor, Arrays.asList(create("a"), fails, create("c")), created, undone::add);
+                assertEquals(1, failed);
+                assertTrue(created.isEmpty());
+                // creations finishing after the failure are undone as well
+                assertEquals(Arrays.asList("a", "c"), sorted(undone));
+        }
+
+        @Test
+        public void ChunkRolledBackOnInterrupt() throws Exception {
+                CountDownLatch started = new CountDownLatch(1);
+                CountDownLatch release = new CountDownLatch(1);
+                Callable<String> slow = () -> {
+                        started.countDown();
+                        release.await();
+                        return "slow";
+                };
+                AtomicReference<Throwable> thrown = new AtomicReference<Throwable>();
+                AtomicInteger stillInterrupted = new AtomicInteger();
+                Thread submitter = new Thread(() -> {
+                        try {
+                                ChunkUtil.createAll(executor, Arrays.asList(create("a"), slow), new ArrayList<String>(), undone::add);
+                        } catch (Throwable t) {
+                                thrown.set(t);
+                                if (Thread.currentThread().isInterrupted()) stillInterrupted.incrementAndGet();
+                        }
+                });
+                submitter.start();
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+                submitter.interrupt();
+
+                // the interrupted wait still accounts for the creation in flight
+                Thread.sleep(200);
+                assertTrue(submitter.isAlive());
+                release.countDown();
+                submitter.join(10000);
+
+                assertTrue(thrown.get() instanceof InterruptedException);
+                assertEquals(1, stillInterrupted.get());
+                assertEquals(Arrays.asList("a", "slow"), sorted(undone));
+        }
+
+        private Callable<String> create(String item) {
+                return () -> item;
+        }
+
+        private List<String> sorted(List<String> items) {
+                List<String> copy = new ArrayList<String>(items);
+                Collections.sort(copy);
+                return copy;
+        }
+}
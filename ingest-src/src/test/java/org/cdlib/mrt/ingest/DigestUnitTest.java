@@ -0,0 +1,197 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.cdlib.mrt.ingest.utility.DigestCache;
+import org.cdlib.mrt.ingest.utility.DigestEngine;
+import org.cdlib.mrt.ingest.utility.DownloadUtil;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class DigestUnitTest {
+
+        @Rule
+        public TemporaryFolder tmp = new TemporaryFolder();
+
+        @Test
+        public void DownloadComputesDigest() throws Exception {
+                File source = tmp.newFile("source.txt");
+                Files.write(source.toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+                File target = new File(tmp.getRoot(), "target.txt");
+
+                DownloadUtil.Result result = DownloadUtil.url2File(source.toURI().toURL(), target, 1, "MD5", "SHA-256");
+                assertEquals(11, result.getSize());
+                assertEquals(11, target.length());
+                assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", result.getDigest("md5"));
+                assertEquals("b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9", result.getDigest("SHA-256"));
+        }
+
+        @Test
+        public void DownloadUnsupportedDigest() throws Exception {
+                File source = tmp.newFile("source.txt");
+                Files.write(source.toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+                File target = new File(tmp.getRoot(), "target.txt");
+
+                DownloadUtil.Result result = DownloadUtil.url2File(source.toURI().toURL(), target, 1, "Adler-32");
+                assertEquals(11, result.getSize());
+                assertNull(result.getDigest("Adler-32"));
+        }
+
+        @Test
+        public void DownloadResumesWithRange() throws Exception {
+                byte[] content = new byte[3 * 1024 * 1024];
+                new Random(42).nextBytes(content);
+                List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+                List<String> ifRanges = Collections.synchronizedList(new ArrayList<String>());
+                HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                server.createContext("/file", exchange -> {
+                        String range = exchange.getRequestHeaders().getFirst("Range");
+                        ranges.add(String.valueOf(range));
+                        ifRanges.add(String.valueOf(exchange.getRequestHeaders().getFirst("If-Range")));
+                        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                        if (range == null) {
+                                // first request breaks half way through the body
+                                exchange.sendResponseHeaders(200, content.length);
+                                OutputStream out = exchange.getResponseBody();
+                                out.write(content, 0, content.length / 2);
+                                out.flush();
+                                exchange.close();
+                                return;
+                        }
+                        int start = Integer.parseInt(range.substring("bytes=".length(), range.indexOf('-')));
+                        exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + (content.length - 1) + "/" + content.length);
+                        exchange.sendResponseHeaders(206, content.length - start);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                                out.write(content, start, content.length - start);
+                        }
+                });
+                server.start();
+                try {
+                        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/file");
+                        File target = new File(tmp.getRoot(), "target.bin");
+                        DownloadUtil.Result result = DownloadUtil.url2File(url, target, 1, "SHA-256");
+
+                        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+                        assertEquals(content.length, result.getSize());
+                        assertEquals(expected, result.getDigest("SHA-256"));
+                        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+                        assertEquals(2, result.getAttempts());
+                        assertEquals("null", ranges.get(0));
+                        assertTrue(ranges.get(1).startsWith("bytes=") && ! ranges.get(1).equals("bytes=0-"));
+                        // handler thread only records headers, assertions there would be lost
+                        assertEquals("\"v1\"", ifRanges.get(1));
+                } finally {
+                        server.stop(0);
+                }
+        }
+
+        @Test
+        public void DownloadInParallelRanges() throws Exception {
+                byte[] content = new byte[5 * 1024 * 1024 + 17];
+                new Random(7).nextBytes(content);
+                List<String> ranges = Collections.synchronizedList(new ArrayList<String>());
+                HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                server.setExecutor(Executors.newCachedThreadPool());
+                server.createContext("/file", exchange -> {
+                        String range = exchange.getRequestHeaders().getFirst("Range");
+                        ranges.add(String.valueOf(range));
+                        exchange.getResponseHeaders().set("ETag", "\"v1\"");
+                        exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+                        int start = 0;
+                        int end = content.length - 1;
+                        if (range != null) {
+                                String[] bounds = range.substring("bytes=".length()).split("-");
+                                start = Integer.parseInt(bounds[0]);
+                                end = Integer.parseInt(bounds[1]);
+                                exchange.getResponseHeaders().set("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+                        }
+                        exchange.sendResponseHeaders(range == null ? 200 : 206, end - start + 1);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                                out.write(content, start, end - start + 1);
+                        } catch (Exception e) {
+                                // client abandoned the full response in favor of ranges
+                        }
+                });
+                server.start();
+                DownloadUtil.setChunking(4 * 1024 * 1024, 1024 * 1024, 3);
+                try {
+                        URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/file");
+                        File target = new File(tmp.getRoot(), "target.bin");
+                        DownloadUtil.Result result = DownloadUtil.url2File(url, target, 1, "SHA-256");
+
+                        String expected = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+                        assertEquals(content.length, result.getSize());
+                        assertEquals(expected, result.getDigest("SHA-256"));
+                        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+                        assertEquals(1 + 6, ranges.size());
+                        assertTrue(ranges.contains("bytes=5242880-5242896"));
+                } finally {
+                        DownloadUtil.setChunking(DownloadUtil.DEFAULT_CHUNK_THRESHOLD, DownloadUtil.DEFAULT_CHUNK_SIZE, DownloadUtil.DEFAULT_CHUNK_THREADS);
+                        server.stop(0);
+                }
+        }
+
+        @Test
+        public void DigestCacheReuse() throws Exception {
+                File jobDir = tmp.newFolder("job");
+                File producer = new File(jobDir, "producer");
+                producer.mkdirs();
+                File file = new File(producer, "hello.txt");
+                Files.write(file.toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+
+                DigestCache digestCache = DigestCache.getDigestCache(jobDir);
+                String sha256 = "b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9";
+                assertEquals(sha256, digestCache.digest(file, "SHA-256"));
+                assertEquals(11, digestCache.getBytesHashed());
+                digestCache.save("test");
+
+                // reloaded cache serves the digest without reading the file
+                digestCache = DigestCache.getDigestCache(jobDir);
+                assertEquals(sha256, digestCache.digest(file, "SHA-256"));
+                assertEquals(0, digestCache.getBytesHashed());
+                assertEquals(11, digestCache.getBytesSaved());
+                digestCache.save("test");
+                assertEquals(11, DigestCache.getDigestCache(jobDir).getTotalBytesSaved());
+
+                // a changed file is hashed again
+                Files.write(file.toPath(), "hello world!".getBytes(StandardCharsets.UTF_8));
+                file.setLastModified(file.lastModified() + 2000);
+                assertNull(digestCache.getDigest(file, "SHA-256"));
+        }
+
+        @Test
+        public void EngineMultipleAlgorithms() throws Exception {
+                File jobDir = tmp.newFolder("job");
+                File small = new File(jobDir, "small.txt");
+                Files.write(small.toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+                File large = new File(jobDir, "large.bin");
+                Files.write(large.toPath(), new byte[(int) DigestEngine.LARGE_FILE + 1]);
+
+                DigestCache digestCache = DigestCache.getDigestCache(jobDir);
+                DigestEngine.digest(Arrays.asList(small, large), digestCache, "SHA-256", "MD5");
+                assertEquals(11 + DigestEngine.LARGE_FILE + 1, digestCache.getBytesHashed());
+                assertEquals("5eb63bbbe01eeed093cb22bb8f5acdc3", digestCache.getDigest(small, "MD5"));
+                assertEquals("b94d27b9934d3e08a52e52d7da7dabfac484efe37a5380ee9088f7ace2efcde9", digestCache.getDigest(small, "SHA-256"));
+                // FileChannel path
+                String expected = HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(Files.readAllBytes(large.toPath())));
+                assertEquals(expected, digestCache.getDigest(large, "MD5"));
+        }
+}
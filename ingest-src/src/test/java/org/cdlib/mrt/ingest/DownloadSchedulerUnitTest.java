@@ -0,0 +1,124 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import org.cdlib.mrt.ingest.utility.DownloadScheduler;
+import org.junit.Test;
+
+public class DownloadSchedulerUnitTest {
+
+        @Test
+        public void JobsServedRoundRobin() throws Exception {
+                DownloadScheduler scheduler = new DownloadScheduler(1, 4);
+                CountDownLatch gate = new CountDownLatch(1);
+                List<String> order = Collections.synchronizedList(new ArrayList<String>());
+
+                // hold the only thread so both jobs queue in full
+                Future<String> blocker = scheduler.submit("gate", "host", () -> {
+                        gate.await();
+                        return "gate";
+                }, null);
+                List<Future<String>> futures = new ArrayList<Future<String>>();
+                for (String jobID : new String[] {"A", "A", "A", "B", "B", "B"}) {
+                        futures.add(scheduler.submit(jobID, "host", () -> {
+                                order.add(jobID);
+                                return jobID;
+                        }, null));
+                }
+                gate.countDown();
+                blocker.get(10, TimeUnit.SECONDS);
+                for (Future<String> future : futures) {
+                        future.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(Arrays.asList("A", "B", "A", "B", "A", "B"), order);
+        }
+
+        @Test
+        public void HostCapped() throws Exception {
+                DownloadScheduler scheduler = new DownloadScheduler(8, 2);
+                CountDownLatch gate = new CountDownLatch(1);
+                AtomicInteger current = new AtomicInteger();
+                AtomicInteger peak = new AtomicInteger();
+
+                List<Future<String>> futures = new ArrayList<Future<String>>();
+                for (int i = 0; i < 6; i++) {
+                        futures.add(scheduler.submit("job", "slow.example.org", () -> {
+                                peak.accumulateAndGet(current.incrementAndGet(), Math::max);
+                                try {
+                                        gate.await();
+                                } finally {
+                                        current.decrementAndGet();
+                                }
+                                return "slow";
+                        }, null));
+                }
+                waitFor(() -> current.get() == 2);
+
+                // another host is not held up by the capped one
+                Future<String> other = scheduler.submit("job", "fast.example.org", () -> "fast", null);
+                assertEquals("fast", other.get(10, TimeUnit.SECONDS));
+                waitFor(() -> scheduler.getActive() == 2);
+                assertEquals(4, scheduler.getQueued());
+                assertEquals(2, current.get());
+
+                gate.countDown();
+                for (Future<String> future : futures) {
+                        future.get(10, TimeUnit.SECONDS);
+                }
+                assertEquals(2, peak.get());
+        }
+
+        @Test
+        public void CancelReachesRunningAndQueued() throws Exception {
+                DownloadScheduler scheduler = new DownloadScheduler(1, 1);
+                CountDownLatch started = new CountDownLatch(1);
+                CountDownLatch interrupted = new CountDownLatch(1);
+                AtomicInteger queuedRuns = new AtomicInteger();
+
+                Future<String> running = scheduler.submit("job", "host", () -> {
+                        started.countDown();
+                        try {
+                                new CountDownLatch(1).await();
+                        } catch (InterruptedException ie) {
+                                interrupted.countDown();
+                                throw ie;
+                        }
+                        return "running";
+                }, null);
+                Future<String> queued = scheduler.submit("job", "host", () -> {
+                        queuedRuns.incrementAndGet();
+                        return "queued";
+                }, null);
+                assertTrue(started.await(10, TimeUnit.SECONDS));
+
+                scheduler.cancel("job");
+                assertTrue(interrupted.await(10, TimeUnit.SECONDS));
+                assertTrue(running.isCancelled());
+                assertTrue(queued.isCancelled());
+
+                // slot released: another job runs on the only thread
+                assertEquals("next", scheduler.submit("next", "host", () -> "next", null).get(10, TimeUnit.SECONDS));
+                assertEquals(0, queuedRuns.get());
+                waitFor(() -> scheduler.getActive() == 0);
+                assertEquals(0, scheduler.getQueued());
+        }
+
+        // a worker releases its slots just after the future completes
+        private static void waitFor(BooleanSupplier condition) throws InterruptedException {
+                long deadline = System.currentTimeMillis() + 10000;
+                while (! condition.getAsBoolean()) {
+                        assertTrue("condition not met in time", System.currentTimeMillis() < deadline);
+                        Thread.sleep(10);
+                }
+        }
+}
@@ -0,0 +1,143 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.cdlib.mrt.ingest.handlers.estimate.HandlerEstimate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class EstimateUnitTest {
+
+        @Rule
+        public TemporaryFolder tmp = new TemporaryFolder();
+
+        private HttpServer server;
+        private ExecutorService serverThreads = Executors.newCachedThreadPool();
+        private List<String> requests = Collections.synchronizedList(new ArrayList<String>());
+
+        @Before
+        public void startServer() throws IOException {
+                server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                server.setExecutor(serverThreads);
+                server.start();
+        }
+
+        @After
+        public void stopServer() {
+                server.stop(0);
+                serverThreads.shutdownNow();
+        }
+
+        @Test
+        public void SizeFromHead() throws Exception {
+                server.createContext("/head", exchange -> {
+                        requests.add(exchange.getRequestMethod());
+                        exchange.getResponseHeaders().set("Content-Length", "1234");
+                        exchange.sendResponseHeaders(200, -1);
+                        exchange.close();
+                });
+                assertEquals(1234, HandlerEstimate.getRemoteSize(url("/head")));
+                assertEquals(List.of("HEAD"), requests);
+        }
+
+        @Test
+        public void SizeFromContentRange() throws Exception {
+                server.createContext("/range", exchange -> {
+                        String range = exchange.getRequestHeaders().getFirst("Range");
+                        requests.add(exchange.getRequestMethod() + " " + range);
+                        if (exchange.getRequestMethod().equals("HEAD")) {
+                                exchange.sendResponseHeaders(405, -1);
+                        } else {
+                                exchange.getResponseHeaders().set("Content-Range", "bytes 0-0/5000");
+                                exchange.sendResponseHeaders(206, 1);
+                                try (OutputStream out = exchange.getResponseBody()) {
+                                        out.write('x');
+                                }
+                        }
+                        exchange.close();
+                });
+                assertEquals(5000, HandlerEstimate.getRemoteSize(url("/range")));
+                assertEquals(List.of("HEAD null", "GET bytes=0-0"), requests);
+        }
+
+        @Test
+        public void RangeIgnoredNotRead() throws Exception {
+                byte[] block = new byte[1024 * 1024];
+                int blocks = 64;
+                AtomicBoolean sentAll = new AtomicBoolean();
+                CountDownLatch done = new CountDownLatch(1);
+                server.createContext("/ignored", exchange -> {
+                        try {
+                                if (exchange.getRequestMethod().equals("HEAD")) {
+                                        exchange.sendResponseHeaders(405, -1);
+                                        return;
+                                }
+                                // full body despite the range request
+                                exchange.sendResponseHeaders(200, (long) block.length * blocks);
+                                try (OutputStream out = exchange.getResponseBody()) {
+                                        for (int i = 0; i < blocks; i++) {
+                                                out.write(block);
+                                        }
+                                }
+                                sentAll.set(true);
+                        } catch (IOException ioe) {
+                                // client aborted
+                        } finally {
+                                exchange.close();
+                                if (exchange.getRequestMethod().equals("GET")) done.countDown();
+                        }
+                });
+                assertEquals((long) block.length * blocks, HandlerEstimate.getRemoteSize(url("/ignored")));
+                assertTrue(done.await(10, TimeUnit.SECONDS));
+                assertFalse(sentAll.get());
+        }
+
+        @Test
+        public void NotFound() throws Exception {
+                assertEquals(HandlerEstimate.NOT_FOUND, HandlerEstimate.getRemoteSize(url("/missing")));
+        }
+
+        @Test
+        public void NotFoundOnRange() throws Exception {
+                server.createContext("/gone", exchange -> {
+                        requests.add(exchange.getRequestMethod());
+                        exchange.sendResponseHeaders(exchange.getRequestMethod().equals("HEAD") ? 405 : 404, -1);
+                        exchange.close();
+                });
+                assertEquals(HandlerEstimate.NOT_FOUND, HandlerEstimate.getRemoteSize(url("/gone")));
+                assertEquals(List.of("HEAD", "GET"), requests);
+        }
+
+        @Test
+        public void SizeOfFile() throws Exception {
+                File source = tmp.newFile("source.txt");
+                Files.write(source.toPath(), "hello world".getBytes(StandardCharsets.UTF_8));
+                assertEquals(11, HandlerEstimate.getRemoteSize(source.toURI().toURL()));
+                assertEquals(HandlerEstimate.NOT_FOUND, HandlerEstimate.getRemoteSize(new File(tmp.getRoot(), "missing.txt").toURI().toURL()));
+        }
+
+        private URL url(String path) throws Exception {
+                return new URL("http://localhost:" + server.getAddress().getPort() + path);
+        }
+}
@@ -69,6 +69,13 @@ public class IngestHandlerTest extends IngestTestCore {
                 },
                 ZipFileAsFile("test.zip", PackageTypeEnum.file, ""),
                 ZipFileAsContainer("test.zip", PackageTypeEnum.container, "test.txt,foo.txt"),
+                TarGzFileAsContainer("test.tar.gz", PackageTypeEnum.container, "test.txt,foo.txt"),
+                TarBz2FileAsContainer("test.tar.bz2", PackageTypeEnum.container, "test.txt,foo.txt"),
+                MultiEntryZipAsContainer("multi.zip", PackageTypeEnum.container,
+                                "file01.txt,file02.txt,file03.txt,file04.txt,file05.txt,file06.txt,file07.txt,file08.txt,"
+                                + "dir/a.txt,dir/b.txt,dir/sub/c.txt,dir/sub/d.txt"),
+                // entry names in ISO-8859-1, no UTF-8 flag
+                Latin1ZipAsContainer("latin1.zip", PackageTypeEnum.container, "caf\u00e9.txt,na\u00efve.txt"),
                 FourBlocks(SAMPLES + "4blocks.checkm", PackageTypeEnum.manifest, "4blocks.jpg,4blocks.txt"),
                 BigHunt(SAMPLES + "bigHunt.checkm", PackageTypeEnum.manifest, "bigHunt.txt,bigHunt2.jpg,bigHunt3.jpg"),
                 Call911(SAMPLES + "call911.checkm", PackageTypeEnum.manifest, "call911.txt,call911.jpg"),
@@ -342,6 +349,17 @@ public class IngestHandlerTest extends IngestTestCore {
                 org.cdlib.mrt.ingest.handlers.HandlerResult hr = new org.cdlib.mrt.ingest.handlers.queue.HandlerDisaggregate().handle(ps, ir, batch);
                 assertTrue(hr.getSuccess());
                 assertEquals(ingestInput.sampleFile.files.size() + 1, batch.getJobStates().size());
+                if (batch.grabArrivingJobs() != null) {
+                        for (int i = 0; i < batch.grabArrivingCount(); i++) {
+                                try {
+                                        JobState arrived = batch.grabArrivingJobs().take().get();
+                                        assertNotNull(arrived);
+                                        assertNull(arrived.getJobStatusMessage(), arrived.getJobStatus());
+                                } catch (Exception e) {
+                                        fail("object manifest not retrieved: " + e);
+                                }
+                        }
+                }
                 for (JobState tjs : batch.getJobStates().values()) {
                         if (tjs.getJobID().getValue().equals(JOBID)) {
                                 continue;
@@ -1,14 +1,37 @@
 package org.cdlib.mrt.ingest;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.sun.net.httpserver.HttpServer;
+
+import org.cdlib.mrt.core.ManifestBuild;
+import org.cdlib.mrt.ingest.handlers.HandlerResult;
+import org.cdlib.mrt.ingest.utility.DigestCache;
+import org.cdlib.mrt.ingest.utility.JobStatusEnum;
 import org.cdlib.mrt.ingest.utility.PackageTypeEnum;
 import org.cdlib.mrt.utility.TException;
 import org.junit.Test;
 
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class IngestHandlerUnitTest extends IngestHandlerTest {
 
@@ -61,6 +84,45 @@ public class IngestHandlerUnitTest extends IngestHandlerTest {
                 runHandlerVerifyTests(ingestInput, ir);
         }
 
+        @Test
+        public void HandlerVerifyTestWithUploadDigest() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] HandlerVerifyTestWithUploadDigest - Verify against digest computed on receipt");
+                InputFile ingestInput = new InputFile(SampleFile.SingleFileWithDigest, tempdir);
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                ingestInput.moveToIngestDir();
+                // package is not re-read when a digest was computed on receipt
+                ir.getJob().setUploadDigest("0000");
+
+                runHandlerInitializeTests(ingestInput, ir);
+                runHandlerAcceptTests(ingestInput, ir);
+                failHandlerVerifyTests(ingestInput, ir);
+        }
+
+        @Test
+        public void QueueDisaggregateUploadDigestByStoredFile() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] QueueDisaggregateUploadDigestByStoredFile - Receipt digest applied to its own file");
+                InputFile ingestInput = new InputFile(SampleFile.SingleFileWithDigest, createBatchDir());
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                BatchState batch = ingestInput.getBatchState();
+                // two parts named test.txt, the second stored under a unique name
+                Files.copy(SampleFile.SingleFileWithDigest.getPath(), ingestInput.getCopyPath());
+                Files.copy(SampleFile.SingleFileWithDigest.getPath(), ingestInput.tempdir().resolve("1234-test.txt"));
+                ir.getJob().setPackageName("test.txt");
+                ir.getJob().setUploadDigest("0000");
+                ir.getJob().setUploadDigestFile("1234-test.txt");
+
+                HandlerResult hr = new org.cdlib.mrt.ingest.handlers.queue.HandlerDisaggregate().handle(ps, ir, batch);
+                assertTrue(hr.getSuccess());
+                Map<String, String> uploadDigests = new HashMap<String, String>();
+                for (JobState jobState : batch.getJobStates().values()) {
+                        if (jobState.getJobID().getValue().equals(JOBID)) continue;
+                        uploadDigests.put(jobState.getPackageName(), jobState.grabUploadDigest());
+                }
+                assertEquals(2, uploadDigests.size());
+                assertNull(uploadDigests.get("test.txt"));
+                assertEquals("0000", uploadDigests.get("1234-test.txt"));
+        }
+
         @Test
         public void HandlerVerifyTestWithInvalidDigest() throws TException, IOException {
                 System.out.println("[IngestHandlerUnitTest] HandlerVerifyTestWithInvalidDigest - Verify data with bad Digest");
@@ -85,6 +147,67 @@ public class IngestHandlerUnitTest extends IngestHandlerTest {
                 runHandlerDisaggregateTests(ingestInput, ir);
         }
 
+        @Test
+        public void HandlerDisaggregateTarGzTest() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] HandlerDisaggregateTarGzTest - Expand tar.gz in a single pass");
+                InputFile ingestInput = new InputFile(SampleFile.TarGzFileAsContainer, tempdir);
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                ingestInput.moveToIngestDir();
+
+                runHandlerDisaggregateTests(ingestInput, ir);
+                assertFalse(getProducerPath().resolve("test.tar").toFile().exists());
+
+                // members hashed during extraction
+                DigestCache digestCache = DigestCache.getDigestCache(ir.getQueuePath());
+                assertEquals("8b1a9953c4611296a827abf8c47804d7",
+                        digestCache.getDigest(getProducerPath().resolve("test.txt").toFile(), "MD5"));
+                assertNotNull(digestCache.getDigest(getProducerPath().resolve("foo.txt").toFile(), "SHA-256"));
+        }
+
+        @Test
+        public void HandlerDisaggregateTarBz2Test() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] HandlerDisaggregateTarBz2Test - Expand tar.bz2 in a single pass");
+                InputFile ingestInput = new InputFile(SampleFile.TarBz2FileAsContainer, tempdir);
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                ingestInput.moveToIngestDir();
+
+                runHandlerDisaggregateTests(ingestInput, ir);
+                assertFalse(getProducerPath().resolve("test.tar").toFile().exists());
+        }
+
+        @Test
+        public void HandlerDisaggregateMultiEntryZipTest() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] HandlerDisaggregateMultiEntryZipTest - Extract zip entries concurrently");
+                InputFile ingestInput = new InputFile(SampleFile.MultiEntryZipAsContainer, tempdir);
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                ingestInput.moveToIngestDir();
+
+                runHandlerDisaggregateTests(ingestInput, ir);
+                assertDisaggregated(ingestInput, ir);
+        }
+
+        @Test
+        public void HandlerDisaggregateLatin1ZipTest() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] HandlerDisaggregateLatin1ZipTest - Zip entry names not UTF-8");
+                InputFile ingestInput = new InputFile(SampleFile.Latin1ZipAsContainer, tempdir);
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                ingestInput.moveToIngestDir();
+
+                runHandlerDisaggregateTests(ingestInput, ir);
+                assertDisaggregated(ingestInput, ir);
+        }
+
+        // every member extracted intact and hashed during extraction
+        private void assertDisaggregated(InputFile ingestInput, IngestRequest ir) throws TException, IOException {
+                DigestCache digestCache = DigestCache.getDigestCache(ir.getQueuePath());
+                for (String name : ingestInput.sampleFile().files()) {
+                        File member = getProducerPath().resolve(name).toFile();
+                        assertEquals("content of " + name + "\n",
+                                new String(Files.readAllBytes(member.toPath()), StandardCharsets.UTF_8));
+                        assertNotNull(digestCache.getDigest(member, "SHA-256"));
+                }
+        }
+
         @Test
         public void HandlerRetrieveTest() throws TException, IOException {
                 System.out.println("[IngestHandlerUnitTest] HandlerRetrieveTest - Test retrieval");
@@ -187,6 +310,50 @@ public class IngestHandlerUnitTest extends IngestHandlerTest {
                 runAllHandlers(ingestInput, ir);
         }
 
+        @Test
+        public void HandlerDigestMimeTypes() throws TException, IOException {
+                System.out.println("[IngestHandlerUnitTest] HandlerDigestMimeTypes - Manifest mime types match ManifestBuild");
+                InputFile ingestInput = new InputFile(SampleFile.ZipFileAsContainer, tempdir);
+                IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                ingestInput.moveToIngestDir();
+
+                runHandlerInitializeTests(ingestInput, ir);
+                runHandlerAcceptTests(ingestInput, ir);
+                runHandlerVerifyTests(ingestInput, ir);
+                runHandlerDisaggregateTests(ingestInput, ir);
+                runHandlerRetrieveTests(ingestInput, ir);
+                runHandlerCorroborateTests(ingestInput, ir);
+                runHandlerCharacterizeTests(ingestInput, ir);
+                runHandlerDescribeTests(ingestInput, ir);
+                runHandlerDocumentTests(ingestInput, ir);
+                runHandlerDigestTests(ingestInput, ir);
+
+                // manifest built the way HandlerDigest used to
+                File reference = Files.createTempFile("reference-manifest", ".txt").toFile();
+                try {
+                        ManifestBuild.getPostManifest("file:" + tempdir, tempdir.toFile(), reference);
+                        Map<String, String> expected = getMimeTypes(reference);
+                        Map<String, String> actual = getMimeTypes(tempdir.resolve("system").resolve("mrt-manifest.txt").toFile());
+                        assertFalse(actual.isEmpty());
+                        for (String fileName : actual.keySet()) {
+                                assertEquals(fileName, expected.get(fileName), actual.get(fileName));
+                        }
+                } finally {
+                        reference.delete();
+                }
+        }
+
+        // file name -> mime type of manifest rows
+        private static Map<String, String> getMimeTypes(File manifest) throws IOException {
+                Map<String, String> mimeTypes = new HashMap<String, String>();
+                for (String line : Files.readAllLines(manifest.toPath(), StandardCharsets.UTF_8)) {
+                        if (line.startsWith("#")) continue;
+                        String[] fields = line.split(" \\| ");
+                        if (fields.length > 6) mimeTypes.put(fields[5], fields[6]);
+                }
+                return mimeTypes;
+        }
+
         @Test
         public void AllHandlersZipFile() throws TException, IOException {
                 System.out.println("[IngestHandlerUnitTest] AllHandlersZipFile - Run zip file");
@@ -278,4 +445,105 @@ public class IngestHandlerUnitTest extends IngestHandlerTest {
 
                 runQueueHandlerTests(ingestInput, ir, PackageTypeEnum.manifest);
         }
+
+        @Test
+        public void QueueDisaggregateFailedManifestRow() throws Exception {
+                System.out.println("[IngestHandlerUnitTest] QueueDisaggregateFailedManifestRow - Unreachable object manifest fails its job only");
+                byte[] objectManifest = Files.readAllBytes(SampleFile.SingleFileNoDigest.getPath());
+                HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                server.createContext("/", exchange -> {
+                        if (exchange.getRequestURI().getPath().equals("/ok.checkm")) {
+                                exchange.sendResponseHeaders(200, objectManifest.length);
+                                try (OutputStream out = exchange.getResponseBody()) {
+                                        out.write(objectManifest);
+                                }
+                        } else {
+                                exchange.sendResponseHeaders(404, -1);
+                                exchange.close();
+                        }
+                });
+                server.start();
+                try {
+                        String base = "http://localhost:" + server.getAddress().getPort() + "/";
+                        InputFile ingestInput = new InputFile(SampleFile.BatchManifests, createBatchDir());
+                        Files.write(ingestInput.getCopyPath(), String.join("\n",
+                                "#%checkm_0.7",
+                                "#%profile | http://uc3.cdlib.org/registry/ingest/manifest/mrt-batch-manifest",
+                                "#%prefix | mrt: | http://merritt.cdlib.org/terms#",
+                                "#%prefix | nfo: | http://www.semanticdesktop.org/ontologies/2007/03/22/nfo#",
+                                "#%fields | nfo:fileUrl | nfo:hashAlgorithm | nfo:hashValue | nfo:fileSize | nfo:fileLastModified | nfo:fileName | mrt:primaryIdentifier | mrt:localIdentifier | mrt:creator | mrt:title | mrt:date",
+                                base + "ok.checkm | | | | | ok.checkm | | | | |",
+                                base + "missing.checkm | | | | | missing.checkm | | | | |",
+                                "#%eof", "").getBytes(StandardCharsets.UTF_8));
+                        IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                        BatchState batch = ingestInput.getBatchState();
+
+                        HandlerResult hr = new org.cdlib.mrt.ingest.handlers.queue.HandlerDisaggregate().handle(ps, ir, batch);
+                        assertTrue(hr.getSuccess());
+                        assertEquals(2, batch.grabArrivingCount());
+
+                        Map<String, JobState> arrived = new HashMap<String, JobState>();
+                        for (int i = 0; i < batch.grabArrivingCount(); i++) {
+                                JobState jobState = batch.grabArrivingJobs().poll(60, TimeUnit.SECONDS).get();
+                                arrived.put(jobState.getPackageName(), jobState);
+                        }
+                        // the row is handed on as a failed job, the batch itself does not fail
+                        assertNull(arrived.get("ok.checkm").getJobStatus());
+                        assertEquals(JobStatusEnum.FAILED, arrived.get("missing.checkm").getJobStatus());
+                        assertTrue(arrived.get("missing.checkm").getJobStatusMessage().contains(base + "missing.checkm"));
+                } finally {
+                        server.stop(0);
+                }
+        }
+
+        @Test
+        public void HandlerEstimateFailsFast() throws Exception {
+                System.out.println("[IngestHandlerUnitTest] HandlerEstimateFailsFast - Missing URL ends estimation without waiting on slow ones");
+                CountDownLatch release = new CountDownLatch(1);
+                AtomicInteger answered = new AtomicInteger();
+                HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                ExecutorService serverThreads = Executors.newCachedThreadPool();
+                server.setExecutor(serverThreads);
+                server.createContext("/", exchange -> {
+                        if (exchange.getRequestURI().getPath().startsWith("/slow")) {
+                                try {
+                                        release.await(60, TimeUnit.SECONDS);
+                                } catch (InterruptedException ie) {
+                                }
+                                answered.incrementAndGet();
+                                exchange.getResponseHeaders().set("Content-Length", "10");
+                                exchange.sendResponseHeaders(200, -1);
+                        } else {
+                                exchange.sendResponseHeaders(404, -1);
+                        }
+                        exchange.close();
+                });
+                server.start();
+                try {
+                        String base = "http://localhost:" + server.getAddress().getPort() + "/";
+                        InputFile ingestInput = new InputFile(SampleFile.FourBlocks, tempdir);
+                        IngestRequest ir = ingestInput.getIngestRequest(this.im, ingestInput.getJobState());
+                        Files.write(ingestInput.getProducerPath(), String.join("\n",
+                                "#%checkm_0.7",
+                                "#%profile | http://uc3.cdlib.org/registry/ingest/manifest/mrt-ingest-manifest",
+                                "#%prefix | mrt: | http://merritt.cdlib.org/terms#",
+                                "#%prefix | nfo: | http://www.semanticdesktop.org/ontologies/2007/03/22/nfo#",
+                                "#%fields | nfo:fileUrl | nfo:hashAlgorithm | nfo:hashValue | nfo:fileSize | nfo:fileLastModified | nfo:fileName | mrt:mimeType",
+                                base + "slow1.txt | | |  |  | slow1.txt",
+                                base + "slow2.txt | | |  |  | slow2.txt",
+                                base + "slow3.txt | | |  |  | slow3.txt",
+                                base + "missing.txt | | |  |  | missing.txt",
+                                "#%eof", "").getBytes(StandardCharsets.UTF_8));
+
+                        HandlerResult hr = new org.cdlib.mrt.ingest.handlers.estimate.HandlerEstimate().handle(ps, ir, ingestInput.getJobState());
+                        assertFalse(hr.getSuccess());
+                        assertTrue(hr.getDescription().contains(base + "missing.txt"));
+                        // returned while the slow size requests are still outstanding
+                        assertEquals(0, answered.get());
+                } finally {
+                        release.countDown();
+                        server.stop(0);
+                        serverThreads.shutdown();
+                }
+        }
 }
@@ -2,16 +2,37 @@ package org.cdlib.mrt.ingest;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.net.MalformedURLException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.cdlib.mrt.core.Identifier;
+import org.cdlib.mrt.ingest.handlers.Handler;
+import org.cdlib.mrt.ingest.handlers.HandlerRegistry;
+import org.cdlib.mrt.ingest.utility.ProfileCache;
+import org.cdlib.mrt.ingest.utility.ProfileUtil;
 import org.cdlib.mrt.utility.TException;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
 public class IngestProfileUnitTest extends IngestTestCore {
+        @Rule
+        public TemporaryFolder tmp = new TemporaryFolder();
+
         public Date jan1_2022() {
                 Calendar cal = Calendar.getInstance();
                 cal.set(122, 1, 1);
@@ -56,4 +77,99 @@ public class IngestProfileUnitTest extends IngestTestCore {
                 assertNull(ps.getPURL());
         }
 
+        @Test
+        public void ProfileHandlersResolved() throws TException, MalformedURLException {
+                ProfileState ps = getProfileState();
+                // the record stage handler is not part of this service
+                assertEquals(Arrays.asList("org.cdlib.mrt.ingest.handlers.record.HandlerInventoryQueue"),
+                        HandlerRegistry.validate(ps));
+
+                String digest = "org.cdlib.mrt.ingest.handlers.process.HandlerDigest";
+                Handler handler = HandlerRegistry.getHandler(digest);
+                assertEquals(digest, handler.getClass().getName());
+                assertNotSame(handler, HandlerRegistry.getHandler(digest));
+                assertNull(HandlerRegistry.getHandler("org.cdlib.mrt.ingest.handlers.HandlerMissing"));
+        }
+
+        @Test
+        public void ProfileCacheParsesOnce() throws Exception {
+                int numThreads = 16;
+                File profile = tmp.newFile("merritt_test_content");
+                Files.copy(IngestProfile.merritt_test_content.getPath(), profile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+
+                AtomicInteger parses = new AtomicInteger();
+                Callable<ProfileState> parser = () -> {
+                        parses.incrementAndGet();
+                        Thread.sleep(200);	// hold the load open while the other threads arrive
+                        return new ProfileState();
+                };
+
+                ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+                CyclicBarrier start = new CyclicBarrier(numThreads);
+                List<Future<ProfileState>> results = new ArrayList<Future<ProfileState>>();
+                try {
+                        for (int i = 0; i < numThreads; i++) {
+                                results.add(executor.submit(() -> {
+                                        start.await();
+                                        return ProfileCache.getParsed(profile, parser);
+                                }));
+                        }
+                        ProfileState first = results.get(0).get();
+                        for (Future<ProfileState> result : results) {
+                                assertSame(first, result.get());
+                        }
+                        assertEquals(1, parses.get());
+                } finally {
+                        executor.shutdownNow();
+                        ProfileCache.remove(profile);
+                }
+        }
+
+        @Test
+        public void ProfileLoadsConcurrently() throws Exception {
+                int numThreads = 8;
+                int loads = 20;
+                String template = new String(Files.readAllBytes(IngestProfile.merritt_test_content.getPath()), StandardCharsets.UTF_8);
+                List<File> profiles = new ArrayList<File>();
+                for (int i = 0; i < numThreads; i++) {
+                        File profile = tmp.newFile("load_" + i + "_content");
+                        Files.write(profile.toPath(), template
+                                .replace("ProfileID: merritt_test_content", "ProfileID: load_" + i + "_content")
+                                .replace("StorageNode: 9999", "StorageNode: " + (1000 + i))
+                                .getBytes(StandardCharsets.UTF_8));
+                        profiles.add(profile);
+                }
+
+                ProfileCache.setTTL(0);		// parse on every load
+                ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+                CyclicBarrier start = new CyclicBarrier(numThreads);
+                List<Future<Void>> results = new ArrayList<Future<Void>>();
+                try {
+                        for (int i = 0; i < numThreads; i++) {
+                                File profile = profiles.get(i);
+                                int node = 1000 + i;
+                                results.add(executor.submit(() -> {
+                                        start.await();
+                                        for (int j = 0; j < loads; j++) {
+                                                // no state shared between loads of different profiles
+                                                ProfileState ps = ProfileUtil.getProfile(new Identifier(profile.getName()), profile);
+                                                assertEquals(profile.getName(), ps.getProfileID().getValue());
+                                                assertEquals(node, ps.getTargetStorage().getNodeID());
+                                        }
+                                        return null;
+                                }));
+                        }
+                        for (Future<Void> result : results) {
+                                result.get();
+                        }
+                } finally {
+                        executor.shutdownNow();
+                        ProfileCache.setTTL(ProfileCache.DEFAULT_TTL);
+                        for (File profile : profiles) {
+                                ProfileCache.remove(profile);
+                        }
+                }
+        }
+
 }
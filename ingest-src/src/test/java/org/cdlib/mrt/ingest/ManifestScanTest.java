@@ -0,0 +1,64 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cdlib.mrt.ingest.handlers.estimate.HandlerEstimate;
+import org.cdlib.mrt.utility.LoggerInf;
+import org.cdlib.mrt.utility.TException;
+import org.cdlib.mrt.utility.TFileLogger;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Manifest parsing in HandlerEstimate
+ */
+public class ManifestScanTest {
+
+        @Rule
+        public TemporaryFolder tmp = new TemporaryFolder();
+
+        private LoggerInf logger = new TFileLogger("ManifestScanTest", 0, 0);
+
+        @Test
+        public void ScanManifest() throws Exception {
+                File manifest = writeManifest(tmp.newFile("manifest.checkm"), 100, false);
+                List<String> names = new ArrayList<String>();
+                long rows = HandlerEstimate.scanManifest(manifest, logger, fc -> names.add(fc.getIdentifier()));
+                assertEquals(100, rows);
+                assertEquals("dir/file-0.txt", names.get(0));
+                assertEquals("dir/file-99.txt", names.get(99));
+        }
+
+        @Test
+        public void ScanManifestDuplicate() throws Exception {
+                File manifest = writeManifest(tmp.newFile("manifest.checkm"), 100, true);
+                try {
+                        HandlerEstimate.scanManifest(manifest, logger, fc -> {});
+                        fail("duplicate not detected");
+                } catch (TException.REQUEST_ITEM_EXISTS dup) {
+                        assertTrue(dup.getDetail().contains("dir/file-0.txt"));
+                }
+        }
+
+        private File writeManifest(File file, int rows, boolean duplicate) throws Exception {
+                try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+                        writer.println("#%checkm_0.7");
+                        writer.println("#%profile | http://uc3.cdlib.org/registry/ingest/manifest/mrt-ingest-manifest");
+                        writer.println("#%prefix | mrt: | http://merritt.cdlib.org/terms#");
+                        writer.println("#%prefix | nfo: | http://www.semanticdesktop.org/ontologies/2007/03/22/nfo#");
+                        writer.println("#%fields | nfo:fileUrl | nfo:hashAlgorithm | nfo:hashValue | nfo:fileSize | nfo:fileLastModified | nfo:fileName | mrt:mimeType");
+                        for (int i = 0; i < rows; i++) {
+                                int n = (duplicate && i == rows - 1) ? 0 : i;
+                                writer.println("http://example.org/data/file-" + n + ".txt | | |  |  | dir/file-" + n + ".txt");
+                        }
+                        writer.println("#%eof");
+                }
+                return file;
+        }
+}
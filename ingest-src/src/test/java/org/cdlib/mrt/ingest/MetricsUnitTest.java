@@ -0,0 +1,49 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import org.cdlib.mrt.ingest.utility.LatencyHistogram;
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.junit.Test;
+
+public class MetricsUnitTest {
+
+        @Test
+        public void HistogramBuckets() {
+                LatencyHistogram h = new LatencyHistogram();
+                h.record(0);
+                h.record(3);
+                h.record(700);
+                h.record(700);
+                assertEquals(4, h.getCount());
+                assertEquals(1403, h.getSum());
+                assertEquals(700, h.getMax());
+                assertEquals(1000, h.getPercentile(99.0));
+                assertEquals(5, h.getPercentile(50.0));
+        }
+
+        @Test
+        public void HistogramPrometheusFormat() {
+                LatencyHistogram h = new LatencyHistogram();
+                h.record(3);
+                h.record(1500);
+                StringBuilder out = new StringBuilder();
+                h.writePrometheus(out, "test_seconds", "stage=\"Process\"");
+                String s = out.toString();
+                assertTrue(s.contains("test_seconds_bucket{stage=\"Process\",le=\"0.005\"} 1\n"));
+                assertTrue(s.contains("test_seconds_bucket{stage=\"Process\",le=\"2.0\"} 2\n"));
+                assertTrue(s.contains("test_seconds_bucket{stage=\"Process\",le=\"+Inf\"} 2\n"));
+                assertTrue(s.contains("test_seconds_sum{stage=\"Process\"} 1.503\n"));
+                assertTrue(s.contains("test_seconds_count{stage=\"Process\"} 2\n"));
+        }
+
+        @Test
+        public void HandlerMetrics() {
+                MetricsUtil.recordHandler("Process", "HandlerDigest", 42);
+                String s = MetricsUtil.getPrometheus(null);
+                assertTrue(s.contains("# TYPE ingest_handler_execution_seconds histogram"));
+                assertTrue(s.contains("ingest_handler_execution_seconds_count{stage=\"Process\",handler=\"HandlerDigest\"} "));
+                assertTrue(s.contains("ingest_zk_session_creations_total "));
+        }
+
+}
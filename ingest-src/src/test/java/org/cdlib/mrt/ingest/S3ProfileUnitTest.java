@@ -0,0 +1,84 @@
+package org.cdlib.mrt.ingest;
+
+import static org.junit.Assert.*;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.cdlib.mrt.ingest.utility.MetricsUtil;
+import org.cdlib.mrt.ingest.utility.ProfileCache;
+import org.cdlib.mrt.ingest.utility.ProfileUtil;
+import org.cdlib.mrt.ingest.utility.S3Util;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class S3ProfileUnitTest {
+
+        private static final String BUCKET = "test.bucket";
+        private static final String PREFIX = "uc3/mrt/mrt-ingest-profiles";
+
+        @Rule
+        public TemporaryFolder tmp = new TemporaryFolder();
+
+        private S3StandIn s3;
+        private byte[] profile;
+
+        @Before
+        public void setup() throws Exception {
+                s3 = new S3StandIn();
+                profile = Files.readAllBytes(IngestTestCore.IngestProfile.merritt_test_content.getPath());
+                s3.putObject(BUCKET, PREFIX + "/merritt_test_content", profile);
+        }
+
+        @After
+        public void teardown() {
+                S3Util.closeClients();
+                ProfileCache.setTTL(ProfileCache.DEFAULT_TTL);
+                s3.close();
+        }
+
+        @Test
+        public void SharedClient() throws Exception {
+                assertSame(S3Util.getClient(ProfileUtil.PROFILE_REGION, "ak", "sk", s3.getEndpoint()),
+                        S3Util.getClient(ProfileUtil.PROFILE_REGION, "ak", "sk", s3.getEndpoint()));
+                assertNotSame(S3Util.getClient(ProfileUtil.PROFILE_REGION, "ak", "sk", s3.getEndpoint()),
+                        S3Util.getClient(ProfileUtil.PROFILE_REGION, "ak2", "sk", s3.getEndpoint()));
+        }
+
+        @Test
+        public void ProfileRevalidatedByETag() throws Exception {
+                ProfileCache.setTTL(0);		// revalidate on every load
+                String batchDir = tmp.newFolder("bid-" + System.nanoTime()).getAbsolutePath();
+                IngestTestCore.IngestProfile ip = IngestTestCore.IngestProfile.merritt_test_content;
+
+                ProfileState ps = load(ip, batchDir);
+                assertEquals("Merritt Test", ps.getProfileDescription());
+                assertEquals(1, s3.getRequests("GET"));
+
+                // unchanged: HEAD only
+                ps = load(ip, batchDir);
+                assertEquals("Merritt Test", ps.getProfileDescription());
+                assertEquals(1, s3.getRequests("GET"));
+                assertEquals(1, s3.getRequests("HEAD"));
+
+                // changed: downloaded again
+                String changed = new String(profile, StandardCharsets.UTF_8)
+                        .replace("ProfileDescription: Merritt Test", "ProfileDescription: Merritt Changed");
+                s3.putObject(BUCKET, PREFIX + "/merritt_test_content", changed.getBytes(StandardCharsets.UTF_8));
+                ps = load(ip, batchDir);
+                assertEquals("Merritt Changed", ps.getProfileDescription());
+                assertEquals(2, s3.getRequests("GET"));
+
+                String metrics = MetricsUtil.getPrometheus(null);
+                assertTrue(metrics.contains("ingest_s3_request_seconds_count{operation=\"GetObject\"}"));
+                assertTrue(metrics.contains("ingest_s3_request_seconds_count{operation=\"HeadObject\"}"));
+        }
+
+        private ProfileState load(IngestTestCore.IngestProfile ip, String batchDir) throws Exception {
+                // delete the batch copy so that every load resolves the profile from S3
+                return ProfileUtil.getProfile(ip.getIdentifier(), batchDir, s3.getEndpoint(), "ak", "sk", BUCKET, PREFIX, true);
+        }
+}
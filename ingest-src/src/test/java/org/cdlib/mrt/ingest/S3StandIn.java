@@ -0,0 +1,108 @@
+package org.cdlib.mrt.ingest;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.security.MessageDigest;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Minimal Minio-compatible stand-in for tests (path style, in memory, no authentication).
+ * Supports bucket HEAD and object GET, HEAD and PUT.  Counts requests by method.
+ */
+public class S3StandIn implements AutoCloseable {
+
+        private final HttpServer server;
+        private final ExecutorService executor = Executors.newCachedThreadPool();
+        private final Map<String, byte[]> objects = new ConcurrentHashMap<String, byte[]>();
+        private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+
+        public S3StandIn() throws IOException {
+                server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+                server.createContext("/", this::handle);
+                server.setExecutor(executor);
+                server.start();
+        }
+
+        public String getEndpoint() {
+                return "http://localhost:" + server.getAddress().getPort();
+        }
+
+        public void putObject(String bucket, String key, byte[] content) {
+                objects.put(bucket + "/" + key, content);
+        }
+
+        public byte[] getObject(String bucket, String key) {
+                return objects.get(bucket + "/" + key);
+        }
+
+        public int getRequests(String method) {
+                AtomicInteger count = requests.get(method);
+                return count == null ? 0 : count.get();
+        }
+
+        public static String etag(byte[] content) throws Exception {
+                return "\"" + HexFormat.of().formatHex(MessageDigest.getInstance("MD5").digest(content)) + "\"";
+        }
+
+        @Override
+        public void close() {
+                server.stop(0);
+                executor.shutdownNow();
+        }
+
+        private void handle(HttpExchange exchange) throws IOException {
+                try {
+                        String method = exchange.getRequestMethod();
+                        requests.computeIfAbsent(method, k -> new AtomicInteger()).incrementAndGet();
+                        String path = exchange.getRequestURI().getPath().substring(1);
+                        if (path.endsWith("/")) path = path.substring(0, path.length() - 1);
+
+                        if (path.indexOf('/') < 0) {
+                                // bucket
+                                exchange.sendResponseHeaders(method.equals("HEAD") ? 200 : 501, -1);
+                                return;
+                        }
+                        if (method.equals("PUT")) {
+                                byte[] content;
+                                try (InputStream in = exchange.getRequestBody()) {
+                                        content = in.readAllBytes();
+                                }
+                                objects.put(path, content);
+                                exchange.getResponseHeaders().set("ETag", etag(content));
+                                exchange.sendResponseHeaders(200, -1);
+                                return;
+                        }
+
+                        byte[] content = objects.get(path);
+                        if (content == null) {
+                                exchange.sendResponseHeaders(404, -1);
+                                return;
+                        }
+                        exchange.getResponseHeaders().set("ETag", etag(content));
+                        exchange.getResponseHeaders().set("Content-Type", "application/octet-stream");
+                        if (method.equals("HEAD")) {
+                                exchange.getResponseHeaders().set("Content-Length", String.valueOf(content.length));
+                                exchange.sendResponseHeaders(200, -1);
+                                return;
+                        }
+                        exchange.sendResponseHeaders(200, content.length);
+                        try (OutputStream out = exchange.getResponseBody()) {
+                                out.write(content);
+                        }
+                } catch (Exception e) {
+                        exchange.sendResponseHeaders(500, -1);
+                } finally {
+                        exchange.close();
+                }
+        }
+}